@@ -0,0 +1,33 @@
+import benchmarks.Workloads;
+
+//ALU operations measured by benchmarks.AluBenchmark. The operands change on every call so the
+//results can not be folded away, and every result goes into a preallocated word
+public class AluWorkload implements Workloads.AluWorkload {
+
+    private final ALU alu = new ALU();
+    private final Word a = new Word(0x12345678);
+    private final Word b = new Word(0x0F0F0F0F);
+    private final Word c = new Word(-7);
+    private final Word d = new Word(1 << 20);
+    private final Word target = new Word();
+
+    public int add2(){
+        alu.add2(a, b, target);
+        a.copy(target);
+        return target.getSigned();
+    }
+
+    public int add4(){
+        alu.add4(a, b, c, d, target);
+        a.copy(target);
+        return target.getSigned();
+    }
+
+    public int multiply(){
+        alu.op1.copy(a);
+        alu.op2.copy(b);
+        alu.doOperation(ALU.MULTIPLY, target);
+        a.set(target.getSigned() | 1);
+        return target.getSigned();
+    }
+}
@@ -0,0 +1,53 @@
+import benchmarks.Workloads;
+
+//Lexing and parsing measured by benchmarks.AssemblerBenchmark, on a generated program that cycles
+//through every kind of statement the assembler accepts
+public class AssemblerWorkload implements Workloads.AssemblerWorkload {
+
+    private static final String[] STATEMENTS = {
+            "copy r1 100",
+            "math add r3 r1 r3",
+            "math sub r1 r2 r1",
+            "math mult r4 r1 r1",
+            "math xor r5 r4",
+            "shift left r6 r5 3",
+            "branch equal r1 r0 2",
+            "branch less r1 r2 r3 4",
+            "call r5 0",
+            "push add r0 r0",
+            "pop r6",
+            "load r9 r7 0",
+            "store r7 r3 0",
+            "peek r8 r7 1",
+            "jump 12",
+            "halt"
+    };
+
+    private String code;
+
+    public void setup(int lines){
+        StringBuilder builder = new StringBuilder(lines * 16);
+        for(int i = 0; i<lines; i++){
+            builder.append(STATEMENTS[i % STATEMENTS.length]).append('\n');
+        }
+        code = builder.toString();
+    }
+
+    public int lex() throws Exception {
+        Lexer lexer = new Lexer(code);
+        int tokens = 0;
+        while(lexer.hasNext()){
+            lexer.next();
+            tokens++;
+        }
+        return tokens;
+    }
+
+    public int assemble() throws Exception {
+        return new Parser(new Lexer(code)).parse().length;
+    }
+
+    public int assembleParallel() throws Exception {
+        return Assembler.assemble(code).length;
+    }
+}
@@ -0,0 +1,51 @@
+import benchmarks.Workloads;
+
+//Guest program runs measured by benchmarks.ProcessorBenchmark. The program is a counted loop over
+//math, stack, memory and branch instructions, assembled once up front
+public class ProcessorWorkload implements Workloads.ProcessorWorkload {
+
+    private static final String LOOP =
+            "copy r1 %d\n" +
+            "copy r2 1\n" +
+            "copy r7 900\n" +
+            "push add r0 r0\n" +
+            "pop r6\n" +
+            "math sub r1 r2 r1\n" +
+            "math add r3 r1 r3\n" +
+            "math mult r4 r1 r1\n" +
+            "store r7 r3 0\n" +
+            "load r9 r7 0\n" +
+            "branch equal r1 r0 1\n" +
+            "halt\n" +
+            "halt\n";
+
+    //The assembler has no branch backwards (immediates are unsigned and jump is a call, which would
+    //grow the stack every iteration), so the halt after the loop's exit test is replaced with a
+    //branch without registers, which sets the program counter to its immediate: the top of the loop
+    private static final int LOOP_START = 3;
+    private static final int LOOP_END = 11;
+    private static final int BRANCH_TO_START = 0b00100 | LOOP_START << 5;
+
+    private ExecutionMode mode;
+    private boolean fused;
+    private boolean caches;
+    private int[] program;
+
+    public void setup(String mode, int iterations, boolean caches) throws Exception {
+        fused = mode.equals("FUSED");
+        this.mode = fused ? ExecutionMode.FAST : ExecutionMode.valueOf(mode);
+        this.caches = caches;
+        program = new Parser(new Lexer(String.format(LOOP, iterations))).parse();
+        program[LOOP_END] = BRANCH_TO_START;
+    }
+
+    public void run() throws Exception {
+        MainMemory memory = new MainMemory();
+        memory.load(program);
+        Processor processor = new Processor(caches ? new CachedMemory(memory, new CacheHierarchy()) : memory, mode);
+        if(fused){
+            processor.setFusion(new Fusion());
+        }
+        processor.run();
+    }
+}
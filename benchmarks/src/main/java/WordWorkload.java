@@ -0,0 +1,19 @@
+import benchmarks.Workloads;
+
+//Word operations measured by benchmarks.WordBenchmark
+public class WordWorkload implements Workloads.WordWorkload {
+
+    private final Word word = new Word();
+
+    public void set(int value){
+        word.set(value);
+    }
+
+    public int getSigned(){
+        return word.getSigned();
+    }
+
+    public long getUnsigned(){
+        return word.getUnsigned();
+    }
+}
@@ -0,0 +1,37 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//Measures the gate level adders and the multiplier built on top of them
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AluBenchmark {
+
+    private Workloads.AluWorkload alu;
+
+    @Setup
+    public void setup(){
+        alu = Workloads.load("AluWorkload");
+    }
+
+    @Benchmark
+    public int add2(){
+        return alu.add2();
+    }
+
+    @Benchmark
+    public int add4(){
+        return alu.add4();
+    }
+
+    @Benchmark
+    public int multiply(){
+        return alu.multiply();
+    }
+}
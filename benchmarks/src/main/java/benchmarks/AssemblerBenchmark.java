@@ -0,0 +1,42 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//Measures the lexer alone, the lexer and parser together, and the parallel Assembler on generated
+//programs of increasing size
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class AssemblerBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int lines;
+
+    private Workloads.AssemblerWorkload assembler;
+
+    @Setup
+    public void setup() throws Exception {
+        assembler = Workloads.load("AssemblerWorkload");
+        assembler.setup(lines);
+    }
+
+    @Benchmark
+    public int lex() throws Exception {
+        return assembler.lex();
+    }
+
+    @Benchmark
+    public int lexAndParse() throws Exception {
+        return assembler.assemble();
+    }
+
+    @Benchmark
+    public int assembleParallel() throws Exception {
+        return assembler.assembleParallel();
+    }
+}
@@ -0,0 +1,41 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//Measures whole guest program runs on each execution engine, from loading memory to the halt, with
+//tracing off so only the simulation is measured
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessorBenchmark {
+
+    //FUSED is the fast engine with common pairs of instructions fused, see Fusion
+    @Param({"REFERENCE", "FAST", "FUSED", "JIT"})
+    public String mode;
+
+    //Whether the core runs through the default CacheHierarchy, to measure what modeling it costs
+    @Param({"false", "true"})
+    public boolean caches;
+
+    //Number of times the guest loop goes around
+    @Param({"1000"})
+    public int iterations;
+
+    private Workloads.ProcessorWorkload processor;
+
+    @Setup
+    public void setup() throws Exception {
+        processor = Workloads.load("ProcessorWorkload");
+        processor.setup(mode, iterations, caches);
+    }
+
+    @Benchmark
+    public void run() throws Exception {
+        processor.run();
+    }
+}
@@ -0,0 +1,38 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//Measures the basic Word accessors that every simulated instruction goes through
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordBenchmark {
+
+    private Workloads.WordWorkload word;
+    private int value;
+
+    @Setup
+    public void setup(){
+        word = Workloads.load("WordWorkload");
+    }
+
+    @Benchmark
+    public void set(){
+        word.set(value++);
+    }
+
+    @Benchmark
+    public int getSigned(){
+        return word.getSigned();
+    }
+
+    @Benchmark
+    public long getUnsigned(){
+        return word.getUnsigned();
+    }
+}
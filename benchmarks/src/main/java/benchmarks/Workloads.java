@@ -0,0 +1,52 @@
+package benchmarks;
+
+//The processor classes live in the default package, which Java code in a named package can not
+//refer to, while JMH requires benchmarks to be in a named package. Each benchmark therefore drives
+//a small default package class through one of the interfaces below, loaded by name. The calls are
+//monomorphic, so HotSpot inlines them and they do not show up in the measurements.
+public final class Workloads {
+
+    private Workloads(){
+    }
+
+    public interface WordWorkload {
+        void set(int value);
+        int getSigned();
+        long getUnsigned();
+    }
+
+    public interface AluWorkload {
+        int add2();
+        int add4();
+        int multiply();
+    }
+
+    public interface AssemblerWorkload {
+        //Prepares a generated program of the given number of lines
+        void setup(int lines) throws Exception;
+        //Lexes the program, returning the number of tokens
+        int lex() throws Exception;
+        //Lexes and parses the program, returning the number of instructions
+        int assemble() throws Exception;
+        //Same as assemble(), but through Assembler, which splits large programs into chunks and
+        //assembles them in parallel
+        int assembleParallel() throws Exception;
+    }
+
+    public interface ProcessorWorkload {
+        //Assembles the guest program once, ahead of the measurements
+        void setup(String mode, int iterations, boolean caches) throws Exception;
+        //Loads the program into a fresh memory and runs it to the halt
+        void run() throws Exception;
+    }
+
+    //Creates the default package workload with the given class name
+    @SuppressWarnings("unchecked")
+    public static <T> T load(String className) {
+        try {
+            return (T) Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create workload " + className, e);
+        }
+    }
+}
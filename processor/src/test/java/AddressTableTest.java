@@ -0,0 +1,37 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+//Checks AddressTable against a HashMap over enough addresses for the table to grow several times,
+//including addresses that only differ in their high bits, and that clear() empties it for reuse
+class AddressTableTest {
+
+    @Test
+    void numbersAddressesInTheOrderTheyWereAdded() {
+        AddressTable table = new AddressTable();
+        Random random = new Random(21);
+        for(int round = 0; round<3; round++){
+            Map<Integer, Integer> expected = new HashMap<>();
+            for(int i = 0; i<5000; i++){
+                int address = random.nextBoolean() ? random.nextInt(3000) : random.nextInt(3000) << 20;
+                Integer number = expected.putIfAbsent(address, expected.size());
+                assertEquals(number == null ? expected.size() - 1 : number, table.add(address));
+            }
+            assertEquals(expected.size(), table.size());
+            for(Map.Entry<Integer, Integer> entry : expected.entrySet()){
+                assertEquals(entry.getValue(), table.find(entry.getKey()));
+                assertEquals(entry.getKey(), table.address(entry.getValue()));
+            }
+            assertEquals(-1, table.find(-7));
+            table.clear();
+            assertEquals(0, table.size());
+            for(int address : expected.keySet()){
+                assertEquals(-1, table.find(address));
+            }
+        }
+    }
+}
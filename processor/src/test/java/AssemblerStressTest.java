@@ -0,0 +1,94 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+//Stress check for concurrent assembly: generates thousands of different programs, assembles each
+//one serially, then assembles all of them again at the same time on many threads and checks every
+//result is identical to the serial one. Each program is assembled a different way in turn (Lexer
+//and Parser, lex() into a list, Assembler on a String and Assembler on bytes), and every so often
+//a program is large enough for Assembler to split it up with fork/join.
+class AssemblerStressTest {
+
+    private static final int PROGRAMS = 2000;
+    private static final int ROUNDS = 2;
+
+    private static final String[] STATEMENTS = {
+            "math add r%d r%d r%d", "math sub r%d r%d", "math mult r%d r%d r%d", "math and r%d r%d",
+            "math or r%d r%d r%d", "math not r%d r%d", "math xor r%d r%d r%d",
+            "copy r%d %d", "shift left r%d r%d %d", "shift right r%d r%d %d",
+            "branch equal r%d r%d %d", "branch less r%d r%d r%d %d", "branch gequal r%d r%d %d",
+            "call r%d %d", "jump %d", "push add r%d r%d", "pop r%d", "load r%d r%d %d",
+            "store r%d r%d %d", "peek r%d r%d %d", "return", "halt", "# comment", ""
+    };
+
+    @Test
+    void parallelAssemblyMatchesSerial() throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors() * 4;
+        Random random = new Random(14);
+        String[] sources = new String[PROGRAMS];
+        int[][] expected = new int[PROGRAMS][];
+        for(int i = 0; i<PROGRAMS; i++){
+            //Every 500th program is big enough to be assembled in chunks
+            sources[i] = generate(random, i % 500 == 499 ? 120_000 : 20 + random.nextInt(400));
+            expected[i] = new Parser(new Lexer(sources[i])).parse();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try{
+            for(int round = 0; round<ROUNDS; round++){
+                CountDownLatch go = new CountDownLatch(1);
+                List<Future<int[]>> results = new ArrayList<>(PROGRAMS);
+                for(int i = 0; i<PROGRAMS; i++){
+                    String source = sources[i];
+                    int way = (i + round) % 4;
+                    results.add(executor.submit(() -> {
+                        go.await();
+                        return assemble(source, way);
+                    }));
+                }
+                go.countDown();
+                for(int i = 0; i<PROGRAMS; i++){
+                    assertArrayEquals(expected[i], results.get(i).get(),
+                            "Program " + i + " differs from the serial result in round " + (round + 1));
+                }
+            }
+        }
+        finally{
+            executor.shutdown();
+        }
+    }
+
+    private static int[] assemble(String source, int way) throws Exception {
+        switch(way){
+            case 0: return new Parser(new Lexer(source)).parse();
+            case 1: return new Parser(new Lexer(source).lex()).parse();
+            case 2: return Assembler.assemble(source);
+            default: return Assembler.assemble(ByteBuffer.wrap(source.getBytes(StandardCharsets.US_ASCII)));
+        }
+    }
+
+    //Generates a program of random statements, filling each %d with a register or immediate
+    private static String generate(Random random, int lines){
+        StringBuilder builder = new StringBuilder(lines * 20);
+        for(int i = 0; i<lines; i++){
+            String statement = STATEMENTS[random.nextInt(STATEMENTS.length)];
+            int count = statement.split("%d", -1).length - 1;
+            Object[] values = new Object[count];
+            for(int j = 0; j<count; j++){
+                values[j] = random.nextInt(32);
+            }
+            builder.append(String.format(statement, values)).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,114 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+//Runs short, hand worked sequences of reads and writes through small caches and checks the cycles
+//of each access and the hits, misses, evictions and write backs counted, for direct mapped and set
+//associative caches, LRU and PLRU replacement, and write through caches without write allocate.
+//Every cache takes 1 cycle per access and sits on a memory taking 10.
+class CacheTest {
+
+    private static final int MEMORY = 10;
+
+    private static Cache cache(int size, int lineSize, int ways, ReplacementPolicy policy, boolean writeBack,
+                               boolean writeAllocate){
+        Cache cache = new Cache("test", size, lineSize, ways, policy, writeBack, writeAllocate, 1);
+        cache.memoryLatency = MEMORY;
+        return cache;
+    }
+
+    private static void assertCounts(Cache cache, long hits, long misses, long evictions, long writeBacks){
+        assertEquals(hits, cache.getHits(), "hits");
+        assertEquals(misses, cache.getMisses(), "misses");
+        assertEquals(evictions, cache.getEvictions(), "evictions");
+        assertEquals(writeBacks, cache.getWriteBacks(), "write backs");
+    }
+
+    //Reads each address in turn, checking whether each one hit
+    private static void reads(Cache cache, int[] addresses, boolean[] hits){
+        for(int i = 0; i<addresses.length; i++){
+            int cycles = cache.access(addresses[i], false);
+            assertEquals(hits[i] ? 1 : 1 + MEMORY, cycles, "read " + i + " of address " + addresses[i]);
+        }
+    }
+
+    @Test
+    void directMappedWriteBack() {
+        //4 sets of 2 word lines: addresses 0, 1, 8 and 9 all go to set 0
+        Cache cache = cache(8, 2, 1, ReplacementPolicy.LRU, true, true);
+        assertEquals(1 + MEMORY, cache.access(0, false));
+        assertEquals(1, cache.access(1, false));
+        //Brings line 8 in over the clean line 0 and only marks it dirty
+        assertEquals(1 + MEMORY, cache.access(8, true));
+        assertCounts(cache, 1, 2, 1, 0);
+        assertEquals(1, cache.access(9, true));
+        //Evicting the dirty line writes it back, which the read pays for
+        assertEquals(1 + MEMORY + MEMORY, cache.access(0, false));
+        assertEquals(1 + MEMORY, cache.access(2, false));
+        assertEquals(1, cache.access(0, false));
+        assertCounts(cache, 3, 4, 2, 1);
+    }
+
+    @Test
+    void twoWayLeastRecentlyUsed() {
+        //2 sets of 2 ways of 1 word lines: the even addresses all go to set 0
+        Cache cache = cache(4, 1, 2, ReplacementPolicy.LRU, true, true);
+        //4 replaces 2, which was used before 0, then 2 replaces 0 and so on
+        reads(cache, new int[]{0, 2, 0, 4, 2, 4, 0, 2}, new boolean[]{false, false, true, false, false, true, false, false});
+        assertCounts(cache, 2, 6, 4, 0);
+        //The set now holds 0 and 2
+        reads(cache, new int[]{0, 2, 4}, new boolean[]{true, true, false});
+        //Odd addresses use the other set and evict nothing there
+        reads(cache, new int[]{1, 3, 1}, new boolean[]{false, false, true});
+        assertCounts(cache, 5, 9, 5, 0);
+    }
+
+    @Test
+    void fourWayPseudoLeastRecentlyUsed() {
+        //One set of 4 ways. The tree has a root choosing between ways 0-1 and 2-3, and a node for
+        //each pair, each pointing away from the way used last below it
+        Cache cache = cache(4, 1, 4, ReplacementPolicy.PLRU, true, true);
+        //After filling ways 0 to 3 in order, reading 0 points the root at 2-3, whose node still points
+        //at 2, so 4 replaces 2 - where LRU would replace 1. 1 hits, pointing the root back at 2-3,
+        //where 3 is now the victim, and then 0 is the victim of 3 coming back
+        reads(cache, new int[]{0, 1, 2, 3, 0, 4, 1, 2, 3},
+                new boolean[]{false, false, false, false, true, false, true, false, false});
+        assertCounts(cache, 2, 7, 3, 0);
+        //Ways 0 to 3 hold 3, 1, 4 and 2
+        reads(cache, new int[]{4, 1, 2, 3, 0}, new boolean[]{true, true, true, true, false});
+
+        Cache lru = cache(4, 1, 4, ReplacementPolicy.LRU, true, true);
+        reads(lru, new int[]{0, 1, 2, 3, 0, 4, 1, 2, 3},
+                new boolean[]{false, false, false, false, true, false, false, false, false});
+        assertCounts(lru, 1, 8, 4, 0);
+    }
+
+    @Test
+    void writeThroughWithoutWriteAllocate() {
+        Cache cache = cache(4, 1, 1, ReplacementPolicy.LRU, false, false);
+        //A write that misses goes straight to memory without bringing the line in
+        assertEquals(1 + MEMORY, cache.access(0, true));
+        assertEquals(1 + MEMORY, cache.access(0, false));
+        //A write that hits still goes to memory, and leaves the line clean
+        assertEquals(1 + MEMORY, cache.access(0, true));
+        assertEquals(1 + MEMORY, cache.access(4, true));
+        assertEquals(1, cache.access(0, false));
+        assertCounts(cache, 2, 3, 0, 0);
+        //So evicting it writes nothing back
+        assertEquals(1 + MEMORY, cache.access(4, false));
+        assertCounts(cache, 2, 4, 1, 0);
+    }
+
+    @Test
+    void writeBackWithoutWriteAllocate() {
+        Cache cache = cache(4, 1, 1, ReplacementPolicy.LRU, true, false);
+        assertEquals(1 + MEMORY, cache.access(0, true));
+        assertEquals(1 + MEMORY, cache.access(0, false));
+        //Only marks the line dirty
+        assertEquals(1, cache.access(0, true));
+        assertEquals(1 + MEMORY, cache.access(4, true));
+        //Writes the dirty line back on the way in
+        assertEquals(1 + MEMORY + MEMORY, cache.access(4, false));
+        assertCounts(cache, 1, 4, 1, 1);
+    }
+}
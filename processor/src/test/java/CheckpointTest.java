@@ -0,0 +1,133 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Writes several checkpoints of a machine whose memory is changed between them, through the fast path
+//of writeValue(), atomics and whole program loads, and reads each one back. Later frames only hold the
+//pages written since the frame before, even when a snapshot was taken in between. A file whose last
+//frame is cut short or fails its checksum reads back as the frame before it.
+class CheckpointTest {
+
+    //Not a whole number of pages, so the last page is shorter
+    private static final long SIZE = 6 * MemoryStore.PAGE_SIZE + 123;
+
+    private static final int FRAMES = 6;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void flatMemoryRoundTrips() throws IOException {
+        roundTrip(MemoryBacking.HEAP);
+    }
+
+    @Test
+    void directMemoryRoundTrips() throws IOException {
+        roundTrip(MemoryBacking.DIRECT);
+    }
+
+    private void roundTrip(MemoryBacking backing) throws IOException {
+        Path file = directory.resolve("machine.ckpt");
+        MainMemory memory = new MainMemory(SIZE, backing);
+        VirtualMachine machine = new VirtualMachine(memory, ExecutionMode.FAST);
+        Random random = new Random(22);
+        List<int[]> words = new ArrayList<>();
+        List<int[]> registers = new ArrayList<>();
+        long[] lengths = new long[FRAMES];
+
+        try(Checkpoint.Writer writer = new Checkpoint.Writer(file)){
+            memory.load(new int[]{1, 2, 3, 4, 5});
+            for(int frame = 0; frame<FRAMES; frame++){
+                if(frame > 0){
+                    change(machine, random, frame);
+                }
+                if(frame == 3){
+                    //A snapshot nobody writes out must not hide the pages changed before it
+                    memory.snapshot();
+                    memory.writeValue((int)SIZE - 1, frame);
+                }
+                writer.write(machine);
+                words.add(contents(memory));
+                registers.add(machine.getRegisters());
+                lengths[frame] = Files.size(file);
+                assertState(Checkpoint.read(file), words.get(frame), registers.get(frame), "frame " + frame);
+            }
+        }
+
+        //Frame 1 only wrote the first page, so it only holds that one
+        long frameBytes = Checkpoint.FRAME_HEADER_SIZE + 4 + 4 + MemoryStore.PAGE_SIZE * 4L;
+        assertEquals(frameBytes, lengths[1] - lengths[0]);
+        //Frame 2 wrote nothing
+        assertEquals(Checkpoint.FRAME_HEADER_SIZE + 4, lengths[2] - lengths[1]);
+        assertTrue(lengths[4] - lengths[3] < 3 * frameBytes, "frame 4 is " + (lengths[4] - lengths[3]) + " bytes");
+
+        byte[] bytes = Files.readAllBytes(file);
+        int last = FRAMES - 1;
+        for(int cut : new int[]{1, 4, (int)(lengths[last] - lengths[last - 1]) - 1}){
+            Path truncated = directory.resolve("truncated.ckpt");
+            Files.write(truncated, Arrays.copyOf(bytes, bytes.length - cut));
+            assertState(Checkpoint.read(truncated), words.get(last - 1), registers.get(last - 1), "cut " + cut);
+        }
+
+        for(long offset : new long[]{lengths[last - 1] + 20, bytes.length - 1}){
+            byte[] corrupted = bytes.clone();
+            corrupted[(int)offset] ^= 0x10;
+            Path broken = directory.resolve("corrupted.ckpt");
+            Files.write(broken, corrupted);
+            assertState(Checkpoint.read(broken), words.get(last - 1), registers.get(last - 1), "byte " + offset);
+        }
+    }
+
+    //Changes the machine between frames
+    private static void change(VirtualMachine machine, Random random, int frame){
+        MainMemory memory = machine.getMemory();
+        Processor processor = machine.getProcessor();
+        processor.r[frame].set(random.nextInt());
+        processor.setProgramCounter(frame * 10);
+        switch(frame){
+            case 1 -> memory.writeValue(7, 99);
+            case 2 -> { }
+            case 3 -> {
+                memory.getAndAdd(2 * MemoryStore.PAGE_SIZE + 5, 3);
+                memory.compareAndExchange(3, 4, 40);
+            }
+            case 4 -> {
+                //Back to the value of frame 3 still counts as written
+                memory.writeValue(MemoryStore.PAGE_SIZE + 1, 5);
+                memory.writeValue(MemoryStore.PAGE_SIZE + 1, 0);
+                memory.getAndSet(4 * MemoryStore.PAGE_SIZE, -1);
+            }
+            default -> {
+                for(int i = 0; i<200; i++){
+                    memory.writeValue(random.nextInt((int)SIZE), random.nextInt(3));
+                }
+                memory.load(new int[]{9, 8, 7});
+            }
+        }
+    }
+
+    private static int[] contents(MainMemory memory){
+        int[] words = new int[(int)memory.size()];
+        for(int i = 0; i<words.length; i++){
+            words[i] = memory.readValue(i);
+        }
+        return words;
+    }
+
+    private static void assertState(Checkpoint checkpoint, int[] words, int[] registers, String message){
+        assertArrayEquals(registers, checkpoint.getRegisters(), message);
+        VirtualMachine machine = checkpoint.start(ExecutionMode.REFERENCE);
+        assertArrayEquals(words, contents(machine.getMemory()), message);
+    }
+}
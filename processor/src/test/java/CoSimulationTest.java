@@ -0,0 +1,108 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Co-simulates a counting loop against a fast engine whose memory changes a single one of the words
+//it writes, and checks the divergence names that write: the instructions run before it, the address
+//of the store, and a count of 1 even when the engines were only compared every few instructions.
+class CoSimulationTest {
+
+    //The store of 5 is on the sixth time round the loop, after the 3 instructions before it and 5
+    //times the 4 of the loop
+    private static final int STORE = 3;
+    private static final long BEFORE = 3 + 5 * 4;
+
+    //Stores r20 to 600 while counting it down from 10 to 1, with the jump back to the top as a raw
+    //branch without registers
+    private static ProgramImage program() throws Exception {
+        int[] program = Assembler.assemble("copy r20 10\ncopy r21 1\ncopy r10 600\nstore r10 r20\nmath sub r20 r21\n"
+                + "branch equal r20 r0 1\nhalt\nhalt\n");
+        program[6] = 0b00100 | 3 << 5;
+        return ProgramImage.of(program);
+    }
+
+    @Test
+    void engineThatAgreesRunsToTheEnd() throws Exception {
+        for(int interval : new int[]{1, 8}){
+            CoSimulation simulation = new CoSimulation(program(), 1024, ExecutionMode.FAST, interval);
+            assertNull(simulation.run(0));
+            assertTrue(simulation.getReference().isHalted());
+            assertEquals(1, simulation.getFast().getMemory().readValue(600));
+        }
+    }
+
+    @Test
+    void divergenceIsTheCorruptedWrite() throws Exception {
+        for(int interval : new int[]{1, 8, 1000}){
+            CoSimulation simulation = new CoSimulation(program(), 1024, ExecutionMode.FAST, interval,
+                    CorruptedWrite::new);
+            CoSimulation.Divergence divergence = simulation.run(0);
+            assertNotNull(divergence, "interval " + interval);
+            assertEquals(BEFORE, divergence.instructions, "interval " + interval);
+            assertEquals(STORE, divergence.address, "interval " + interval);
+            assertEquals(1, divergence.count, "interval " + interval);
+            assertEquals(1, divergence.getMemoryDifferences(), "interval " + interval);
+            assertTrue(divergence.toString().contains("[600]"), divergence.toString());
+        }
+    }
+
+    //A view of a memory that writes 6 instead of every 5 written to address 600, and passes
+    //everything else on unchanged
+    private static class CorruptedWrite extends MainMemory {
+
+        private final MainMemory memory;
+
+        CorruptedWrite(MainMemory memory){
+            super(memory);
+            this.memory = memory;
+        }
+
+        @Override
+        public int readValue(int address){
+            return memory.readValue(address);
+        }
+
+        @Override
+        public void writeValue(int address, int value){
+            memory.writeValue(address, address == 600 && value == 5 ? 6 : value);
+        }
+
+        @Override
+        public DecodedInstruction decode(int address){
+            return memory.decode(address);
+        }
+
+        @Override
+        FusedInstruction fuse(int address, DecodedInstruction first){
+            return memory.fuse(address, first);
+        }
+
+        @Override
+        public int codeVersion(){
+            return memory.codeVersion();
+        }
+
+        @Override
+        public int compareAndExchange(int address, int expected, int value){
+            return memory.compareAndExchange(address, expected, value);
+        }
+
+        @Override
+        public int getAndAdd(int address, int delta){
+            return memory.getAndAdd(address, delta);
+        }
+
+        @Override
+        public int getAndSet(int address, int value){
+            return memory.getAndSet(address, value);
+        }
+
+        @Override
+        public void fence(){
+            memory.fence();
+        }
+    }
+}
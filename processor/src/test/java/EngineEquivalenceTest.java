@@ -0,0 +1,211 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Runs random programs of every kind of instruction, interrupts and faults included, on the
+//reference engine and on every other engine, and checks they all end in the same state: registers,
+//program counter, stack pointer, halted bit, every word of memory and any exception. Programs that
+//halt or fail are also run to the end without a limit, so the JIT engine compiles them, with and
+//without superinstructions. Hot loops that write over their own instructions check that the JIT
+//engine drops the compiled blocks holding them.
+class EngineEquivalenceTest {
+
+    private static final int PROGRAMS = 3000;
+    private static final int LIMIT = 2000;
+
+    //Address of the first instruction of the loops written by loop()
+    private static final int LOOP_START = 2;
+
+    @Test
+    void everyEngineEndsInTheReferenceState() {
+        for(int seed = 0; seed<PROGRAMS; seed++){
+            Random random = new Random(seed);
+            int[] program = generate(random, 5 + random.nextInt(40));
+            String expected = run(program, ExecutionMode.REFERENCE, false, LIMIT);
+            assertEquals(expected, run(program, ExecutionMode.FAST, false, LIMIT), "FAST, seed " + seed);
+            assertEquals(expected, run(program, ExecutionMode.FAST, true, LIMIT), "FAST fused, seed " + seed);
+            assertEquals(expected, run(program, ExecutionMode.JIT, false, LIMIT), "JIT, seed " + seed);
+            assertEquals(expected, run(program, ExecutionMode.PIPELINED, false, LIMIT), "PIPELINED, seed " + seed);
+            if(expected.contains("halted") || !expected.endsWith("none")){
+                expected = run(program, ExecutionMode.REFERENCE, false, 0);
+                for(ExecutionMode mode : new ExecutionMode[]{ExecutionMode.FAST, ExecutionMode.JIT}){
+                    assertEquals(expected, run(program, mode, false, 0), mode + " to the end, seed " + seed);
+                    assertEquals(expected, run(program, mode, true, 0), mode + " fused to the end, seed " + seed);
+                }
+            }
+        }
+    }
+
+    @Test
+    void interruptsGoToTheLastResult() throws Exception {
+        //copy r7 4 leaves 4 as the result, so the interrupt pushes 4 and goes there, and pop takes
+        //it off again. Run 300 times, the loop is hot enough for the JIT engine to compile
+        int[] program = Assembler.assemble("copy r20 300\ncopy r21 1\ncopy r7 4\nintr\nmath add r1 r21\n"
+                + "pop r2\nmath sub r20 r21\nbranch equal r20 r0 1\nhalt\nhalt\n");
+        program[8] = 0b00100 | 2 << 5;
+        String expected = run(program, ExecutionMode.REFERENCE, false, 0);
+        assertTrue(expected.contains("halted"), expected);
+        assertTrue(expected.contains(" registers=0 300 4 "), expected);
+        for(ExecutionMode mode : new ExecutionMode[]{ExecutionMode.FAST, ExecutionMode.JIT, ExecutionMode.PIPELINED}){
+            assertEquals(expected, run(program, mode, false, 0), mode.toString());
+        }
+        assertEquals(expected, run(program, ExecutionMode.FAST, true, 0), "FAST fused");
+    }
+
+    @Test
+    void compiledLoopsSeeTheirOwnWrites() {
+        for(int seed = 0; seed<PROGRAMS / 3; seed++){
+            int[] program = loop(new Random(seed));
+            //Loops that went somewhere they never come back from are left out
+            String limited = run(program, ExecutionMode.REFERENCE, false, 300_000);
+            if(limited.contains(" running ") && limited.endsWith("error=none")){
+                continue;
+            }
+            String expected = run(program, ExecutionMode.REFERENCE, false, 0);
+            assertEquals(expected, run(program, ExecutionMode.FAST, false, 0), "FAST, seed " + seed);
+            assertEquals(expected, run(program, ExecutionMode.JIT, false, 0), "JIT, seed " + seed);
+        }
+    }
+
+    //Runs the program for at most limit instructions, or until it halts or fails when limit is 0,
+    //and describes the state it ended in
+    private static String run(int[] program, ExecutionMode mode, boolean fuse, long limit){
+        MainMemory memory = new MainMemory(1024);
+        memory.load(program);
+        Processor processor = new Processor(memory, mode);
+        if(fuse){
+            processor.setFusion(new Fusion());
+        }
+        String error = "none";
+        try {
+            if(limit == 0){
+                processor.run();
+            }
+            else{
+                processor.run(limit);
+            }
+        } catch (Exception e) {
+            error = e.getClass().getName() + ": " + e.getMessage();
+        }
+        StringBuilder state = new StringBuilder();
+        state.append("pc=").append(processor.getProgramCounter()).append(" sp=").append(processor.getStackPointer());
+        state.append(processor.isHalted() ? " halted" : " running").append(" registers=");
+        for(Word register : processor.r){
+            state.append(register.getSigned()).append(' ');
+        }
+        long hash = 0;
+        for(int address = 0; address<memory.size(); address++){
+            hash = hash * 31 + memory.readValue(address);
+        }
+        return state.append("memory=").append(hash).append(" error=").append(error).toString();
+    }
+
+    //Generates a loop run a few hundred times, hot enough for the JIT engine to compile, over random
+    //instructions of registers 0 to 7 that now and then store a random word over one of them. The
+    //loop counts down r20 by r21 and goes back to the top with a branch without registers
+    private static int[] loop(Random random){
+        int body = 6 + random.nextInt(20);
+        int[] program = new int[LOOP_START + body + 4];
+        //copy r20 iterations, copy r21 1
+        program[0] = 0b00001 | 20 << 5 | (200 + random.nextInt(300)) << 14;
+        program[1] = 0b00001 | 21 << 5 | 1 << 14;
+        int address = LOOP_START;
+        while(address < LOOP_START + body){
+            if(random.nextInt(5) == 0 && address + 1 < LOOP_START + body){
+                //copy r7 target, store r7 word
+                int target = LOOP_START + random.nextInt(body);
+                int word = random.nextInt(1 << 18);
+                program[address++] = 0b00001 | 7 << 5 | target << 14;
+                program[address++] = 0b10101 | 7 << 5 | word << 14;
+            }
+            else{
+                program[address++] = instruction(random);
+            }
+        }
+        //math sub r20 r21 r20, branch equal r20 r0 1, then back to the top, then halt
+        program[address++] = 0b00010 | 20 << 5 | ALU.SUBTRACT << 10 | 21 << 14 | 20 << 19;
+        program[address++] = 0b00111 | 20 << 14 | 1 << 19;
+        program[address] = 0b00100 | LOOP_START << 5;
+        return program;
+    }
+
+    //Returns a random instruction of any operation with registers 0 to 7 and an immediate below 8
+    private static int instruction(Random random){
+        int operation = random.nextInt(8);
+        int format = 1 + random.nextInt(3);
+        int[] functions = operation == 1 || operation == 2 ? new int[]{0, 1, 2, 3, 4, 5}
+                : new int[]{7, 8, 9, 10, 11, 12, 13, 14, 15};
+        int function = functions[random.nextInt(functions.length)];
+        if(operation == 7 && random.nextInt(3) == 0){
+            function = 1 + random.nextInt(2);
+        }
+        int word = operation << 2 | format | random.nextInt(8) << 5 | function << 10;
+        int immediate = random.nextInt(8);
+        if(format == 1){
+            return word | immediate << 14;
+        }
+        if(format == 2){
+            return word | random.nextInt(8) << 14 | random.nextInt(8) << 19 | immediate << 24;
+        }
+        return word | random.nextInt(8) << 14 | immediate << 19;
+    }
+
+    //Generates random instruction words of every operation and format, using the first 8 registers
+    //so instructions depend on each other, with immediates that mostly stay inside the program and
+    //memory. Halts, interrupts and atomics with their own functions are kept rarer
+    private static int[] generate(Random random, int length){
+        int[] program = new int[length];
+        for(int i = 0; i<length; i++){
+            int word;
+            while(true){
+                int operation = random.nextInt(8);
+                int format = random.nextInt(4);
+                int opcode = operation << 2 | format;
+                if(opcode == FastEngine.POP_NO_REG && random.nextInt(8) != 0){
+                    continue;
+                }
+                if(opcode == FastEngine.MATH_NO_REG && random.nextInt(4) != 0){
+                    continue;
+                }
+                int rd = random.nextInt(8);
+                int rs1 = random.nextInt(8);
+                int rs2 = random.nextInt(8);
+                int[] functions = operation == 1 || operation == 2 ? new int[]{0, 1, 2, 3, 4, 5}
+                        : new int[]{7, 8, 9, 10, 11, 12, 13, 14, 15};
+                int function = functions[random.nextInt(functions.length)];
+                if(operation == 7 && random.nextInt(3) == 0){
+                    function = 1 + random.nextInt(2);
+                }
+                int immediate;
+                if(format == 0){
+                    immediate = random.nextInt(length + 2);
+                }
+                else if(format == 1 || format == 3){
+                    immediate = random.nextInt(random.nextBoolean() ? 8 : 900) & 0x1FFF;
+                }
+                else{
+                    immediate = random.nextInt(8);
+                }
+                word = opcode | rd << 5 | function << 10;
+                if(format == 1){
+                    word |= immediate << 14;
+                }
+                else if(format == 2){
+                    word |= rs2 << 14 | rs1 << 19 | immediate << 24;
+                }
+                else if(format == 3){
+                    word |= rs1 << 14 | immediate << 19;
+                }
+                else{
+                    word = opcode | immediate << 5;
+                }
+                break;
+            }
+            program[i] = word;
+        }
+        return program;
+    }
+}
@@ -0,0 +1,141 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Writes program images and maps them back, checks that broken images are rejected rather than
+//loaded, and that converting a text program gives the same words as reading it.
+class ProgramImageTest {
+
+    @TempDir
+    Path directory;
+
+    //An image with code, data well above it and the source lines of the code
+    private static ProgramImage image(){
+        Random random = new Random(11);
+        int[] code = new int[300];
+        int[] lines = new int[code.length];
+        for(int i = 0; i<code.length; i++){
+            code[i] = random.nextInt();
+            lines[i] = i + 1;
+        }
+        int[] data = {7, -1, 0, Integer.MIN_VALUE, 42};
+        return new ProgramImage(5, 900, List.of(new ProgramImage.Segment(ProgramImage.CODE, 0, IntBuffer.wrap(code)),
+                new ProgramImage.Segment(ProgramImage.DATA, 1000, IntBuffer.wrap(data)),
+                new ProgramImage.Segment(ProgramImage.LINES, 0, IntBuffer.wrap(lines))));
+    }
+
+    @Test
+    void mappedImagesMatchTheWrittenOnes() throws IOException {
+        ProgramImage image = image();
+        Path file = directory.resolve("program.img");
+        image.write(file);
+        assertTrue(ProgramImage.isImage(file));
+
+        ProgramImage mapped = ProgramImage.map(file);
+        assertEquals(image.getEntryPoint(), mapped.getEntryPoint());
+        assertEquals(image.getStackPointer(), mapped.getStackPointer());
+        assertEquals(1005, mapped.extent());
+        assertEquals(image.getSegments().size(), mapped.getSegments().size());
+        for(int i = 0; i<image.getSegments().size(); i++){
+            ProgramImage.Segment written = image.getSegments().get(i);
+            ProgramImage.Segment read = mapped.getSegments().get(i);
+            assertEquals(written.type, read.type);
+            assertEquals(written.address, read.address);
+            assertArrayEquals(written.toArray(), read.toArray());
+        }
+        assertEquals(1, mapped.getLine(0));
+        assertEquals(300, mapped.getLine(299));
+        assertEquals(0, mapped.getLine(300));
+
+        //Lines are not loaded, so the code is left alone at address 0
+        MainMemory memory = new MainMemory(2048);
+        memory.load(mapped);
+        int[] code = image.getSegments().get(0).toArray();
+        for(int i = 0; i<code.length; i++){
+            assertEquals(code[i], memory.readValue(i));
+        }
+        assertEquals(Integer.MIN_VALUE, memory.readValue(1003));
+    }
+
+    @Test
+    void brokenImagesAreRejected() throws IOException {
+        Path file = directory.resolve("program.img");
+        image().write(file);
+        byte[] bytes = Files.readAllBytes(file);
+
+        byte[] magic = bytes.clone();
+        magic[0] ^= 1;
+        assertRejected(magic, "is not a program image");
+
+        byte[] version = bytes.clone();
+        ByteBuffer.wrap(version).order(ByteOrder.LITTLE_ENDIAN).putInt(4, ProgramImage.VERSION + 1);
+        assertRejected(version, "only version " + ProgramImage.VERSION + " is supported");
+
+        byte[] corrupted = bytes.clone();
+        corrupted[bytes.length - 3] ^= 0x40;
+        assertRejected(corrupted, "its checksum does not match");
+
+        //Checksums are fixed up, so the segment table itself is what fails
+        byte[] outside = bytes.clone();
+        ByteBuffer.wrap(outside).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(ProgramImage.HEADER_SIZE + ProgramImage.SEGMENT_SIZE + 12, bytes.length - 8);
+        assertRejected(sealed(outside), "has a segment outside of the file");
+
+        byte[] longer = bytes.clone();
+        ByteBuffer.wrap(longer).order(ByteOrder.LITTLE_ENDIAN).putInt(ProgramImage.HEADER_SIZE + 8, 1 << 20);
+        assertRejected(sealed(longer), "has a segment outside of the file");
+
+        byte[] segments = bytes.clone();
+        ByteBuffer.wrap(segments).order(ByteOrder.LITTLE_ENDIAN).putInt(20, 1 << 20);
+        assertRejected(sealed(segments), "has a broken segment table");
+
+        assertRejected(new byte[ProgramImage.HEADER_SIZE - 1], "is not a program image");
+    }
+
+    @Test
+    void textProgramsConvertToTheSameWords() throws Exception {
+        int[] program = Assembler.assemble("copy r1 5\ncopy r2 6\nmath add r1 r1 r2\nhalt\n");
+        Path text = directory.resolve("program.txt");
+        ProgramFile.writeText(program, text);
+        assertFalse(ProgramImage.isImage(text));
+
+        ProgramImage image = ProgramImage.fromText(text);
+        assertEquals(0, image.getEntryPoint());
+        assertEquals(ProgramImage.TOP_OF_MEMORY, image.getStackPointer());
+        assertEquals(1, image.getSegments().size());
+        assertEquals(ProgramImage.CODE, image.getSegments().get(0).type);
+        assertArrayEquals(ProgramFile.readText(text), image.getSegments().get(0).toArray());
+        assertArrayEquals(program, image.getSegments().get(0).toArray());
+    }
+
+    //Writes the bytes to a file and checks that mapping it fails with the given message
+    private void assertRejected(byte[] bytes, String message) throws IOException {
+        Path file = directory.resolve("broken.img");
+        Files.write(file, bytes);
+        IOException e = assertThrows(IOException.class, () -> ProgramImage.map(file));
+        assertTrue(e.getMessage().contains(message), e.getMessage());
+    }
+
+    //Recomputes the checksum in the header of an image whose bytes were changed
+    private static byte[] sealed(byte[] bytes){
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, ProgramImage.HEADER_SIZE, bytes.length - ProgramImage.HEADER_SIZE);
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(24, (int)crc.getValue());
+        return bytes;
+    }
+}
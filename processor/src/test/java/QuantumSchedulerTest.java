@@ -0,0 +1,65 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Runs a program whose cores race on plain stores and loads of the same words while also counting
+//with atomics, on 1 host thread and on 64, and checks both runs end in exactly the same state:
+//every word of memory, every core's registers, program counter and stack pointer, and the number
+//of rounds.
+class QuantumSchedulerTest {
+
+    private static final int CORES = 8;
+    private static final int ITERATIONS = 40;
+
+    //Each core stores its number plus the iteration to 600 and copies whatever it then reads there to
+    //601, both without any synchronization, and adds 1 to 602 with an atomic. The loop counts down
+    //r20 and goes back to the top with a branch without registers
+    private static int[] program() throws Exception {
+        int[] program = Assembler.assemble("copy r20 " + ITERATIONS + "\ncopy r21 1\ncopy r10 600\ncopy r11 1\n"
+                + "math add r13 r31 r20\nstore r10 r13\nload r14 r10 0\nstore r10 r14 1\n"
+                + "atomic add r15 r11 r10 2\nmath add r16 r15\nmath sub r20 r21\nbranch equal r20 r0 1\n"
+                + "halt\nhalt\n");
+        program[12] = 0b00100 | 4 << 5;
+        return program;
+    }
+
+    @Test
+    void hostThreadsDoNotChangeTheResult() throws Exception {
+        for(ExecutionMode mode : new ExecutionMode[]{ExecutionMode.REFERENCE, ExecutionMode.FAST}){
+            for(int quantum : new int[]{1, 7, 50}){
+                for(long seed = 0; seed<4; seed++){
+                    String message = mode + ", quantum " + quantum + ", seed " + seed;
+                    String expected = run(mode, quantum, seed, 1);
+                    assertTrue(expected.contains(" m602=" + CORES * ITERATIONS + " "), message + ": " + expected);
+                    assertEquals(expected, run(mode, quantum, seed, 64), message);
+                }
+            }
+        }
+    }
+
+    //Runs the program to the end and describes the state it ended in
+    private static String run(ExecutionMode mode, int quantum, long seed, int threads) throws Exception {
+        MainMemory memory = new MainMemory(4096);
+        memory.load(program());
+        QuantumScheduler scheduler = new QuantumScheduler(memory, CORES, mode, quantum, seed);
+        scheduler.run(threads);
+        StringBuilder state = new StringBuilder("rounds=").append(scheduler.rounds());
+        for(int i = 0; i<CORES; i++){
+            Processor core = scheduler.getCore(i);
+            assertTrue(core.isHalted());
+            state.append(" core ").append(i).append(": pc=").append(core.getProgramCounter())
+                    .append(" sp=").append(core.getStackPointer()).append(" registers=");
+            for(Word register : core.r){
+                state.append(register.getSigned()).append(' ');
+            }
+        }
+        state.append(" m600=").append(memory.readValue(600)).append(" m601=").append(memory.readValue(601))
+                .append(" m602=").append(memory.readValue(602)).append(" memory=");
+        long hash = 0;
+        for(int address = 0; address<memory.size(); address++){
+            hash = hash * 31 + memory.readValue(address);
+        }
+        return state.append(hash).toString();
+    }
+}
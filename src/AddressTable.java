@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+//Open addressing hash table of memory addresses, shared by everything that keeps a value per
+//address: QuantumMemory's buffered writes, BranchUnit's statistics per branch and Profiler's samples
+//per instruction. The addresses are numbered 0, 1, 2... in the order they were first added, and the
+//users keep their values in plain arrays indexed by that number, so nothing is boxed. The table is
+//kept at most half full, and clear() only goes over the addresses added rather than the whole table.
+class AddressTable {
+
+    //Per slot, the number of the address in it plus one, 0 for an empty slot
+    private int[] slots;
+
+    //Per number, the address and the slot it is in
+    private int[] addresses;
+    private int[] used;
+    private int size;
+
+    AddressTable(){
+        slots = new int[64];
+        addresses = new int[32];
+        used = new int[32];
+    }
+
+    //Spreads the bits of an address, since the addresses used are often close together
+    private static int hash(int address){
+        int hash = address * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    //Returns the number of the given address, or -1 if it has not been added
+    int find(int address){
+        int mask = slots.length - 1;
+        int slot = hash(address) & mask;
+        while(slots[slot] != 0){
+            int number = slots[slot] - 1;
+            if(addresses[number] == address){
+                return number;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    //Returns the number of the given address, adding it with the next number if it is new
+    int add(int address){
+        int mask = slots.length - 1;
+        int slot = hash(address) & mask;
+        while(slots[slot] != 0){
+            int number = slots[slot] - 1;
+            if(addresses[number] == address){
+                return number;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int number = size++;
+        slots[slot] = size;
+        addresses[number] = address;
+        used[number] = slot;
+        if(size == addresses.length){
+            grow();
+        }
+        return number;
+    }
+
+    //Returns the number of addresses added
+    int size(){
+        return size;
+    }
+
+    //Returns the address with the given number
+    int address(int number){
+        return addresses[number];
+    }
+
+    //Removes every address, so the next one added is number 0 again
+    void clear(){
+        for(int i = 0; i<size; i++){
+            slots[used[i]] = 0;
+        }
+        size = 0;
+    }
+
+    //Doubles the table, keeping the numbers of the addresses
+    private void grow(){
+        slots = new int[slots.length * 2];
+        addresses = Arrays.copyOf(addresses, addresses.length * 2);
+        used = Arrays.copyOf(used, used.length * 2);
+        int mask = slots.length - 1;
+        for(int number = 0; number<size; number++){
+            int slot = hash(addresses[number]) & mask;
+            while(slots[slot] != 0){
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = number + 1;
+            used[number] = slot;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+
+//Assembles whole sources into program images, the same as a Lexer and Parser would, but splits
+//large sources into chunks on new lines and lexes and parses the chunks in parallel with fork/join.
+//The chunks' instructions are then joined back together in order. Sources under CHUNK_SIZE
+//characters are assembled on the calling thread. assembleImage() also keeps the source line of every
+//instruction, for Profiler
+public class Assembler {
+
+    //Characters (or bytes) per chunk, around 60K lines of typical code
+    static final int CHUNK_SIZE = 1 << 20;
+
+    //Assembles a source held as characters, such as a String
+    public static int[] assemble(CharSequence source) throws Exception {
+        return assembly(source).program;
+    }
+
+    //Assembles a source held as ASCII bytes, such as a memory mapped file. The buffer's position is
+    //left unchanged
+    public static int[] assemble(ByteBuffer source) throws Exception {
+        return assembly(source).program;
+    }
+
+    //Assembles a source held as characters into an image that also has the source line of every
+    //instruction
+    public static ProgramImage assembleImage(CharSequence source) throws Exception {
+        Assembly assembly = assembly(source);
+        return ProgramImage.of(assembly.program, assembly.lines);
+    }
+
+    //Assembles a source held as ASCII bytes into an image that also has the source line of every
+    //instruction. The buffer's position is left unchanged
+    public static ProgramImage assembleImage(ByteBuffer source) throws Exception {
+        Assembly assembly = assembly(source);
+        return ProgramImage.of(assembly.program, assembly.lines);
+    }
+
+    private static Assembly assembly(CharSequence source) throws Exception {
+        List<Chunk> chunks = new ArrayList<>();
+        for(int[] range : split(source.length(), i -> source.charAt(i) == '\n')){
+            CharSequence chars = CharBuffer.wrap(source, range[0], range[1]);
+            chunks.add(new Chunk(() -> new Lexer(chars)));
+        }
+        return assemble(chunks, () -> new Lexer(source));
+    }
+
+    private static Assembly assembly(ByteBuffer source) throws Exception {
+        ByteBuffer bytes = source.slice();
+        List<Chunk> chunks = new ArrayList<>();
+        for(int[] range : split(bytes.limit(), i -> bytes.get(i) == '\n')){
+            ByteBuffer slice = bytes.slice(range[0], range[1] - range[0]);
+            chunks.add(new Chunk(() -> new Lexer(slice)));
+        }
+        return assemble(chunks, () -> new Lexer(bytes));
+    }
+
+    //Returns the [start, end) ranges of each chunk of a source of the given length. Every chunk but
+    //the last ends just after a new line, so no statement is split
+    private static List<int[]> split(int length, IntPredicate newLine){
+        List<int[]> ranges = new ArrayList<>();
+        int start = 0;
+        while(length - start > CHUNK_SIZE){
+            int end = start + CHUNK_SIZE;
+            while(end < length && !newLine.test(end - 1)){
+                end++;
+            }
+            ranges.add(new int[]{start, end});
+            start = end;
+        }
+        ranges.add(new int[]{start, length});
+        return ranges;
+    }
+
+    private static Assembly assemble(List<Chunk> chunks, LexerSource whole) throws Exception {
+        if(chunks.size() == 1){
+            return parse(whole);
+        }
+        try{
+            ForkJoinTask.invokeAll(chunks);
+        }
+        catch(RuntimeException e){
+            //Chunks count lines from their own start, so the error is found again on the whole source
+            //to report the right line
+            return parse(whole);
+        }
+
+        //Separators at the very end of the source leave an empty statement, a halt, just like parsing
+        //it in one go would. The last chunk with any tokens decides whether the source ends that way
+        int length = 0;
+        boolean endedEmpty = false;
+        for(Chunk chunk : chunks){
+            int[] program = chunk.getRawResult();
+            length += program.length;
+            if(program.length > 0 || chunk.endedEmpty){
+                endedEmpty = chunk.endedEmpty;
+            }
+        }
+        //Every chunk but the last ends with a new line, so the lines of each chunk follow on from the
+        //number of lines in the ones before it
+        int[] program = new int[endedEmpty ? length + 1 : length];
+        int[] lines = new int[program.length];
+        int offset = 0;
+        int lineOffset = 0;
+        for(Chunk chunk : chunks){
+            int[] chunkProgram = chunk.getRawResult();
+            System.arraycopy(chunkProgram, 0, program, offset, chunkProgram.length);
+            for(int i = 0; i<chunkProgram.length; i++){
+                lines[offset + i] = chunk.lines[i] + lineOffset;
+            }
+            offset += chunkProgram.length;
+            lineOffset += chunk.lastLine;
+        }
+        if(endedEmpty){
+            lines[length] = lineOffset + 1;
+        }
+        return new Assembly(program, lines);
+    }
+
+    //Parses a whole source on the calling thread
+    private static Assembly parse(LexerSource source) throws Exception {
+        Parser parser = new Parser(source.open());
+        int[] program = parser.parse();
+        return new Assembly(program, parser.getLines());
+    }
+
+    //An assembled program and the source line of each of its instructions
+    private static class Assembly {
+        final int[] program;
+        final int[] lines;
+
+        Assembly(int[] program, int[] lines){
+            this.program = program;
+            this.lines = lines;
+        }
+    }
+
+    //Creates a Lexer over (part of) a source
+    private interface LexerSource {
+        Lexer open() throws Exception;
+    }
+
+    //Lexes and parses one chunk of a source, leaving out the empty statement at its end
+    private static class Chunk extends RecursiveTask<int[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final LexerSource source;
+        private boolean endedEmpty;
+
+        //The line of each instruction counting from the chunk's start, and the lines in the chunk
+        private int[] lines;
+        private int lastLine;
+
+        Chunk(LexerSource source){
+            this.source = source;
+        }
+
+        protected int[] compute(){
+            try{
+                Parser parser = new Parser(source.open());
+                int[] program = parser.parse(false);
+                endedEmpty = parser.endedEmpty();
+                lines = parser.getLines();
+                lastLine = parser.lastLine();
+                return program;
+            }
+            catch(RuntimeException e){
+                throw e;
+            }
+            catch(Exception e){
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+//Assembles and runs a whole batch of programs in one JVM, such as a nightly regression suite, on a
+//fork/join pool with one thread per core by default. Every program runs on a machine of its own, so
+//one failing or running away does not affect the rest. A program runs until it halts, runs out of
+//its instruction limit, or runs past its timeout, whichever comes first, and any exception while
+//assembling or running it is recorded as a failure. The results can be written to a single file
+//with write(), in the order the programs were given.
+//
+//Programs are run in slices of SLICE instructions (see Processor.run(long)) so the limit and the
+//timeout can be checked in between, which means the JIT engine only interprets.
+public class BatchRunner {
+
+    //Most instructions run between checks of a program's limit and timeout
+    static final int SLICE = 1 << 20;
+
+    //How a program ended
+    public enum Status {
+        HALTED, LIMIT, TIMEOUT, FAILED
+    }
+
+    private final ExecutionMode mode;
+    private final long size;
+    private final int threads;
+
+    //Runs every program in a memory of the given number of words on the given engine, with one
+    //thread per available processor
+    public BatchRunner(ExecutionMode mode, long size){
+        this(mode, size, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchRunner(ExecutionMode mode, long size, int threads){
+        if(threads < 1){
+            throw new IllegalArgumentException("A batch needs at least 1 thread");
+        }
+        this.mode = mode;
+        this.size = size;
+        this.threads = threads;
+    }
+
+    //Returns the programs in a directory, every file in it in order of name, or listed in a
+    //manifest: one program per line, relative to the manifest's directory, optionally followed by
+    //its own instruction limit and timeout in milliseconds (0 for none). Blank lines and lines
+    //starting with '#' are skipped. Programs without a limit or timeout of their own get the given ones
+    public static List<Program> programs(Path directoryOrManifest, long limit, long timeoutMillis) throws IOException {
+        List<Program> programs = new ArrayList<>();
+        if(Files.isDirectory(directoryOrManifest)){
+            try(Stream<Path> files = Files.list(directoryOrManifest)){
+                files.filter(Files::isRegularFile).sorted()
+                        .forEach(file -> programs.add(new Program(file, limit, timeoutMillis)));
+            }
+            return programs;
+        }
+        Path base = directoryOrManifest.toAbsolutePath().getParent();
+        int lineNum = 0;
+        for(String line : Files.readAllLines(directoryOrManifest, StandardCharsets.UTF_8)){
+            lineNum++;
+            line = line.strip();
+            if(line.isEmpty() || line.startsWith("#")){
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if(fields.length > 3){
+                throw new IllegalArgumentException("Expected a program, limit and timeout; Line: " + lineNum);
+            }
+            programs.add(new Program(base.resolve(fields[0]), fields.length > 1 ? Long.parseLong(fields[1]) : limit,
+                    fields.length > 2 ? Long.parseLong(fields[2]) : timeoutMillis));
+        }
+        return programs;
+    }
+
+    //Runs every program and waits for all of them, returning their results in the same order
+    public List<Result> run(List<Program> programs){
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<ForkJoinTask<Result>> tasks = new ArrayList<>(programs.size());
+            for(Program program : programs){
+                tasks.add(pool.submit(new Run(program)));
+            }
+            List<Result> results = new ArrayList<>(programs.size());
+            for(ForkJoinTask<Result> task : tasks){
+                results.add(task.join());
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    //Assembles and runs a single program on the calling thread
+    public Result run(Program program){
+        long start = System.nanoTime();
+        long instructions = 0;
+        VirtualMachine machine = null;
+        try {
+            ProgramImage image;
+            if(ProgramImage.isImage(program.file)){
+                image = ProgramImage.map(program.file);
+            }
+            else{
+                try(FileChannel channel = FileChannel.open(program.file)){
+                    ByteBuffer source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    image = ProgramImage.of(Assembler.assemble(source));
+                }
+            }
+            machine = new VirtualMachine(image, size, MemoryBacking.HEAP, mode);
+            long deadline = start + program.timeoutMillis * 1_000_000;
+            while(!machine.isHalted()){
+                long slice = SLICE;
+                if(program.limit > 0){
+                    if(instructions >= program.limit){
+                        return new Result(program, Status.LIMIT, instructions, System.nanoTime() - start, machine, null);
+                    }
+                    slice = Math.min(slice, program.limit - instructions);
+                }
+                if(program.timeoutMillis > 0 && System.nanoTime() - deadline > 0){
+                    return new Result(program, Status.TIMEOUT, instructions, System.nanoTime() - start, machine, null);
+                }
+                instructions += machine.run(slice);
+            }
+            return new Result(program, Status.HALTED, instructions, System.nanoTime() - start, machine, null);
+        } catch (Exception | StackOverflowError e) {
+            return new Result(program, Status.FAILED, instructions, System.nanoTime() - start, machine, e);
+        }
+    }
+
+    //Writes the results to a file, replacing it if it exists: a header line, then one tab separated
+    //line per program of its file, status, instructions run, wall time in nanoseconds, program
+    //counter, stack pointer, the 32 registers (signed, separated by spaces) and the error, if any
+    public static void write(List<Result> results, Path file) throws IOException {
+        try(BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)){
+            writer.write("program\tstatus\tinstructions\tnanos\tpc\tsp\tregisters\terror");
+            writer.newLine();
+            for(Result result : results){
+                writer.write(result.toString());
+                writer.newLine();
+            }
+        }
+    }
+
+    //Returns the number of results with each status
+    public static Map<Status, Integer> summary(List<Result> results){
+        Map<Status, Integer> counts = new EnumMap<>(Status.class);
+        for(Status status : Status.values()){
+            counts.put(status, 0);
+        }
+        for(Result result : results){
+            counts.merge(result.status, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    //A program to run, with its instruction limit and timeout in milliseconds (0 for none)
+    public static class Program {
+
+        public final Path file;
+        public final long limit;
+        public final long timeoutMillis;
+
+        public Program(Path file, long limit, long timeoutMillis){
+            if(limit < 0 || timeoutMillis < 0){
+                throw new IllegalArgumentException("The limit and timeout can not be negative");
+            }
+            this.file = file;
+            this.limit = limit;
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+
+    //How a program ended: its status, the instructions it ran and the wall time it took, and the
+    //state it was left in (all zero if it failed before it could start), along with the error
+    //of a failed program
+    public static class Result {
+
+        public final Program program;
+        public final Status status;
+        public final long instructions;
+        public final long nanos;
+        public final int programCounter;
+        public final int stackPointer;
+        private final int[] registers;
+        public final Throwable error;
+
+        Result(Program program, Status status, long instructions, long nanos, VirtualMachine machine, Throwable error){
+            this.program = program;
+            this.status = status;
+            this.instructions = instructions;
+            this.nanos = nanos;
+            this.programCounter = machine == null ? 0 : machine.getProgramCounter();
+            this.stackPointer = machine == null ? 0 : machine.getStackPointer();
+            this.registers = machine == null ? new int[32] : machine.getRegisters();
+            this.error = error;
+        }
+
+        //Returns the values of all 32 registers
+        public int[] getRegisters(){
+            return registers.clone();
+        }
+
+        @Override
+        public String toString(){
+            StringBuilder line = new StringBuilder();
+            line.append(program.file).append('\t').append(status).append('\t').append(instructions).append('\t')
+                    .append(nanos).append('\t').append(programCounter).append('\t').append(stackPointer).append('\t');
+            for(int i = 0; i<registers.length; i++){
+                if(i > 0){
+                    line.append(' ');
+                }
+                line.append(registers[i]);
+            }
+            line.append('\t');
+            if(error != null){
+                //Keeps the error on its one line
+                line.append(String.valueOf(error).replaceAll("\\s+", " "));
+            }
+            return line.toString();
+        }
+    }
+
+    //Runs one program as a task of the pool
+    private class Run extends RecursiveTask<Result> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Program program;
+
+        Run(Program program){
+            this.program = program;
+        }
+
+        protected Result compute(){
+            return BatchRunner.this.run(program);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.Arrays;
+
+//Predicts each branch from a two bit saturating counter picked by the low bits of its address:
+//0 and 1 predict not taken, 2 and 3 taken, and each outcome moves the counter one step its way, so
+//a loop branch only mispredicts once on the way out. Branches whose addresses share the low bits
+//share a counter
+public class BimodalPredictor implements BranchPredictor {
+
+    public static final int DEFAULT_ENTRIES = 4096;
+
+    private final byte[] counters;
+    private final int mask;
+
+    public BimodalPredictor(){
+        this(DEFAULT_ENTRIES);
+    }
+
+    //Creates a predictor with the given number of counters, a power of two
+    public BimodalPredictor(int entries){
+        counters = counters(entries);
+        mask = entries - 1;
+    }
+
+    //Returns a table of two bit counters, all weakly not taken
+    static byte[] counters(int entries){
+        if(Integer.bitCount(entries) != 1){
+            throw new IllegalArgumentException("The number of entries must be a power of two");
+        }
+        byte[] counters = new byte[entries];
+        Arrays.fill(counters, (byte)1);
+        return counters;
+    }
+
+    //Moves the counter at the given index one step towards the outcome
+    static void train(byte[] counters, int index, boolean taken){
+        if(taken){
+            if(counters[index] < 3){
+                counters[index]++;
+            }
+        }
+        else if(counters[index] > 0){
+            counters[index]--;
+        }
+    }
+
+    @Override
+    public boolean predict(int pc){
+        return counters[pc & mask] >= 2;
+    }
+
+    @Override
+    public void update(int pc, boolean taken){
+        train(counters, pc & mask, taken);
+    }
+
+    @Override
+    public String toString(){
+        return "bimodal (" + counters.length + " entries)";
+    }
+}
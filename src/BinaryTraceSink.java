@@ -0,0 +1,36 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+//Writes trace records in a compact binary form, big-endian: a header of MAGIC, VERSION and the
+//number of registers, followed by each record as the cycle (8 bytes), program counter, stack
+//pointer and the registers (4 bytes each)
+public class BinaryTraceSink implements TraceSink {
+
+    //"SIAT" - SIA32 trace
+    public static final int MAGIC = 0x53494154;
+    public static final int VERSION = 1;
+
+    private final DataOutputStream out;
+
+    public BinaryTraceSink(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+        this.out.writeInt(32);
+    }
+
+    public void write(long cycle, int programCounter, int stackPointer, int[] registers) throws IOException {
+        out.writeLong(cycle);
+        out.writeInt(programCounter);
+        out.writeInt(stackPointer);
+        for(int register : registers){
+            out.writeInt(register);
+        }
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
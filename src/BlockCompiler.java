@@ -0,0 +1,550 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+
+//Compiles a basic block of predecoded instructions into a hidden JVM class implementing
+//CompiledBlock for JitEngine. A block runs until a halt, branch, call, return or interrupt (which end
+//it) or until an instruction that cannot be compiled (which it stops before). The generated code has
+//no jumps of its own - conditions are decided by JitEngine helpers - so the class file needs no stack
+//map frames and is written by hand below rather than with a bytecode library.
+class BlockCompiler {
+
+    //Longest block that is compiled in one piece
+    static final int MAX_BLOCK = 64;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    //Descriptors of the helpers the generated code calls
+    private static final String ENGINE = "JitEngine";
+    private static final String CALCULATE_TYPE = "(III)I";
+    private static final String READ_TYPE = "(LJitEngine;II)I";
+    private static final String WRITE_TYPE = "(LJitEngine;III)V";
+    private static final String PUSH_TYPE = "(LJitEngine;II)V";
+    private static final String POP_TYPE = "(LJitEngine;[III)V";
+    private static final String ATOMIC_TYPE = "(LJitEngine;[IIIIIII)V";
+    private static final String FENCE_TYPE = "(LJitEngine;)V";
+    private static final String HALT_TYPE = "(LJitEngine;I)I";
+    private static final String RET_TYPE = "(LJitEngine;I)I";
+    private static final String BRANCH_TYPE = "(IIIII)I";
+    private static final String CALL_TYPE = "(LJitEngine;II)I";
+    private static final String CALL_IF_TYPE = "(LJitEngine;IIIII)I";
+    private static final String RESULT_TYPE = "(LJitEngine;I)I";
+    private static final String INTERRUPT_TYPE = "(LJitEngine;I)I";
+
+    //Returns the number of instructions in the block starting at the given address of memory, which
+    //is 0 if the first instruction cannot be compiled
+    static int blockLength(MainMemory memory, int start){
+        int length = 0;
+        for(int address = start; address < memory.size() && length < MAX_BLOCK; address++){
+            DecodedInstruction d = memory.decode(address);
+            if(!canCompile(d)){
+                break;
+            }
+            length++;
+            if(endsBlock(d)){
+                break;
+            }
+        }
+        return length;
+    }
+
+    //ALU operations that do not exist are left to the interpreter, which throws on them
+    private static boolean canCompile(DecodedInstruction d){
+        return switch(d.handler){
+            //An atomic that is not a compare and swap or a swap is a fetch and operate
+            case FastEngine.ATOMIC_DEST_ONLY, FastEngine.ATOMIC_TWO_REG, FastEngine.ATOMIC_THREE_REG ->
+                    d.function == FastEngine.COMPARE_AND_SWAP || d.function == FastEngine.SWAP
+                            || FastEngine.hasOperation(d.function);
+            case FastEngine.MATH_TWO_REG, FastEngine.MATH_THREE_REG, FastEngine.PUSH_DEST_ONLY,
+                    FastEngine.PUSH_TWO_REG, FastEngine.PUSH_THREE_REG -> FastEngine.hasOperation(d.function);
+            default -> true;
+        };
+    }
+
+    //Halts and every branch, call, return and interrupt leave the block
+    private static boolean endsBlock(DecodedInstruction d){
+        int operation = d.handler >> 2;
+        return d.handler == FastEngine.MATH_NO_REG || d.handler == FastEngine.LOAD_NO_REG
+                || d.handler == FastEngine.POP_NO_REG
+                || operation == OperationType.BRANCH.ordinal()
+                || operation == OperationType.CALL.ordinal();
+    }
+
+    //Compiles the given number of instructions starting at the given address of memory, returning
+    //null if the class could not be generated or loaded
+    static CompiledBlock compile(MainMemory memory, int start, int length){
+        try {
+            ClassWriter writer = new ClassWriter("JitBlock" + start);
+            Code code = writer.code;
+            boolean ended = false;
+            for(int address = start; address < start + length; address++){
+                ended = emit(code, memory.decode(address), address + 1);
+            }
+            //A block cut short by MAX_BLOCK or an instruction that cannot be compiled falls through
+            if(!ended){
+                code.constant(start + length);
+                code.op(IRETURN);
+            }
+            MethodHandles.Lookup block = LOOKUP.defineHiddenClass(writer.toBytes(), true);
+            return (CompiledBlock) block.findConstructor(block.lookupClass(),
+                    MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    //Emits the bytecode for one instruction, where pc is the address of the next instruction, and
+    //returns true if the instruction ends the block (having returned the next address). Locals are
+    //0 - this, 1 - the register array, 2 - the engine. Every instruction leaves the engine's result
+    //as the interpreter would, the helpers doing so for the ones they run.
+    private static boolean emit(Code code, DecodedInstruction d, int pc){
+        switch(d.handler){
+            //Math: register 0 is never written, but the value is still the result, and the ALU
+            //operation was checked to exist
+            case FastEngine.MATH_DEST_ONLY -> {
+                if(d.rd != 0){
+                    code.op(ALOAD_1);
+                    code.constant(d.rd);
+                }
+                code.op(ALOAD_2);
+                code.constant(d.immediate);
+                code.invoke(ENGINE, "result", RESULT_TYPE);
+                code.op(d.rd != 0 ? IASTORE : POP);
+            }
+            case FastEngine.MATH_TWO_REG, FastEngine.MATH_THREE_REG -> {
+                if(d.rd != 0){
+                    code.op(ALOAD_1);
+                    code.constant(d.rd);
+                }
+                code.op(ALOAD_2);
+                code.constant(d.function);
+                if(d.handler == FastEngine.MATH_TWO_REG){
+                    code.register(d.rd);
+                    code.register(d.rs1);
+                }
+                else{
+                    code.register(d.rs1);
+                    code.register(d.rs2);
+                }
+                code.invoke("FastEngine", "calculate", CALCULATE_TYPE);
+                code.invoke(ENGINE, "result", RESULT_TYPE);
+                code.op(d.rd != 0 ? IASTORE : POP);
+            }
+
+            //Push
+            case FastEngine.PUSH_NO_REG, FastEngine.STORE_NO_REG -> {}
+            case FastEngine.PUSH_DEST_ONLY, FastEngine.PUSH_TWO_REG, FastEngine.PUSH_THREE_REG -> {
+                code.op(ALOAD_2);
+                code.constant(d.function);
+                if(d.handler == FastEngine.PUSH_DEST_ONLY){
+                    code.register(d.rd);
+                    code.constant(d.immediate);
+                }
+                else if(d.handler == FastEngine.PUSH_TWO_REG){
+                    code.register(d.rd);
+                    code.register(d.rs1);
+                }
+                else{
+                    code.register(d.rs1);
+                    code.register(d.rs2);
+                }
+                code.invoke("FastEngine", "calculate", CALCULATE_TYPE);
+                code.constant(pc);
+                code.invoke(ENGINE, "push", PUSH_TYPE);
+            }
+
+            //Load: the read still happens for register 0 so that a bad address faults
+            case FastEngine.LOAD_DEST_ONLY, FastEngine.LOAD_TWO_REG, FastEngine.LOAD_THREE_REG -> {
+                if(d.rd != 0){
+                    code.op(ALOAD_1);
+                    code.constant(d.rd);
+                }
+                code.op(ALOAD_2);
+                if(d.handler == FastEngine.LOAD_DEST_ONLY){
+                    code.sum(d.rd, d.immediate);
+                }
+                else if(d.handler == FastEngine.LOAD_TWO_REG){
+                    code.sum(d.rs1, d.immediate);
+                }
+                else{
+                    code.register(d.rs1);
+                    code.register(d.rs2);
+                    code.op(IADD);
+                }
+                code.constant(pc);
+                code.invoke(ENGINE, "read", READ_TYPE);
+                code.op(d.rd != 0 ? IASTORE : POP);
+            }
+
+            //Store
+            case FastEngine.STORE_DEST_ONLY, FastEngine.STORE_TWO_REG, FastEngine.STORE_THREE_REG -> {
+                code.op(ALOAD_2);
+                if(d.handler == FastEngine.STORE_DEST_ONLY){
+                    code.register(d.rd);
+                    code.constant(d.immediate);
+                }
+                else if(d.handler == FastEngine.STORE_TWO_REG){
+                    code.sum(d.rd, d.immediate);
+                    code.register(d.rs1);
+                }
+                else{
+                    code.register(d.rs1);
+                    code.register(d.rd);
+                    code.op(IADD);
+                    code.register(d.rs2);
+                }
+                code.constant(pc);
+                code.invoke(ENGINE, "write", WRITE_TYPE);
+            }
+
+            //Pop and peek, which may write register 0
+            case FastEngine.POP_DEST_ONLY -> {
+                code.op(ALOAD_2);
+                code.op(ALOAD_1);
+                code.constant(d.rd);
+                code.constant(pc);
+                code.invoke(ENGINE, "pop", POP_TYPE);
+            }
+            case FastEngine.POP_TWO_REG, FastEngine.POP_THREE_REG -> {
+                code.op(ALOAD_1);
+                code.constant(d.rd);
+                code.op(ALOAD_2);
+                if(d.handler == FastEngine.POP_TWO_REG){
+                    code.sum(d.rs1, d.immediate);
+                }
+                else{
+                    code.register(d.rs1);
+                    code.register(d.rs2);
+                    code.op(IADD);
+                }
+                code.constant(pc);
+                code.invoke(ENGINE, "peek", READ_TYPE);
+                code.op(IASTORE);
+            }
+
+            //Atomics, which write rd themselves so that it is set even if the block is left early
+            case FastEngine.ATOMIC_NO_REG -> {
+                code.op(ALOAD_2);
+                code.invoke(ENGINE, "fence", FENCE_TYPE);
+            }
+            case FastEngine.ATOMIC_DEST_ONLY, FastEngine.ATOMIC_TWO_REG, FastEngine.ATOMIC_THREE_REG -> {
+                code.op(ALOAD_2);
+                code.op(ALOAD_1);
+                code.constant(d.rd);
+                code.constant(d.function);
+                if(d.handler == FastEngine.ATOMIC_DEST_ONLY){
+                    code.constant(d.immediate);
+                }
+                else{
+                    code.sum(d.rs1, d.immediate);
+                }
+                code.register(d.handler == FastEngine.ATOMIC_THREE_REG ? d.rs2 : d.rd);
+                code.register(d.rd);
+                code.constant(pc);
+                code.invoke(ENGINE, "atomic", ATOMIC_TYPE);
+            }
+
+            //Everything below ends the block by returning the next address
+            case FastEngine.MATH_NO_REG -> {
+                code.op(ALOAD_2);
+                code.constant(pc);
+                code.invoke(ENGINE, "halt", HALT_TYPE);
+                code.op(IRETURN);
+                return true;
+            }
+            //Branches leave where they went as the result
+            case FastEngine.BRANCH_NO_REG -> {
+                code.op(ALOAD_2);
+                code.constant(d.immediate);
+                code.invoke(ENGINE, "result", RESULT_TYPE);
+                code.op(IRETURN);
+                return true;
+            }
+            case FastEngine.BRANCH_DEST_ONLY -> {
+                code.op(ALOAD_2);
+                code.constant(pc + d.immediate);
+                code.invoke(ENGINE, "result", RESULT_TYPE);
+                code.op(IRETURN);
+                return true;
+            }
+            case FastEngine.BRANCH_TWO_REG, FastEngine.BRANCH_THREE_REG -> {
+                code.op(ALOAD_2);
+                code.constant(d.function);
+                code.register(d.rs1);
+                code.register(d.handler == FastEngine.BRANCH_TWO_REG ? d.rd : d.rs2);
+                code.constant(pc + d.immediate);
+                code.constant(pc);
+                code.invoke(ENGINE, "branch", BRANCH_TYPE);
+                code.invoke(ENGINE, "result", RESULT_TYPE);
+                code.op(IRETURN);
+                return true;
+            }
+            case FastEngine.CALL_NO_REG, FastEngine.CALL_DEST_ONLY -> {
+                code.op(ALOAD_2);
+                if(d.handler == FastEngine.CALL_NO_REG){
+                    code.constant(d.immediate);
+                }
+                else{
+                    code.sum(d.rd, d.immediate);
+                }
+                code.constant(pc);
+                code.invoke(ENGINE, "call", CALL_TYPE);
+                code.op(IRETURN);
+                return true;
+            }
+            case FastEngine.CALL_TWO_REG, FastEngine.CALL_THREE_REG -> {
+                code.op(ALOAD_2);
+                code.constant(d.function);
+                code.register(d.rs1);
+                if(d.handler == FastEngine.CALL_TWO_REG){
+                    code.register(d.rd);
+                    code.constant(pc + d.immediate);
+                }
+                else{
+                    code.register(d.rs2);
+                    code.sum(d.rd, d.immediate);
+                }
+                code.constant(pc);
+                code.invoke(ENGINE, "callIf", CALL_IF_TYPE);
+                code.op(IRETURN);
+                return true;
+            }
+            //Return
+            case FastEngine.LOAD_NO_REG -> {
+                code.op(ALOAD_2);
+                code.constant(pc);
+                code.invoke(ENGINE, "ret", RET_TYPE);
+                code.op(IRETURN);
+                return true;
+            }
+            case FastEngine.POP_NO_REG -> {
+                code.op(ALOAD_2);
+                code.constant(pc);
+                code.invoke(ENGINE, "interrupt", INTERRUPT_TYPE);
+                code.op(IRETURN);
+                return true;
+            }
+            default -> throw new IllegalArgumentException("Instruction can not be compiled");
+        }
+        return false;
+    }
+
+    //The opcodes used by the generated code
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int IALOAD = 0x2e;
+    private static final int IASTORE = 0x4f;
+    private static final int POP = 0x57;
+    private static final int IADD = 0x60;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    //Writes the bytes of a class with a no argument constructor and a CompiledBlock.execute() method
+    //holding the generated code
+    private static class ClassWriter {
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final DataOutputStream poolOut = new DataOutputStream(pool);
+        private final HashMap<String, Integer> entries = new HashMap<>();
+        private int poolCount = 1;
+
+        private final int thisClass;
+        private final int objectClass;
+        private final int blockInterface;
+        final Code code;
+
+        ClassWriter(String name) throws IOException {
+            thisClass = classEntry(name);
+            objectClass = classEntry("java/lang/Object");
+            blockInterface = classEntry("CompiledBlock");
+            code = new Code(this);
+        }
+
+        //The following add constant pool entries, reusing an entry if it already exists
+
+        int utf8(String value) throws IOException {
+            Integer index = entries.get("U" + value);
+            if(index == null){
+                poolOut.writeByte(1);
+                poolOut.writeUTF(value);
+                index = poolCount++;
+                entries.put("U" + value, index);
+            }
+            return index;
+        }
+
+        int integer(int value) throws IOException {
+            Integer index = entries.get("I" + value);
+            if(index == null){
+                poolOut.writeByte(3);
+                poolOut.writeInt(value);
+                index = poolCount++;
+                entries.put("I" + value, index);
+            }
+            return index;
+        }
+
+        int classEntry(String name) throws IOException {
+            Integer index = entries.get("C" + name);
+            if(index == null){
+                int nameIndex = utf8(name);
+                poolOut.writeByte(7);
+                poolOut.writeShort(nameIndex);
+                index = poolCount++;
+                entries.put("C" + name, index);
+            }
+            return index;
+        }
+
+        int method(String owner, String name, String descriptor) throws IOException {
+            String key = "M" + owner + "." + name + descriptor;
+            Integer index = entries.get(key);
+            if(index == null){
+                int ownerIndex = classEntry(owner);
+                int nameIndex = utf8(name);
+                int typeIndex = utf8(descriptor);
+                poolOut.writeByte(12);
+                poolOut.writeShort(nameIndex);
+                poolOut.writeShort(typeIndex);
+                int nameAndType = poolCount++;
+                poolOut.writeByte(10);
+                poolOut.writeShort(ownerIndex);
+                poolOut.writeShort(nameAndType);
+                index = poolCount++;
+                entries.put(key, index);
+            }
+            return index;
+        }
+
+        byte[] toBytes() throws IOException {
+            //Constructor: calls Object() and returns
+            ByteArrayOutputStream init = new ByteArrayOutputStream();
+            int objectInit = method("java/lang/Object", "<init>", "()V");
+            init.write(ALOAD_0);
+            init.write(INVOKESPECIAL);
+            init.write(objectInit >> 8);
+            init.write(objectInit);
+            init.write(RETURN);
+
+            int initName = utf8("<init>");
+            int initType = utf8("()V");
+            int executeName = utf8("execute");
+            int executeType = utf8("([ILJitEngine;)I");
+            int codeName = utf8("Code");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(61);
+            out.writeShort(poolCount);
+            out.write(pool.toByteArray());
+            //ACC_FINAL | ACC_SUPER
+            out.writeShort(0x0030);
+            out.writeShort(thisClass);
+            out.writeShort(objectClass);
+            out.writeShort(1);
+            out.writeShort(blockInterface);
+            out.writeShort(0);
+            out.writeShort(2);
+            writeMethod(out, initName, initType, codeName, 1, 1, init.toByteArray());
+            writeMethod(out, executeName, executeType, codeName, 8, 3, code.bytes.toByteArray());
+            out.writeShort(0);
+            return bytes.toByteArray();
+        }
+
+        //Writes a public method with a single Code attribute
+        private void writeMethod(DataOutputStream out, int name, int type, int codeName, int maxStack,
+                                 int maxLocals, byte[] code) throws IOException {
+            out.writeShort(0x0001);
+            out.writeShort(name);
+            out.writeShort(type);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+    }
+
+    //The body of the execute() method being generated
+    private static class Code {
+        private final ClassWriter writer;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Code(ClassWriter writer){
+            this.writer = writer;
+        }
+
+        void op(int opcode){
+            bytes.write(opcode);
+        }
+
+        //Pushes an int constant using the shortest instruction for it
+        void constant(int value){
+            if(value >= -1 && value <= 5){
+                bytes.write(ICONST_0 + value);
+            }
+            else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE){
+                bytes.write(BIPUSH);
+                bytes.write(value);
+            }
+            else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE){
+                bytes.write(SIPUSH);
+                bytes.write(value >> 8);
+                bytes.write(value);
+            }
+            else{
+                int index;
+                try {
+                    index = writer.integer(value);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                bytes.write(LDC_W);
+                bytes.write(index >> 8);
+                bytes.write(index);
+            }
+        }
+
+        //Pushes the value of a register
+        void register(int index){
+            bytes.write(ALOAD_1);
+            constant(index);
+            bytes.write(IALOAD);
+        }
+
+        //Pushes the value of a register plus an immediate
+        void sum(int index, int immediate){
+            register(index);
+            constant(immediate);
+            bytes.write(IADD);
+        }
+
+        //Calls a static helper
+        void invoke(String owner, String name, String descriptor){
+            int index;
+            try {
+                index = writer.method(owner, name, descriptor);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            bytes.write(INVOKESTATIC);
+            bytes.write(index >> 8);
+            bytes.write(index);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+//Guesses which way a conditional branch (or conditional call) goes while it is being fetched, long
+//before it is resolved. A BranchUnit asks predict() as each conditional branch is fetched and then
+//tells the predictor the outcome with update(), always in that order and one branch at a time
+public interface BranchPredictor {
+
+    //Returns true if the branch at the given address is predicted to be taken
+    boolean predict(int pc);
+
+    //Trains the predictor with the way the branch at the given address went
+    void update(int pc, boolean taken);
+}
@@ -0,0 +1,62 @@
+//Remembers where taken branches went, so fetching can follow a branch predicted taken in the same
+//cycle instead of waiting for its target to be worked out. Direct mapped: each branch address has
+//one entry, picked by its low bits, which another branch with the same low bits can replace
+public class BranchTargetBuffer {
+
+    public static final int DEFAULT_ENTRIES = 1024;
+
+    private final int[] branches;
+    private final int[] targets;
+    private final boolean[] valid;
+    private final int mask;
+
+    private long hits;
+    private long misses;
+
+    public BranchTargetBuffer(){
+        this(DEFAULT_ENTRIES);
+    }
+
+    //Creates a buffer with the given number of entries, a power of two
+    public BranchTargetBuffer(int entries){
+        if(Integer.bitCount(entries) != 1){
+            throw new IllegalArgumentException("The number of entries must be a power of two");
+        }
+        branches = new int[entries];
+        targets = new int[entries];
+        valid = new boolean[entries];
+        mask = entries - 1;
+    }
+
+    //Returns the target last recorded for the branch at the given address as an unsigned int, or
+    //-1 if there is none
+    long lookup(int pc){
+        int slot = pc & mask;
+        if(valid[slot] && branches[slot] == pc){
+            hits++;
+            return targets[slot] & 0xFFFFFFFFL;
+        }
+        misses++;
+        return -1;
+    }
+
+    //Records where the branch at the given address went
+    void record(int pc, int target){
+        int slot = pc & mask;
+        branches[slot] = pc;
+        targets[slot] = target;
+        valid[slot] = true;
+    }
+
+    public int getEntries(){
+        return targets.length;
+    }
+
+    public long getHits(){
+        return hits;
+    }
+
+    public long getMisses(){
+        return misses;
+    }
+}
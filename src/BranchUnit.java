@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//Branch prediction for a Pipeline: decides where fetching goes after each branch, call, return and
+//interrupt, long before the instruction is resolved, and keeps count of how often that was wrong
+//and what it cost. Conditional branches and calls ask the BranchPredictor which way they go, and
+//any branch or call predicted taken is followed to the target the BranchTargetBuffer remembers for
+//it (fetching goes straight on if there is none). Returns go to the address the
+//ReturnAddressStack pops. When fetching went the wrong way, the pipeline flushes as it would with
+//no prediction at all, and the cycles lost are charged to the branch.
+//
+//Statistics are kept for every branch address, and report() lists the ones that cost the most.
+public class BranchUnit {
+
+    private final BranchPredictor predictor;
+    private final BranchTargetBuffer targets;
+    private final ReturnAddressStack returns;
+
+    //Statistics per branch address, by the number the table gave it: how often the branch ran, how
+    //often fetching went the wrong way after it, and the cycles that cost
+    private final AddressTable addresses = new AddressTable();
+    private long[] executed = new long[32];
+    private long[] mispredicted = new long[32];
+    private long[] penalties = new long[32];
+
+    private long branches;
+    private long mispredictions;
+    private long cycles;
+
+    //Uses the given predictor with a default branch target buffer and return address stack
+    public BranchUnit(BranchPredictor predictor){
+        this(predictor, new BranchTargetBuffer(), new ReturnAddressStack());
+    }
+
+    public BranchUnit(BranchPredictor predictor, BranchTargetBuffer targets, ReturnAddressStack returns){
+        this.predictor = predictor;
+        this.targets = targets;
+        this.returns = returns;
+    }
+
+    //Predicts where fetching went after the control instruction fetched from pc, then learns from
+    //where it actually went (next). Returns true if the prediction was right
+    boolean resolve(DecodedInstruction d, int pc, int next){
+        long fallThrough = (pc + 1) & 0xFFFFFFFFL;
+        long predicted = fallThrough;
+        boolean taken = next != pc + 1;
+
+        if(d.opType == OperationType.LOAD){
+            long target = returns.pop();
+            if(target >= 0){
+                predicted = target;
+            }
+        }
+        else{
+            boolean conditional = (d.opType == OperationType.BRANCH || d.opType == OperationType.CALL)
+                    && (d.instType == InstructionType.THREE_REG || d.instType == InstructionType.TWO_REG);
+            if(!conditional || predictor.predict(pc)){
+                long target = targets.lookup(pc);
+                if(target >= 0){
+                    predicted = target;
+                }
+            }
+            if(conditional){
+                predictor.update(pc, taken);
+            }
+            if(taken){
+                targets.record(pc, next);
+            }
+            //Calls and interrupts push the address after them, conditional calls only when taken
+            if(d.opType != OperationType.BRANCH && (taken || !conditional)){
+                returns.push(pc + 1);
+            }
+        }
+
+        boolean right = predicted == (next & 0xFFFFFFFFL);
+        int branch = branch(pc);
+        executed[branch]++;
+        branches++;
+        if(!right){
+            mispredicted[branch]++;
+            mispredictions++;
+        }
+        return right;
+    }
+
+    //Charges the given cycles lost to a flush to the branch at the given address
+    void charge(int pc, long lost){
+        penalties[branch(pc)] += lost;
+        cycles += lost;
+    }
+
+    //Returns the number of the given branch address in the statistics, adding it if it is new
+    private int branch(int pc){
+        int branch = addresses.add(pc);
+        if(branch == executed.length){
+            executed = Arrays.copyOf(executed, branch * 2);
+            mispredicted = Arrays.copyOf(mispredicted, branch * 2);
+            penalties = Arrays.copyOf(penalties, branch * 2);
+        }
+        return branch;
+    }
+
+    public BranchPredictor getPredictor(){
+        return predictor;
+    }
+
+    public BranchTargetBuffer getTargetBuffer(){
+        return targets;
+    }
+
+    public ReturnAddressStack getReturnAddressStack(){
+        return returns;
+    }
+
+    //Returns the number of branches, calls, returns and interrupts run
+    public long getBranches(){
+        return branches;
+    }
+
+    public long getMispredictions(){
+        return mispredictions;
+    }
+
+    //Returns the share of branches that were mispredicted, 0 before any branch
+    public double getMispredictionRate(){
+        return branches == 0 ? 0 : (double)mispredictions / branches;
+    }
+
+    //Returns the cycles lost to mispredictions
+    public long getCycles(){
+        return cycles;
+    }
+
+    //Returns the number of times the branch at the given address ran
+    public long getExecuted(int pc){
+        int branch = addresses.find(pc);
+        return branch < 0 ? 0 : executed[branch];
+    }
+
+    //Returns the number of times the branch at the given address was mispredicted
+    public long getMispredicted(int pc){
+        int branch = addresses.find(pc);
+        return branch < 0 ? 0 : mispredicted[branch];
+    }
+
+    //Returns the cycles lost to mispredicting the branch at the given address
+    public long getCycles(int pc){
+        int branch = addresses.find(pc);
+        return branch < 0 ? 0 : penalties[branch];
+    }
+
+    //Returns the overall statistics followed by a line for each of the given number of branches
+    //that cost the most cycles (then were mispredicted the most)
+    public String report(int top){
+        List<Integer> ranked = new ArrayList<>(addresses.size());
+        for(int i = 0; i<addresses.size(); i++){
+            ranked.add(i);
+        }
+        ranked.sort((a, b) -> penalties[a] != penalties[b] ? Long.compare(penalties[b], penalties[a])
+                : mispredicted[a] != mispredicted[b] ? Long.compare(mispredicted[b], mispredicted[a])
+                : Integer.compareUnsigned(addresses.address(a), addresses.address(b)));
+        StringBuilder builder = new StringBuilder(toString());
+        builder.append(String.format("%n%10s %12s %12s %8s %12s", "address", "executed", "mispredicted", "rate", "cycles"));
+        for(int i = 0; i<Math.min(top, ranked.size()); i++){
+            int branch = ranked.get(i);
+            builder.append(String.format("%n%10s %12d %12d %7.2f%% %12d", Integer.toUnsignedString(addresses.address(branch)),
+                    executed[branch], mispredicted[branch], 100.0 * mispredicted[branch] / executed[branch],
+                    penalties[branch]));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString(){
+        return String.format("Branches (%s): %d run, %d mispredicted (%.2f%%) costing %d cycles, BTB %d hits %d misses",
+                predictor, branches, mispredictions, getMispredictionRate() * 100, cycles, targets.getHits(),
+                targets.getMisses());
+    }
+}
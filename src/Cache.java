@@ -0,0 +1,255 @@
+//One level of a CacheHierarchy: a set associative cache of memory lines that only keeps track of
+//which lines it holds (their tags), not of their contents, since MainMemory always has the right
+//values. Sizes are counted in words and must be powers of two. Every access is counted as a hit or
+//a miss, and returns the number of cycles it took: the cache's latency, plus the time the level
+//below (the next cache, or memory) took for whatever the access needed from it.
+//
+//A miss brings the line in, replacing a line of its set when the set is full (an eviction) as the
+//replacement policy decides. A write back cache only marks the line dirty on a write and writes it
+//to the level below when it is evicted, which is charged to the access that evicted it; a write
+//through cache passes every write down straight away. Without write allocate, a write that misses
+//goes to the level below without bringing the line in. Levels are not inclusive: evicting a line
+//here does nothing to the levels above or below.
+//
+//Everything is kept in arrays indexed by set * ways + way, so an access allocates nothing.
+public class Cache {
+
+    private final String name;
+    private final int size;
+    private final int lineSize;
+    private final int ways;
+    private final ReplacementPolicy policy;
+    private final boolean writeBack;
+    private final boolean writeAllocate;
+    private final int latency;
+
+    //Bits of an address below the line number, and the mask taking the set out of a line number
+    private final int lineBits;
+    private final int setMask;
+
+    //Per line slot: the line number held (address >>> lineBits), whether it holds one, and whether
+    //it was written since it was brought in
+    private final int[] tags;
+    private final boolean[] valid;
+    private final boolean[] dirty;
+
+    //LRU: when each slot was last used, by a count of accesses. PLRU: a tree of ways - 1 bits per
+    //set, node n at set * ways + n (node 1 is the root), each true when the victim is on its right
+    private final long[] used;
+    private final boolean[] tree;
+    private long clock;
+
+    //RANDOM: state of the xorshift generator picking victims
+    private int random = 0x2545F491;
+
+    //The line and slot of the last access. Repeating it is always a hit that leaves the replacement
+    //state as it is, which makes runs of accesses to one line (such as fetching straight line code)
+    //cheap
+    private long lastLine = Long.MIN_VALUE;
+    private int lastSlot;
+
+    //The level below, or null when it is memory, which takes memoryLatency cycles. Set by
+    //CacheHierarchy
+    Cache next;
+    int memoryLatency;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+
+    //Creates an empty cache of size words in lines of lineSize words, with the given number of ways
+    //(lines per set), taking latency cycles per access
+    public Cache(String name, int size, int lineSize, int ways, ReplacementPolicy policy, boolean writeBack,
+                 boolean writeAllocate, int latency){
+        if(Integer.bitCount(size) != 1 || Integer.bitCount(lineSize) != 1 || Integer.bitCount(ways) != 1){
+            throw new IllegalArgumentException("Cache " + name + ": the size, line size and ways must be powers of two");
+        }
+        if(lineSize > size || (long)lineSize * ways > size){
+            throw new IllegalArgumentException("Cache " + name + " of " + size + " words can not hold " + ways
+                    + " ways of " + lineSize + " word lines");
+        }
+        if(latency < 0){
+            throw new IllegalArgumentException("Cache " + name + ": the latency can not be negative");
+        }
+        this.name = name;
+        this.size = size;
+        this.lineSize = lineSize;
+        this.ways = ways;
+        this.policy = policy;
+        this.writeBack = writeBack;
+        this.writeAllocate = writeAllocate;
+        this.latency = latency;
+        lineBits = Integer.numberOfTrailingZeros(lineSize);
+        int lines = size / lineSize;
+        setMask = lines / ways - 1;
+        tags = new int[lines];
+        valid = new boolean[lines];
+        dirty = new boolean[lines];
+        used = policy == ReplacementPolicy.LRU ? new long[lines] : null;
+        tree = policy == ReplacementPolicy.PLRU ? new boolean[lines] : null;
+    }
+
+    //Accesses the word at the given address, returning the cycles it took
+    int access(int address, boolean write){
+        int line = address >>> lineBits;
+        if(line == lastLine){
+            hits++;
+            return write ? written(lastSlot, address) : latency;
+        }
+        int base = (line & setMask) * ways;
+        for(int slot = base; slot<base + ways; slot++){
+            if(valid[slot] && tags[slot] == line){
+                hits++;
+                touch(base, slot);
+                return write ? written(slot, address) : latency;
+            }
+        }
+
+        misses++;
+        if(write && !writeAllocate){
+            return latency + below(address, true);
+        }
+        int cycles = latency + below(address, false);
+        int slot = victim(base);
+        if(valid[slot]){
+            evictions++;
+            if(dirty[slot]){
+                writeBacks++;
+                cycles += below(tags[slot] << lineBits, true);
+            }
+        }
+        tags[slot] = line;
+        valid[slot] = true;
+        dirty[slot] = false;
+        touch(base, slot);
+        return write ? cycles + written(slot, address) - latency : cycles;
+    }
+
+    //Writes to the line in the given slot, returning the cycles it took
+    private int written(int slot, int address){
+        if(writeBack){
+            dirty[slot] = true;
+            return latency;
+        }
+        return latency + below(address, true);
+    }
+
+    //Accesses the level below, returning the cycles it took
+    private int below(int address, boolean write){
+        return next == null ? memoryLatency : next.access(address, write);
+    }
+
+    //Marks the given slot as the most recently used one of the set starting at base
+    private void touch(int base, int slot){
+        lastLine = tags[slot];
+        lastSlot = slot;
+        if(used != null){
+            used[slot] = ++clock;
+        }
+        else if(tree != null){
+            //Every node on the way down to the slot points away from it
+            int way = slot - base;
+            int node = 1;
+            for(int bit = ways >>> 1; bit>0; bit >>>= 1){
+                boolean right = (way & bit) != 0;
+                tree[base + node] = !right;
+                node = node * 2 + (right ? 1 : 0);
+            }
+        }
+    }
+
+    //Returns the slot of the set starting at base to bring a new line into: an empty one if there
+    //is one, otherwise the one the replacement policy picks
+    private int victim(int base){
+        for(int slot = base; slot<base + ways; slot++){
+            if(!valid[slot]){
+                return slot;
+            }
+        }
+        switch(policy){
+            case LRU:
+                int oldest = base;
+                for(int slot = base + 1; slot<base + ways; slot++){
+                    if(used[slot] < used[oldest]){
+                        oldest = slot;
+                    }
+                }
+                return oldest;
+            case PLRU:
+                int node = 1;
+                while(node < ways){
+                    node = node * 2 + (tree[base + node] ? 1 : 0);
+                }
+                return base + node - ways;
+            default:
+                random ^= random << 13;
+                random ^= random >>> 17;
+                random ^= random << 5;
+                return base + (random & (ways - 1));
+        }
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    //Returns the number of words the cache holds
+    public int getSize(){
+        return size;
+    }
+
+    public int getLineSize(){
+        return lineSize;
+    }
+
+    public int getWays(){
+        return ways;
+    }
+
+    public ReplacementPolicy getPolicy(){
+        return policy;
+    }
+
+    public boolean isWriteBack(){
+        return writeBack;
+    }
+
+    public boolean isWriteAllocate(){
+        return writeAllocate;
+    }
+
+    public int getLatency(){
+        return latency;
+    }
+
+    public long getHits(){
+        return hits;
+    }
+
+    public long getMisses(){
+        return misses;
+    }
+
+    //Returns the number of lines replaced to make room for another
+    public long getEvictions(){
+        return evictions;
+    }
+
+    //Returns the number of dirty lines written to the level below when evicted
+    public long getWriteBacks(){
+        return writeBacks;
+    }
+
+    //Returns the share of accesses that missed, 0 before any access
+    public double getMissRate(){
+        long accesses = hits + misses;
+        return accesses == 0 ? 0 : (double)misses / accesses;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("%s: %d hits, %d misses (%.2f%%), %d evictions, %d write backs", name, hits, misses,
+                getMissRate() * 100, evictions, writeBacks);
+    }
+}
@@ -0,0 +1,120 @@
+//The caches between a processor core and memory: split level 1 instruction and data caches in front
+//of a unified level 2 cache, in front of memory taking memoryLatency cycles per access. Instruction
+//fetches go through the instruction cache and loads, stores, pushes, pops and atomics through the
+//data cache (an atomic counts as a single write). The cycles every access took are added up in a
+//counter, which gives the time the program spent waiting on memory under this model.
+//
+//A hierarchy only models timing - the values always come from MainMemory - and is used by running
+//a core in a CachedMemory. It belongs to one core and is not safe to share between threads.
+public class CacheHierarchy {
+
+    //Defaults: 32 KiB level 1 caches and a 256 KiB level 2 cache (in 4 byte words), all with
+    //64 byte lines, 8 ways, LRU, write back and write allocate
+    public static final int DEFAULT_L1_SIZE = 8192;
+    public static final int DEFAULT_L2_SIZE = 65536;
+    public static final int DEFAULT_LINE_SIZE = 16;
+    public static final int DEFAULT_WAYS = 8;
+    public static final int DEFAULT_L1_LATENCY = 4;
+    public static final int DEFAULT_L2_LATENCY = 12;
+    public static final int DEFAULT_MEMORY_LATENCY = 100;
+
+    private final Cache instructions;
+    private final Cache data;
+    private final Cache unified;
+    private final int memoryLatency;
+
+    //Cycles taken by every access so far, and by the instruction fetches and data accesses alone
+    private long cycles;
+    private long instructionCycles;
+    private long dataCycles;
+
+    //Puts the given level 1 caches in front of the given level 2 cache. Each cache can only be part
+    //of one hierarchy
+    public CacheHierarchy(Cache instructions, Cache data, Cache unified, int memoryLatency){
+        if(instructions == data || instructions == unified || data == unified){
+            throw new IllegalArgumentException("Each level of the hierarchy needs a cache of its own");
+        }
+        if(memoryLatency < 0){
+            throw new IllegalArgumentException("The memory latency can not be negative");
+        }
+        this.instructions = instructions;
+        this.data = data;
+        this.unified = unified;
+        this.memoryLatency = memoryLatency;
+        instructions.next = unified;
+        data.next = unified;
+        unified.next = null;
+        unified.memoryLatency = memoryLatency;
+    }
+
+    //Creates a hierarchy of the default caches, all using the given replacement policy
+    public CacheHierarchy(ReplacementPolicy policy){
+        this(new Cache("L1I", DEFAULT_L1_SIZE, DEFAULT_LINE_SIZE, DEFAULT_WAYS, policy, true, true, DEFAULT_L1_LATENCY),
+                new Cache("L1D", DEFAULT_L1_SIZE, DEFAULT_LINE_SIZE, DEFAULT_WAYS, policy, true, true, DEFAULT_L1_LATENCY),
+                new Cache("L2", DEFAULT_L2_SIZE, DEFAULT_LINE_SIZE, DEFAULT_WAYS, policy, true, true, DEFAULT_L2_LATENCY),
+                DEFAULT_MEMORY_LATENCY);
+    }
+
+    //Creates a hierarchy of the default caches
+    public CacheHierarchy(){
+        this(ReplacementPolicy.LRU);
+    }
+
+    //Accounts for fetching the instruction at the given address
+    void fetch(int address){
+        int taken = instructions.access(address, false);
+        instructionCycles += taken;
+        cycles += taken;
+    }
+
+    //Accounts for reading the word at the given address
+    void read(int address){
+        int taken = data.access(address, false);
+        dataCycles += taken;
+        cycles += taken;
+    }
+
+    //Accounts for writing the word at the given address
+    void write(int address){
+        int taken = data.access(address, true);
+        dataCycles += taken;
+        cycles += taken;
+    }
+
+    public Cache getInstructionCache(){
+        return instructions;
+    }
+
+    public Cache getDataCache(){
+        return data;
+    }
+
+    public Cache getUnifiedCache(){
+        return unified;
+    }
+
+    public int getMemoryLatency(){
+        return memoryLatency;
+    }
+
+    //Returns the cycles taken by every access so far
+    public long getCycles(){
+        return cycles;
+    }
+
+    //Returns the cycles taken by instruction fetches so far
+    public long getInstructionCycles(){
+        return instructionCycles;
+    }
+
+    //Returns the cycles taken by data accesses so far
+    public long getDataCycles(){
+        return dataCycles;
+    }
+
+    //Returns the statistics of each cache and the total cycles, one per line
+    @Override
+    public String toString(){
+        return instructions + "\n" + data + "\n" + unified + "\nMemory access cycles: " + cycles;
+    }
+}
@@ -0,0 +1,81 @@
+//A core's view of a memory through a CacheHierarchy: every access is passed on to the memory
+//unchanged and also accounted for in the caches - instruction fetches (decode()) in the instruction
+//cache, and reads, writes and atomic operations in the data cache. An access outside of memory
+//throws as usual and is not accounted for. The memory itself should be loaded before being
+//wrapped, since loading through the view would count as writes.
+//
+//Only the reference and fast engines fetch every instruction they run through decode(), so the JIT
+//engine only interprets in a CachedMemory. The view can also be put over another view, such as a
+//core's QuantumMemory.
+public class CachedMemory extends MainMemory {
+
+    private final MainMemory memory;
+    private final CacheHierarchy caches;
+
+    public CachedMemory(MainMemory memory, CacheHierarchy caches){
+        super(memory);
+        this.memory = memory;
+        this.caches = caches;
+    }
+
+    public CacheHierarchy getCaches(){
+        return caches;
+    }
+
+    @Override
+    public int readValue(int address){
+        int value = memory.readValue(address);
+        caches.read(address);
+        return value;
+    }
+
+    @Override
+    public void writeValue(int address, int value){
+        memory.writeValue(address, value);
+        caches.write(address);
+    }
+
+    @Override
+    public DecodedInstruction decode(int address){
+        DecodedInstruction instruction = memory.decode(address);
+        caches.fetch(address);
+        return instruction;
+    }
+
+    @Override
+    public int codeVersion(){
+        return memory.codeVersion();
+    }
+
+    //Instruction fetches are accounted for one at a time
+    @Override
+    boolean fuses(){
+        return false;
+    }
+
+    @Override
+    public int compareAndExchange(int address, int expected, int value){
+        int old = memory.compareAndExchange(address, expected, value);
+        caches.write(address);
+        return old;
+    }
+
+    @Override
+    public int getAndAdd(int address, int delta){
+        int old = memory.getAndAdd(address, delta);
+        caches.write(address);
+        return old;
+    }
+
+    @Override
+    public int getAndSet(int address, int value){
+        int old = memory.getAndSet(address, value);
+        caches.write(address);
+        return old;
+    }
+
+    @Override
+    public void fence(){
+        memory.fence();
+    }
+}
@@ -0,0 +1,338 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+//The complete state of a VirtualMachine at one point: the registers, program counter, stack
+//pointer, halted bit, memory, and which addresses had a predecoded instruction. Taking a checkpoint
+//with of() costs little, since the memory is a copy-on-write snapshot (see MainMemory.snapshot()),
+//and any number of machines can be started from one, all sharing its memory until they write it.
+//Compiled JIT blocks are not part of a checkpoint and are rebuilt as the code runs again.
+//
+//A Writer appends checkpoints to a file. The first one holds every page of memory that is not all
+//zero and each later one only the pages that changed since the one before, found by comparing the
+//two snapshots - pages are copied before they are written, so a page that is the same array in
+//both has not changed, and a flat memory keeps a dirty bit per page instead (see MemoryStore.Flat).
+//read() returns the last checkpoint in a file. All values are little-endian:
+//
+//  file header (HEADER_SIZE bytes)
+//    0  MAGIC
+//    4  VERSION
+//    8  memory backing (the ordinal of a MemoryBacking)
+//    12 reserved, 0
+//    16 memory size in words, as a long
+//  frames, one per checkpoint
+//    0  length of the frame in bytes, as a long
+//    8  sequence number, from 0 for the first checkpoint in the file
+//    12 program counter
+//    16 stack pointer
+//    20 halted, 1 or 0
+//    24 number of pages
+//    28 number of predecoded runs
+//    32 the 32 registers
+//    160 predecoded runs, each the first address and the length
+//    then each page: its index followed by its words
+//    last 4 bytes: CRC32C checksum of the frame before it
+//
+//Frames are only ever appended, and the channel is forced to the disk after each one, so a file
+//cut short by a crash still holds every checkpoint before the last one.
+public class Checkpoint {
+
+    //"SIAC" - SIA32 checkpoint
+    public static final int MAGIC = 0x43414953;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+    static final int FRAME_HEADER_SIZE = 160;
+
+    private final MemoryStore memory;
+    private final int programCounter;
+    private final int stackPointer;
+    private final boolean halted;
+    private final int[] registers;
+    private final int[] decoded;
+
+    private Checkpoint(MemoryStore memory, int programCounter, int stackPointer, boolean halted, int[] registers,
+                       int[] decoded){
+        this.memory = memory;
+        this.programCounter = programCounter;
+        this.stackPointer = stackPointer;
+        this.halted = halted;
+        this.registers = registers;
+        this.decoded = decoded;
+    }
+
+    //Takes a checkpoint of a machine that is not running
+    public static Checkpoint of(VirtualMachine machine){
+        MainMemory memory = machine.getMemory();
+        return new Checkpoint(memory.snapshot(), machine.getProgramCounter(), machine.getStackPointer(),
+                machine.isHalted(), machine.getRegisters(), memory.decodedRanges());
+    }
+
+    //Starts a new machine in the state of the checkpoint
+    public VirtualMachine start(ExecutionMode mode){
+        return start(null, mode);
+    }
+
+    //Same, but the processor sees the memory through the given caches, or directly if they are null
+    public VirtualMachine start(CacheHierarchy caches, ExecutionMode mode){
+        VirtualMachine machine = new VirtualMachine(new MainMemory(memory), caches, mode);
+        machine.getMemory().predecode(decoded);
+        set(machine.getProcessor());
+        return machine;
+    }
+
+    //Puts a machine that is not running back in the state of the checkpoint. Its memory has to be
+    //the same size
+    public void restore(VirtualMachine machine){
+        if(machine.getMemory().size() != memory.size){
+            throw new IllegalArgumentException("The checkpoint has " + memory.size + " words of memory, the machine "
+                    + machine.getMemory().size());
+        }
+        machine.getMemory().restore(memory);
+        machine.getMemory().predecode(decoded);
+        set(machine.getProcessor());
+    }
+
+    private void set(Processor processor){
+        for(int i = 0; i<registers.length; i++){
+            processor.r[i].set(registers[i]);
+        }
+        processor.setProgramCounter(programCounter);
+        processor.setStackPointer(stackPointer);
+        processor.setHalted(halted);
+    }
+
+    public int getProgramCounter(){
+        return programCounter;
+    }
+
+    public int getStackPointer(){
+        return stackPointer;
+    }
+
+    public boolean isHalted(){
+        return halted;
+    }
+
+    //Returns the values of all 32 registers
+    public int[] getRegisters(){
+        return registers.clone();
+    }
+
+    //Returns the number of words of memory
+    public long size(){
+        return memory.size;
+    }
+
+    //Reads the last whole checkpoint in a file written by a Writer. A last frame that was cut short
+    //or does not match its checksum is left out, as if it had never been written
+    public static Checkpoint read(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if(!readFully(channel, header, 0) || header.getInt(0) != MAGIC){
+                throw new IOException(file + " is not a checkpoint");
+            }
+            if(header.getInt(4) != VERSION){
+                throw new IOException(file + " is checkpoint version " + header.getInt(4) + ", only version " + VERSION
+                        + " is supported");
+            }
+            int backing = header.getInt(8);
+            long size = header.getLong(16);
+            if(backing < 0 || backing >= MemoryBacking.values().length || size < 1 || size > MainMemory.MAX_SIZE){
+                throw new IOException(file + " has a broken header");
+            }
+            MemoryStore memory = MemoryStore.create(size, MemoryBacking.values()[backing]);
+
+            ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer page = ByteBuffer.allocate(4 + MemoryStore.PAGE_SIZE * 4).order(ByteOrder.LITTLE_ENDIAN);
+            int[] words = new int[MemoryStore.PAGE_SIZE];
+            int[] registers = null;
+            int[] decoded = null;
+            int programCounter = 0;
+            int stackPointer = 0;
+            boolean halted = false;
+            int sequence = 0;
+            long position = HEADER_SIZE;
+            //Each frame is checked whole before any of it is used, then applied a page at a time
+            while(readFully(channel, frame.clear(), position) && frame.getInt(8) == sequence){
+                long bytes = frame.getLong(0);
+                if(bytes < FRAME_HEADER_SIZE + 4 || position + bytes > channel.size() || !valid(channel, position, bytes)){
+                    break;
+                }
+                programCounter = frame.getInt(12);
+                stackPointer = frame.getInt(16);
+                halted = frame.getInt(20) != 0;
+                int pages = frame.getInt(24);
+                registers = new int[32];
+                for(int i = 0; i<32; i++){
+                    registers[i] = frame.getInt(32 + i * 4);
+                }
+                ByteBuffer runs = ByteBuffer.allocate(frame.getInt(28) * 8).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(channel, runs, position + FRAME_HEADER_SIZE);
+                decoded = new int[runs.capacity() / 4];
+                runs.flip().asIntBuffer().get(decoded);
+
+                long offset = position + FRAME_HEADER_SIZE + runs.capacity();
+                for(int i = 0; i<pages; i++){
+                    page.clear().limit(4);
+                    readFully(channel, page, offset);
+                    int index = page.getInt(0);
+                    if(Integer.compareUnsigned(index, memory.pageCount()) >= 0){
+                        throw new IOException(file + " has a page outside of memory");
+                    }
+                    int length = memory.pageLength(index);
+                    page.clear().limit(length * 4);
+                    readFully(channel, page, offset + 4);
+                    page.flip().asIntBuffer().get(words, 0, length);
+                    int address = index << MemoryStore.PAGE_BITS;
+                    for(int j = 0; j<length; j++){
+                        memory.set(address + j, words[j]);
+                    }
+                    offset += 4 + length * 4L;
+                }
+                position += bytes;
+                sequence++;
+            }
+            if(registers == null){
+                throw new IOException(file + " holds no whole checkpoint");
+            }
+            return new Checkpoint(memory, programCounter, stackPointer, halted, registers, decoded);
+        }
+    }
+
+    //Returns true if the frame of the given length at the given position matches its checksum
+    private static boolean valid(FileChannel channel, long position, long bytes) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        long end = position + bytes - 4;
+        for(long offset = position; offset<end; offset += buffer.limit()){
+            buffer.clear().limit((int)Math.min(buffer.capacity(), end - offset));
+            readFully(channel, buffer, offset);
+            crc.update(buffer.flip());
+        }
+        buffer.clear().limit(4);
+        readFully(channel, buffer, end);
+        return buffer.getInt(0) == (int)crc.getValue();
+    }
+
+    //Fills the buffer from the channel starting at the given position, returning false if the
+    //channel ended first
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()){
+            int read = channel.read(buffer, position);
+            if(read < 0){
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    //Appends checkpoints to a file, each holding only the pages changed since the one before
+    public static class Writer implements Closeable {
+
+        private final FileChannel channel;
+        private Checkpoint last;
+        private int sequence;
+
+        //Starts a new checkpoint file, replacing the file if it exists
+        public Writer(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        //Takes a checkpoint of a machine that is not running and appends it, returning it
+        public Checkpoint write(VirtualMachine machine) throws IOException {
+            Checkpoint checkpoint = of(machine);
+            write(checkpoint);
+            return checkpoint;
+        }
+
+        //Appends a checkpoint. Every checkpoint in a file must have the same memory size and backing
+        public void write(Checkpoint checkpoint) throws IOException {
+            MemoryStore memory = checkpoint.memory;
+            if(last == null){
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(0, MAGIC);
+                header.putInt(4, VERSION);
+                header.putInt(8, memory.backing().ordinal());
+                header.putLong(16, memory.size);
+                writeFully(header);
+            }
+            else if(last.memory.size != memory.size || last.memory.backing() != memory.backing()){
+                throw new IllegalArgumentException("Every checkpoint in a file must have the same memory");
+            }
+
+            //The first checkpoint has every page that is not all zero, the rest those that changed
+            MemoryStore since = last == null ? null : last.memory;
+            int[] changed = new int[16];
+            int pages = 0;
+            long bytes = FRAME_HEADER_SIZE + checkpoint.decoded.length * 4L + 4;
+            for(int i = 0; i<memory.pageCount(); i++){
+                if(memory.changed(since, i)){
+                    if(pages == changed.length){
+                        changed = Arrays.copyOf(changed, pages * 2);
+                    }
+                    changed[pages++] = i;
+                    bytes += 4 + memory.pageLength(i) * 4L;
+                }
+            }
+
+            CRC32C crc = new CRC32C();
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE + checkpoint.decoded.length * 4)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(bytes);
+            header.putInt(sequence);
+            header.putInt(checkpoint.programCounter);
+            header.putInt(checkpoint.stackPointer);
+            header.putInt(checkpoint.halted ? 1 : 0);
+            header.putInt(pages);
+            header.putInt(checkpoint.decoded.length / 2);
+            for(int register : checkpoint.registers){
+                header.putInt(register);
+            }
+            for(int value : checkpoint.decoded){
+                header.putInt(value);
+            }
+            header.flip();
+            crc.update(header.duplicate());
+            writeFully(header);
+
+            int[] words = new int[MemoryStore.PAGE_SIZE];
+            ByteBuffer page = ByteBuffer.allocate(4 + MemoryStore.PAGE_SIZE * 4).order(ByteOrder.LITTLE_ENDIAN);
+            for(int i = 0; i<pages; i++){
+                int length = memory.pageLength(changed[i]);
+                memory.getPage(changed[i], words);
+                page.clear();
+                page.putInt(changed[i]);
+                page.asIntBuffer().put(words, 0, length);
+                page.position(4 + length * 4).flip();
+                crc.update(page.duplicate());
+                writeFully(page);
+            }
+            ByteBuffer checksum = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            checksum.putInt(0, (int)crc.getValue());
+            writeFully(checksum);
+            channel.force(false);
+
+            last = checkpoint;
+            sequence++;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,414 @@
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.UnaryOperator;
+
+//Runs a program on the gate level reference engine and a faster engine side by side, to check that
+//the faster one gives the same results. Every interval instructions both are stopped and compared:
+//the registers, program counter, stack pointer and halted bit, the number of instructions run, any
+//exception thrown, and every memory write each made since the last comparison, in order. Atomic
+//operations count as a write of the word they left, when they changed it, since the engines reach
+//the same word through different memory operations.
+//
+//With an interval above 1, a Checkpoint of the reference machine is taken at every comparison that
+//agrees. Once the engines differ, both are put back to that checkpoint and run again one
+//instruction at a time, so the divergence reported is always the first instruction they disagree
+//on, and the same is done to find the instruction both failed on. The report of a divergence holds
+//the state of both machines and every word of memory that differs.
+//
+//Both engines run in slices (see Processor.run(long)), so the JIT engine only interprets. The
+//fast engine can still be given a Fusion, with getFast().getProcessor().setFusion(), to check the
+//instructions it fuses.
+public class CoSimulation {
+
+    //Most differing words of memory listed in a divergence
+    static final int MAX_MEMORY_DIFFERENCES = 32;
+
+    private final ProgramImage image;
+    private final ExecutionMode mode;
+    private final int interval;
+    private final VirtualMachine reference;
+    private final VirtualMachine fast;
+    private final WriteLog referenceWrites;
+    private final WriteLog fastWrites;
+
+    //Instructions both engines ran up to the last comparison that agreed
+    private long instructions;
+
+    //The exception both engines stopped on in the same way, if any
+    private Throwable failure;
+
+    //Loads the image into two memories of the given number of words, one run by the reference
+    //engine and one by the given engine, compared every interval instructions
+    public CoSimulation(ProgramImage image, long size, ExecutionMode mode, int interval){
+        this(image, size, mode, interval, UnaryOperator.identity());
+    }
+
+    //Same, but the faster engine sees its memory through the view the given function makes of it,
+    //for tests that break that engine on purpose
+    CoSimulation(ProgramImage image, long size, ExecutionMode mode, int interval, UnaryOperator<MainMemory> view){
+        if(interval < 1){
+            throw new IllegalArgumentException("The interval must be at least 1 instruction");
+        }
+        this.image = image;
+        this.mode = mode;
+        this.interval = interval;
+        referenceWrites = new WriteLog(load(image, size));
+        fastWrites = new WriteLog(load(image, size));
+        reference = start(image, referenceWrites, referenceWrites, ExecutionMode.REFERENCE);
+        fast = start(image, fastWrites, view.apply(fastWrites), mode);
+    }
+
+    private static MainMemory load(ProgramImage image, long size){
+        MainMemory memory = new MainMemory(Math.max(size, image.extent()));
+        memory.load(image);
+        return memory;
+    }
+
+    //Starts a machine on the program loaded in the log's memory, seeing it through the given view of
+    //the log
+    private static VirtualMachine start(ProgramImage image, WriteLog log, MainMemory view, ExecutionMode mode){
+        VirtualMachine machine = new VirtualMachine(log.memory, view, mode);
+        machine.getProcessor().setProgramCounter(image.getEntryPoint());
+        if(image.getStackPointer() != ProgramImage.TOP_OF_MEMORY){
+            machine.getProcessor().setStackPointer(image.getStackPointer());
+        }
+        return machine;
+    }
+
+    //Runs both engines until they halt or fail in the same way, run limit instructions (0 for no
+    //limit), or differ. Returns the first divergence, or null if they agreed the whole way
+    public Divergence run(long limit){
+        Checkpoint agreed = interval > 1 ? Checkpoint.of(reference) : null;
+        while(failure == null && !(reference.isHalted() && fast.isHalted()) && (limit == 0 || instructions < limit)){
+            long count = limit == 0 ? interval : Math.min(interval, limit - instructions);
+            Divergence divergence = step(count);
+            if(count > 1 && (divergence != null || failure != null)){
+                //Runs again from where they last agreed, one instruction at a time, to find the
+                //instruction they differed or failed on
+                long end = instructions + count;
+                agreed.restore(reference);
+                agreed.restore(fast);
+                failure = null;
+                while(failure == null && instructions < end && !(reference.isHalted() && fast.isHalted())){
+                    Divergence first = step(1);
+                    if(first != null){
+                        return first;
+                    }
+                }
+                return divergence;
+            }
+            if(divergence != null){
+                return divergence;
+            }
+            if(agreed != null){
+                agreed = Checkpoint.of(reference);
+            }
+        }
+        return null;
+    }
+
+    //Runs both engines the given number of instructions from a point where they agree, returning how
+    //they differ afterwards, or null if they do not
+    private Divergence step(long count){
+        int address = reference.getProgramCounter();
+        State expected = run(reference, referenceWrites, count);
+        State actual = run(fast, fastWrites, count);
+        if(!expected.equals(actual)){
+            return new Divergence(this, address, count, expected, actual);
+        }
+        if(expected.error != null){
+            failure = expected.error;
+        }
+        else{
+            instructions += expected.instructions;
+        }
+        return null;
+    }
+
+    private static State run(VirtualMachine machine, WriteLog writes, long count){
+        writes.clear();
+        long ran = -1;
+        Throwable error = null;
+        try {
+            ran = machine.run(count);
+        } catch (Exception e) {
+            error = e;
+        }
+        return new State(machine, writes, ran, error);
+    }
+
+    //Returns the number of instructions both engines ran up to the last comparison that agreed
+    public long getInstructions(){
+        return instructions;
+    }
+
+    //Returns the exception both engines stopped on in the same way, or null if they did not fail
+    public Throwable getFailure(){
+        return failure;
+    }
+
+    public VirtualMachine getReference(){
+        return reference;
+    }
+
+    public VirtualMachine getFast(){
+        return fast;
+    }
+
+    //Where and how the engines first differed, with the state of both machines after it
+    public static class Divergence {
+
+        //Instructions both ran alike before the ones that differed, how many were run before
+        //comparing (1 unless they could not be run again one at a time), and the address the first
+        //of them was fetched from
+        public final long instructions;
+        public final long count;
+        public final int address;
+        private final int line;
+        private final ExecutionMode mode;
+        private final State expected;
+        private final State actual;
+
+        //Words of memory that differ: their addresses and the words in each memory, and how many
+        //differ in all
+        private final long[] addresses;
+        private final int[] expectedWords;
+        private final int[] actualWords;
+        private final long differences;
+
+        private Divergence(CoSimulation simulation, int address, long count, State expected, State actual){
+            this.instructions = simulation.instructions;
+            this.count = count;
+            this.address = address;
+            this.line = simulation.image.getLine(address);
+            this.mode = simulation.mode;
+            this.expected = expected;
+            this.actual = actual;
+
+            //Only pages written in either memory can differ
+            MemoryStore one = simulation.reference.getMemory().snapshot();
+            MemoryStore other = simulation.fast.getMemory().snapshot();
+            long[] addresses = new long[MAX_MEMORY_DIFFERENCES];
+            int[] expectedWords = new int[MAX_MEMORY_DIFFERENCES];
+            int[] actualWords = new int[MAX_MEMORY_DIFFERENCES];
+            int[] page = new int[MemoryStore.PAGE_SIZE];
+            int[] otherPage = new int[MemoryStore.PAGE_SIZE];
+            long differences = 0;
+            for(int index = 0; index<one.pageCount(); index++){
+                if(!one.changed(null, index) && !other.changed(null, index)){
+                    continue;
+                }
+                one.getPage(index, page);
+                other.getPage(index, otherPage);
+                for(int i = 0; i<one.pageLength(index); i++){
+                    if(page[i] != otherPage[i]){
+                        if(differences < MAX_MEMORY_DIFFERENCES){
+                            addresses[(int)differences] = ((long)index << MemoryStore.PAGE_BITS) + i;
+                            expectedWords[(int)differences] = page[i];
+                            actualWords[(int)differences] = otherPage[i];
+                        }
+                        differences++;
+                    }
+                }
+            }
+            int listed = (int)Math.min(differences, MAX_MEMORY_DIFFERENCES);
+            this.addresses = Arrays.copyOf(addresses, listed);
+            this.expectedWords = Arrays.copyOf(expectedWords, listed);
+            this.actualWords = Arrays.copyOf(actualWords, listed);
+            this.differences = differences;
+        }
+
+        //Returns the number of words of memory that differ
+        public long getMemoryDifferences(){
+            return differences;
+        }
+
+        //Lists everything that differs, the reference engine's side first
+        @Override
+        public String toString(){
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format("The %s engine diverged from the reference after %d instructions, ", mode,
+                    instructions));
+            builder.append(count == 1 ? "on the instruction at " : "within " + count + " instructions from ");
+            builder.append(Integer.toUnsignedString(address));
+            if(line != 0){
+                builder.append(" (line ").append(line).append(')');
+            }
+            builder.append(String.format("%n%-14s %-24s %s", "", "reference", mode));
+            row(builder, "instructions", expected.instructions, actual.instructions);
+            row(builder, "pc", Integer.toUnsignedString(expected.programCounter),
+                    Integer.toUnsignedString(actual.programCounter));
+            row(builder, "sp", Integer.toUnsignedString(expected.stackPointer),
+                    Integer.toUnsignedString(actual.stackPointer));
+            row(builder, "halted", expected.halted, actual.halted);
+            for(int i = 0; i<expected.registers.length; i++){
+                row(builder, "r" + i, expected.registers[i], actual.registers[i]);
+            }
+            row(builder, "error", expected.error, actual.error);
+            if(!Arrays.equals(expected.writes, actual.writes)){
+                builder.append(String.format("%nwrites (address=word) since the last comparison:"));
+                builder.append(String.format("%n  reference: %s", writes(expected.writes)));
+                builder.append(String.format("%n  %s: %s", mode, writes(actual.writes)));
+            }
+            if(differences > 0){
+                builder.append(String.format("%nmemory: %d %s", differences, differences == 1 ? "word differs"
+                        : "words differ"));
+                for(int i = 0; i<addresses.length; i++){
+                    builder.append(String.format("%n%-14s %-24d %d", "[" + addresses[i] + "]", expectedWords[i],
+                            actualWords[i]));
+                }
+            }
+            return builder.toString();
+        }
+
+        //Appends a line for a part of the state, only if it differs
+        private static void row(StringBuilder builder, String name, Object expected, Object actual){
+            if(!Objects.equals(String.valueOf(expected), String.valueOf(actual))){
+                builder.append(String.format("%n%-14s %-24s %s", name, expected, actual));
+            }
+        }
+
+        private static String writes(long[] writes){
+            StringBuilder builder = new StringBuilder("[");
+            for(int i = 0; i<writes.length; i++){
+                if(i > 0){
+                    builder.append(", ");
+                }
+                builder.append(Integer.toUnsignedString((int)(writes[i] >>> 32))).append('=').append((int)writes[i]);
+            }
+            return builder.append(']').toString();
+        }
+    }
+
+    //The state of one machine after a step: the instructions it ran (-1 if it threw), its
+    //registers, program counter, stack pointer and halted bit, the writes it made as address and
+    //word packed into a long, and what it threw
+    private static class State {
+
+        final long instructions;
+        final int programCounter;
+        final int stackPointer;
+        final boolean halted;
+        final int[] registers;
+        final long[] writes;
+        final Throwable error;
+
+        State(VirtualMachine machine, WriteLog log, long instructions, Throwable error){
+            this.instructions = instructions;
+            programCounter = machine.getProgramCounter();
+            stackPointer = machine.getStackPointer();
+            halted = machine.isHalted();
+            registers = machine.getRegisters();
+            writes = log.toArray();
+            this.error = error;
+        }
+
+        //Exceptions are the same if they are of the same class with the same message
+        @Override
+        public boolean equals(Object other){
+            if(!(other instanceof State state)){
+                return false;
+            }
+            return instructions == state.instructions && programCounter == state.programCounter
+                    && stackPointer == state.stackPointer && halted == state.halted
+                    && Arrays.equals(registers, state.registers) && Arrays.equals(writes, state.writes)
+                    && Objects.equals(describe(error), describe(state.error));
+        }
+
+        @Override
+        public int hashCode(){
+            return Objects.hash(instructions, programCounter, stackPointer, halted, Arrays.hashCode(registers));
+        }
+
+        private static String describe(Throwable error){
+            return error == null ? null : error.getClass().getName() + ": " + error.getMessage();
+        }
+    }
+
+    //A view of a memory that passes every access on unchanged and keeps a list of the writes made
+    //through it, like CachedMemory does with its caches
+    private static class WriteLog extends MainMemory {
+
+        private final MainMemory memory;
+        private long[] writes = new long[16];
+        private int count;
+
+        WriteLog(MainMemory memory){
+            super(memory);
+            this.memory = memory;
+        }
+
+        private void record(int address, int value){
+            if(count == writes.length){
+                writes = Arrays.copyOf(writes, count * 2);
+            }
+            writes[count++] = (long)address << 32 | Integer.toUnsignedLong(value);
+        }
+
+        void clear(){
+            count = 0;
+        }
+
+        long[] toArray(){
+            return Arrays.copyOf(writes, count);
+        }
+
+        @Override
+        public int readValue(int address){
+            return memory.readValue(address);
+        }
+
+        @Override
+        public void writeValue(int address, int value){
+            memory.writeValue(address, value);
+            record(address, value);
+        }
+
+        @Override
+        public DecodedInstruction decode(int address){
+            return memory.decode(address);
+        }
+
+        @Override
+        FusedInstruction fuse(int address, DecodedInstruction first){
+            return memory.fuse(address, first);
+        }
+
+        @Override
+        public int codeVersion(){
+            return memory.codeVersion();
+        }
+
+        @Override
+        public int compareAndExchange(int address, int expected, int value){
+            int old = memory.compareAndExchange(address, expected, value);
+            if(old == expected && value != old){
+                record(address, value);
+            }
+            return old;
+        }
+
+        @Override
+        public int getAndAdd(int address, int delta){
+            int old = memory.getAndAdd(address, delta);
+            if(delta != 0){
+                record(address, old + delta);
+            }
+            return old;
+        }
+
+        @Override
+        public int getAndSet(int address, int value){
+            int old = memory.getAndSet(address, value);
+            if(value != old){
+                record(address, value);
+            }
+            return old;
+        }
+
+        @Override
+        public void fence(){
+            memory.fence();
+        }
+    }
+}
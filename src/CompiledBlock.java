@@ -0,0 +1,6 @@
+//A basic block of guest instructions compiled to JVM bytecode by BlockCompiler
+interface CompiledBlock {
+
+    //Runs the block on the given registers and returns the address of the next instruction
+    int execute(int[] registers, JitEngine engine);
+}
@@ -0,0 +1,81 @@
+//A compact, already decoded form of a single instruction word. MainMemory caches one of these per
+//address the first time it is fetched, so loops do not pay for masking and shifting the same word
+//on every iteration. Refer to the SIA32 document for the layout of each instruction format.
+public class DecodedInstruction {
+
+    //The lowest 5 bits of the instruction, all 0's meaning halt
+    final int opcode;
+
+    final OperationType opType;
+    final InstructionType instType;
+
+    //Dense index of the (operation type, format) pair used by FastEngine to dispatch
+    final int handler;
+
+    //Register indexes, function code and immediate value - only the fields used by the format are
+    //meaningful, the rest are left as 0
+    final int rd;
+    final int rs1;
+    final int rs2;
+    final int function;
+    final int immediate;
+
+    //The pair of instructions this one starts that FastEngine runs as one, FusedInstruction.NONE if
+    //it does not start one, or null until MainMemory.fuse() has been asked
+    FusedInstruction fused;
+
+    private DecodedInstruction(int opcode, OperationType opType, InstructionType instType, int rd,
+                               int rs1, int rs2, int function, int immediate) {
+        this.opcode = opcode;
+        this.opType = opType;
+        this.instType = instType;
+        this.handler = opType.ordinal() * 4 + instType.ordinal();
+        this.rd = rd;
+        this.rs1 = rs1;
+        this.rs2 = rs2;
+        this.function = function;
+        this.immediate = immediate;
+    }
+
+    //Decodes the given instruction word according to the first two bits in the opcode (the format)
+    //and the three bits above them (the operation)
+    static DecodedInstruction decode(int instruction) {
+        int opcode = instruction & 0x1F;
+
+        OperationType opType = switch (opcode >>> 2) {
+            case 0b000 -> OperationType.MATH;
+            case 0b001 -> OperationType.BRANCH;
+            case 0b010 -> OperationType.CALL;
+            case 0b011 -> OperationType.PUSH;
+            case 0b100 -> OperationType.LOAD;
+            case 0b101 -> OperationType.STORE;
+            case 0b110 -> OperationType.POP;
+            default -> OperationType.ATOMIC;
+        };
+
+        //00: A no register operation, everything above the opcode is the immediate value
+        if ((opcode & 0b11) == 0b00) {
+            return new DecodedInstruction(opcode, opType, InstructionType.NO_REG, 0, 0, 0, 0,
+                    instruction >>> 5);
+        }
+
+        //10 and 01 and 11: every other format has the rd and function in the same place
+        int rd = (instruction >>> 5) & 0x1F;
+        int function = (instruction >>> 10) & 0xF;
+
+        //01: Destination only operation
+        if ((opcode & 0b11) == 0b01) {
+            return new DecodedInstruction(opcode, opType, InstructionType.DEST_ONLY, rd, 0, 0,
+                    function, (instruction >>> 14) & 0x3FFFF);
+        }
+        //10: Three register operation
+        if ((opcode & 0b11) == 0b10) {
+            return new DecodedInstruction(opcode, opType, InstructionType.THREE_REG, rd,
+                    (instruction >>> 19) & 0x1F, (instruction >>> 14) & 0x1F, function,
+                    instruction >>> 24);
+        }
+        //11: Two register operation
+        return new DecodedInstruction(opcode, opType, InstructionType.TWO_REG, rd,
+                (instruction >>> 14) & 0x1F, 0, function, instruction >>> 19);
+    }
+}
@@ -0,0 +1,5 @@
+//Selects the engine Processor.run() uses - the reference fetch->decode->execute->store cycle,
+//FastEngine, JitEngine, or the reference cycle timed by a Pipeline
+public enum ExecutionMode {
+        REFERENCE, FAST, JIT, PIPELINED
+}
@@ -0,0 +1,353 @@
+//A second execution engine for the processor, selected by constructing it with ExecutionMode.FAST.
+//Instead of passing words between execute() and store(), every (operation type, format) pair has a
+//single fused handler working on plain int registers, chosen with a dense switch on the predecoded
+//handler index. It must leave the registers and memory in exactly the same state as the reference
+//engine, also when an instruction throws: the stack pointer only moves once the word it pushes or
+//pops has been written, as in Processor.push(). An interrupt pushes the address after it and goes
+//to the word the instruction before it left as its result, so that word is kept here too.
+public class FastEngine {
+
+    //Handler indexes as computed by DecodedInstruction (operation type * 4 + format)
+    static final int MATH_NO_REG = 0;
+    static final int MATH_DEST_ONLY = 1;
+    static final int MATH_TWO_REG = 2;
+    static final int MATH_THREE_REG = 3;
+    static final int BRANCH_NO_REG = 4;
+    static final int BRANCH_DEST_ONLY = 5;
+    static final int BRANCH_TWO_REG = 6;
+    static final int BRANCH_THREE_REG = 7;
+    static final int CALL_NO_REG = 8;
+    static final int CALL_DEST_ONLY = 9;
+    static final int CALL_TWO_REG = 10;
+    static final int CALL_THREE_REG = 11;
+    static final int PUSH_NO_REG = 12;
+    static final int PUSH_DEST_ONLY = 13;
+    static final int PUSH_TWO_REG = 14;
+    static final int PUSH_THREE_REG = 15;
+    static final int LOAD_NO_REG = 16;
+    static final int LOAD_DEST_ONLY = 17;
+    static final int LOAD_TWO_REG = 18;
+    static final int LOAD_THREE_REG = 19;
+    static final int STORE_NO_REG = 20;
+    static final int STORE_DEST_ONLY = 21;
+    static final int STORE_TWO_REG = 22;
+    static final int STORE_THREE_REG = 23;
+    static final int POP_NO_REG = 24;
+    static final int POP_DEST_ONLY = 25;
+    static final int POP_TWO_REG = 26;
+    static final int POP_THREE_REG = 27;
+    static final int ATOMIC_NO_REG = 28;
+    static final int ATOMIC_DEST_ONLY = 29;
+    static final int ATOMIC_TWO_REG = 30;
+    static final int ATOMIC_THREE_REG = 31;
+
+    //Function codes of the atomic operations that are not ALU operations - any ALU operation code
+    //makes the atomic a fetch and operate (fetch and add, fetch and or...)
+    static final int COMPARE_AND_SWAP = 0b0001;
+    static final int SWAP = 0b0010;
+
+    //Memory the program runs in
+    final MainMemory memory;
+
+    //Counts every instruction run when not null, see Processor.setCounters()
+    PerformanceCounters counters;
+
+    //Samples the instructions run when not null, see Processor.setProfiler()
+    Profiler profiler;
+
+    //Runs common pairs of instructions as one when not null, see Processor.setFusion()
+    Fusion fusion;
+
+    //Machine state - copied in from and back out to the processor's words around run()
+    int[] registers;
+    int programCounter;
+    int stackPointer;
+    boolean halted;
+
+    //The result word of the reference engine: what the last instruction computed, loaded, stored or
+    //jumped to. Instructions without an operand (halt, fence, push and store without registers)
+    //leave it as it was
+    int result;
+
+    public FastEngine(MainMemory memory){
+        this.memory = memory;
+        registers = new int[32];
+    }
+
+    //Runs instructions until a halt
+    public void run(){
+        execute(Long.MAX_VALUE);
+    }
+
+    //Runs at most the given number of instructions, stopping early on a halt, and returns how many
+    //were run. The program counter and stack pointer are kept in locals for the duration of the
+    //loop and written back even if an instruction throws.
+    long execute(long limit){
+        int[] r = registers;
+        MainMemory memory = this.memory;
+        PerformanceCounters counters = this.counters;
+        Profiler profiler = this.profiler;
+        Fusion fusion = memory.fuses() ? this.fusion : null;
+        int pc = programCounter;
+        int sp = stackPointer;
+        int result = this.result;
+        int value;
+        long count = 0;
+        try {
+            while(!halted && count < limit){
+                count++;
+                int fetched = pc;
+                DecodedInstruction d = memory.decode(pc);
+                //A pair is only run when the limit leaves room for both of its instructions
+                if(fusion != null && count < limit){
+                    FusedInstruction pair = d.fused;
+                    if(pair == null){
+                        pair = memory.fuse(pc, d);
+                    }
+                    if(pair != FusedInstruction.NONE){
+                        count++;
+                        DecodedInstruction second = pair.second;
+                        pc += 2;
+                        //Neither instruction of a pair can throw, see FusedInstruction
+                        if(pair.kind == FusedInstruction.Kind.COPY_MATH){
+                            if(d.rd != 0) r[d.rd] = d.immediate;
+                            value = calculate(second.function, r[pair.second1], r[pair.second2]);
+                            if(second.rd != 0) r[second.rd] = value;
+                            result = value;
+                        }
+                        else{
+                            value = calculate(d.function, r[pair.first1], r[pair.first2]);
+                            if(d.rd != 0) r[d.rd] = value;
+                            if(compare(second.function, r[pair.second1], r[pair.second2])) pc += second.immediate;
+                            result = pc;
+                        }
+                        fusion.fired(pair);
+                        if(counters != null){
+                            counters.retire(d, fetched, fetched + 1);
+                            counters.retire(pair.second, fetched + 1, pc);
+                        }
+                        if(profiler != null){
+                            profiler.retire(d, fetched, fetched + 1, sp);
+                            profiler.retire(pair.second, fetched + 1, pc, sp);
+                        }
+                        continue;
+                    }
+                }
+                pc++;
+                switch(d.handler){
+                    //Halt is opcode 00000, any other math instruction without registers does nothing
+                    case MATH_NO_REG -> {
+                        if(d.opcode == 0) halted = true;
+                    }
+                    case MATH_DEST_ONLY -> {
+                        result = d.immediate;
+                        if(d.rd != 0) r[d.rd] = result;
+                    }
+                    case MATH_TWO_REG -> {
+                        result = calculate(d.function, r[d.rd], r[d.rs1]);
+                        if(d.rd != 0) r[d.rd] = result;
+                    }
+                    case MATH_THREE_REG -> {
+                        result = calculate(d.function, r[d.rs1], r[d.rs2]);
+                        if(d.rd != 0) r[d.rd] = result;
+                    }
+
+                    //Branches leave where they went as the result, taken or not
+                    case BRANCH_NO_REG -> result = pc = d.immediate;
+                    case BRANCH_DEST_ONLY -> result = pc += d.immediate;
+                    case BRANCH_TWO_REG -> {
+                        if(compare(d.function, r[d.rs1], r[d.rd])) pc += d.immediate;
+                        result = pc;
+                    }
+                    case BRANCH_THREE_REG -> {
+                        if(compare(d.function, r[d.rs1], r[d.rs2])) pc += d.immediate;
+                        result = pc;
+                    }
+
+                    //The stack pointer is only decremented once the push has been written. Calls
+                    //without a condition have their target as the result before they push, as in
+                    //the reference engine, and conditional ones only once they pushed
+                    case CALL_NO_REG -> {
+                        result = d.immediate;
+                        memory.writeValue(sp, pc);
+                        sp--;
+                        pc = result;
+                    }
+                    case CALL_DEST_ONLY -> {
+                        result = r[d.rd] + d.immediate;
+                        memory.writeValue(sp, pc);
+                        sp--;
+                        pc = result;
+                    }
+                    case CALL_TWO_REG -> {
+                        if(compare(d.function, r[d.rs1], r[d.rd])){
+                            memory.writeValue(sp, pc);
+                            sp--;
+                            pc += d.immediate;
+                        }
+                        result = pc;
+                    }
+                    case CALL_THREE_REG -> {
+                        if(compare(d.function, r[d.rs1], r[d.rs2])){
+                            memory.writeValue(sp, pc);
+                            sp--;
+                            pc = r[d.rd] + d.immediate;
+                        }
+                        result = pc;
+                    }
+
+                    case PUSH_NO_REG -> {}
+                    case PUSH_DEST_ONLY -> {
+                        result = calculate(d.function, r[d.rd], d.immediate);
+                        memory.writeValue(sp, result);
+                        sp--;
+                    }
+                    case PUSH_TWO_REG -> {
+                        result = calculate(d.function, r[d.rd], r[d.rs1]);
+                        memory.writeValue(sp, result);
+                        sp--;
+                    }
+                    case PUSH_THREE_REG -> {
+                        result = calculate(d.function, r[d.rs1], r[d.rs2]);
+                        memory.writeValue(sp, result);
+                        sp--;
+                    }
+
+                    //Return pops the program counter off the stack
+                    case LOAD_NO_REG -> {
+                        pc = result = memory.readValue(++sp);
+                        memory.writeValue(sp, 0);
+                    }
+                    case LOAD_DEST_ONLY -> {
+                        result = memory.readValue(r[d.rd] + d.immediate);
+                        if(d.rd != 0) r[d.rd] = result;
+                    }
+                    case LOAD_TWO_REG -> {
+                        result = memory.readValue(r[d.rs1] + d.immediate);
+                        if(d.rd != 0) r[d.rd] = result;
+                    }
+                    case LOAD_THREE_REG -> {
+                        result = memory.readValue(r[d.rs1] + r[d.rs2]);
+                        if(d.rd != 0) r[d.rd] = result;
+                    }
+
+                    //The word stored is the result, even if the write fails
+                    case STORE_NO_REG -> {}
+                    case STORE_DEST_ONLY -> memory.writeValue(r[d.rd], result = d.immediate);
+                    case STORE_TWO_REG -> memory.writeValue(r[d.rd] + d.immediate, result = r[d.rs1]);
+                    case STORE_THREE_REG -> memory.writeValue(r[d.rs1] + r[d.rd], result = r[d.rs2]);
+
+                    //Interrupt: pushes the address after it and goes to the result of the instruction
+                    //before it
+                    case POP_NO_REG -> {
+                        memory.writeValue(sp, pc);
+                        sp--;
+                        pc = result;
+                    }
+                    //Pop and peek may write register 0, matching the reference engine
+                    case POP_DEST_ONLY -> {
+                        r[d.rd] = result = memory.readValue(++sp);
+                        memory.writeValue(sp, 0);
+                    }
+                    case POP_TWO_REG -> r[d.rd] = result = memory.readValue(sp + r[d.rs1] + d.immediate);
+                    case POP_THREE_REG -> r[d.rd] = result = memory.readValue(sp + r[d.rs1] + r[d.rs2]);
+
+                    //Atomics: the last register (or the immediate alone) gives the address, and rd
+                    //gets the word it held
+                    case ATOMIC_NO_REG -> memory.fence();
+                    case ATOMIC_DEST_ONLY -> {
+                        result = atomic(memory, d.function, d.immediate, r[d.rd], r[d.rd]);
+                        if(d.rd != 0) r[d.rd] = result;
+                    }
+                    case ATOMIC_TWO_REG -> {
+                        result = atomic(memory, d.function, r[d.rs1] + d.immediate, r[d.rd], r[d.rd]);
+                        if(d.rd != 0) r[d.rd] = result;
+                    }
+                    case ATOMIC_THREE_REG -> {
+                        result = atomic(memory, d.function, r[d.rs1] + d.immediate, r[d.rs2], r[d.rd]);
+                        if(d.rd != 0) r[d.rd] = result;
+                    }
+                }
+                if(counters != null){
+                    counters.retire(d, fetched, pc);
+                }
+                if(profiler != null){
+                    profiler.retire(d, fetched, pc, sp);
+                }
+            }
+        } finally {
+            programCounter = pc;
+            stackPointer = sp;
+            this.result = result;
+        }
+        return count;
+    }
+
+    //Performs the atomic operation with the given function code on the word at the given address
+    //and returns the word it held. Compare and swap writes operand if the word equals expected, swap
+    //writes operand, and an ALU operation writes the result of it on the word and operand. ALU
+    //operations other than add retry a compare and swap until no other core wrote in between
+    static int atomic(MainMemory memory, int function, int address, int operand, int expected){
+        switch(function){
+            case COMPARE_AND_SWAP: return memory.compareAndExchange(address, expected, operand);
+            case SWAP: return memory.getAndSet(address, operand);
+            case ALU.ADD: return memory.getAndAdd(address, operand);
+            default:
+                int old = memory.readValue(address);
+                while(true){
+                    int witness = memory.compareAndExchange(address, old, calculate(function, old, operand));
+                    if(witness == old){
+                        return old;
+                    }
+                    old = witness;
+                }
+        }
+    }
+
+    //Performs the ALU operation with the given 4 bit code on two ints - see ALU for the codes. Gives
+    //the same results as the gate level ALU, including shifting by the last 6 bits of op2.
+    static int calculate(int operation, int op1, int op2){
+        switch(operation){
+            case ALU.AND: return op1 & op2;
+            case ALU.OR: return op1 | op2;
+            case ALU.XOR: return op1 ^ op2;
+            case ALU.NOT: return ~op1;
+            case ALU.LEFT_SHIFT: return (op2 & 0x3F) >= 32 ? 0 : op1 << op2;
+            case ALU.RIGHT_SHIFT: return (op2 & 0x3F) >= 32 ? 0 : op1 >>> op2;
+            case ALU.ADD: return op1 + op2;
+            case ALU.SUBTRACT: return op1 - op2;
+            case ALU.MULTIPLY: return op1 * op2;
+            default: throw new IllegalArgumentException("Provided operation does not exist");
+        }
+    }
+
+    //Whether calculate() has an operation with the given 4 bit code: multiply, or AND and above
+    static boolean hasOperation(int operation){
+        return operation == ALU.MULTIPLY || operation >= ALU.AND;
+    }
+
+    //Performs the boolean operation with the given 4 bit code, giving the same results as the
+    //reference engine's bop(), which compares through the sign and bits of an ALU subtraction
+    static boolean compare(int operation, int op1, int op2){
+        int difference;
+        switch(operation){
+            //Equal
+            case 0b0000: return op1 - op2 == 0;
+            //Not equal
+            case 0b0001: return op1 - op2 != 0;
+            //Less than
+            case 0b0010: return op1 - op2 < 0;
+            //Greater than or equal: negative reversed subtraction, or otherwise any 0 bit in it
+            case 0b0011:
+                difference = op2 - op1;
+                return difference < 0 || difference != -1;
+            //Greater than
+            case 0b0100: return op2 - op1 < 0;
+            //Less than or equal: negative subtraction, or otherwise any 0 bit in it
+            case 0b0101:
+                difference = op1 - op2;
+                return difference < 0 || difference != -1;
+            default: return false;
+        }
+    }
+}
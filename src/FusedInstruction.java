@@ -0,0 +1,85 @@
+//Two instructions next to each other that FastEngine runs as one, a superinstruction. The pair is
+//made the first time the first instruction is fetched while fusing (see MainMemory.fuse()) and
+//kept with its decoded form, and dropped whenever either address is written. Execution that lands
+//on the second address of a pair simply runs the pair (or single instruction) starting there
+//instead, so the state is the same as running the two one at a time wherever a branch goes.
+//
+//Only pairs that cannot throw are fused: math instructions with an ALU operation, followed by
+//another math instruction or a conditional branch. Neither changes memory or the stack pointer.
+public class FusedInstruction {
+
+    //The kinds of pair that are fused
+    public enum Kind {
+        //A copy (math with only a destination) and then a math operation, such as copy and add
+        COPY_MATH,
+        //A math operation and then a conditional branch on anything but its result
+        COMPARE_BRANCH,
+        //An add or subtract and then a conditional branch on its result, as in a counted loop
+        DECREMENT_BRANCH
+    }
+
+    //Stands for a pair that is not fused, so MainMemory can tell it from one not yet looked at
+    static final FusedInstruction NONE = new FusedInstruction(null, DecodedInstruction.decode(0),
+            DecodedInstruction.decode(0));
+
+    final Kind kind;
+    final DecodedInstruction first;
+    final DecodedInstruction second;
+
+    //Registers holding the two operands of the first instruction and of the second, in the order
+    //FastEngine.calculate() and compare() take them - unused for a copy
+    final int first1;
+    final int first2;
+    final int second1;
+    final int second2;
+
+    private FusedInstruction(Kind kind, DecodedInstruction first, DecodedInstruction second){
+        this.kind = kind;
+        this.first = first;
+        this.second = second;
+        first1 = operand1(first);
+        first2 = operand2(first);
+        second1 = operand1(second);
+        second2 = operand2(second);
+    }
+
+    //Returns the two instructions as a pair, or null if they are not a kind that is fused
+    static FusedInstruction fuse(DecodedInstruction first, DecodedInstruction second){
+        if(first.handler == FastEngine.MATH_DEST_ONLY){
+            return isMath(second) ? new FusedInstruction(Kind.COPY_MATH, first, second) : null;
+        }
+        if(!isMath(first) || !isBranch(second)){
+            return null;
+        }
+        //The branch compares the register the add or subtract just wrote
+        boolean counted = (first.function == ALU.ADD || first.function == ALU.SUBTRACT) && first.rd != 0
+                && (operand1(second) == first.rd || operand2(second) == first.rd);
+        return new FusedInstruction(counted ? Kind.DECREMENT_BRANCH : Kind.COMPARE_BRANCH, first, second);
+    }
+
+    //Whether the instruction is math on registers with an ALU operation, the only math
+    //FastEngine.calculate() does not throw on
+    private static boolean isMath(DecodedInstruction d){
+        return (d.handler == FastEngine.MATH_TWO_REG || d.handler == FastEngine.MATH_THREE_REG)
+                && FastEngine.hasOperation(d.function);
+    }
+
+    private static boolean isBranch(DecodedInstruction d){
+        return d.handler == FastEngine.BRANCH_TWO_REG || d.handler == FastEngine.BRANCH_THREE_REG;
+    }
+
+    //The register of the first operand: rd for two register math, rs1 otherwise
+    private static int operand1(DecodedInstruction d){
+        return d.handler == FastEngine.MATH_TWO_REG ? d.rd : d.rs1;
+    }
+
+    //The register of the second operand: rs1 for two register math, rd for a two register branch
+    //and rs2 otherwise
+    private static int operand2(DecodedInstruction d){
+        switch(d.handler){
+            case FastEngine.MATH_TWO_REG: return d.rs1;
+            case FastEngine.BRANCH_TWO_REG: return d.rd;
+            default: return d.rs2;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//Superinstructions for the fast and JIT engines, given to a processor with Processor.setFusion().
+//While set, common pairs of instructions (see FusedInstruction for which) are fetched, dispatched
+//and run as one, and each pair that ran is counted here by its kind. The pairs are made the first
+//time their address is fetched and kept with the decoded instructions, so a write to either half
+//unfuses them. A branch to the second instruction of a pair runs from there as usual, and a pair is
+//only run when the limit on instructions to run leaves room for both, so the state between
+//instructions stays exact. Performance counters and profilers still see every instruction of a pair
+//on its own.
+//
+//Nothing is fused when stepping one instruction at a time (such as tracing every cycle), through
+//a CachedMemory or QuantumMemory, which fetch instructions themselves, or by the cores of a
+//MultiProcessor. The JIT engine only fuses what it interprets, since compiled blocks already run as
+//one.
+public class Fusion {
+
+    //Pairs run per kind
+    private final long[] fired = new long[FusedInstruction.Kind.values().length];
+
+    //Counts a pair that has been run
+    void fired(FusedInstruction pair){
+        fired[pair.kind.ordinal()]++;
+    }
+
+    //Returns the number of pairs of the given kind run so far
+    public long getFired(FusedInstruction.Kind kind){
+        return fired[kind.ordinal()];
+    }
+
+    //Returns the number of pairs of every kind run so far
+    public long getFired(){
+        long count = 0;
+        for(long kind : fired){
+            count += kind;
+        }
+        return count;
+    }
+
+    //Returns the pairs run of each kind
+    public Map<String, Long> getCounts(){
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for(FusedInstruction.Kind kind : FusedInstruction.Kind.values()){
+            counts.put(kind.name(), getFired(kind));
+        }
+        return counts;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("Fusion: %d pairs (%d instructions) run fused, %s by kind", getFired(), 2 * getFired(),
+                getCounts());
+    }
+}
@@ -0,0 +1,47 @@
+//Predicts each branch from a two bit saturating counter (see BimodalPredictor) picked by its address
+//exclusive or'd with the outcomes of the last few branches, so a branch that goes differently
+//depending on the branches before it (such as the last iteration of a short inner loop) gets a
+//counter for each of those paths
+public class GsharePredictor implements BranchPredictor {
+
+    public static final int DEFAULT_ENTRIES = 4096;
+    public static final int DEFAULT_HISTORY = 12;
+
+    private final byte[] counters;
+    private final int mask;
+    private final int historyMask;
+
+    //Outcomes of the most recent branches, the latest in the lowest bit
+    private int history;
+
+    public GsharePredictor(){
+        this(DEFAULT_ENTRIES, DEFAULT_HISTORY);
+    }
+
+    //Creates a predictor with the given number of counters, a power of two, remembering the given
+    //number of outcomes (at most 31)
+    public GsharePredictor(int entries, int historyBits){
+        if(historyBits < 0 || historyBits > 31){
+            throw new IllegalArgumentException("The history must be between 0 and 31 branches");
+        }
+        counters = BimodalPredictor.counters(entries);
+        mask = entries - 1;
+        historyMask = (int)((1L << historyBits) - 1);
+    }
+
+    @Override
+    public boolean predict(int pc){
+        return counters[(pc ^ history) & mask] >= 2;
+    }
+
+    @Override
+    public void update(int pc, boolean taken){
+        BimodalPredictor.train(counters, (pc ^ history) & mask, taken);
+        history = ((history << 1) | (taken ? 1 : 0)) & historyMask;
+    }
+
+    @Override
+    public String toString(){
+        return "gshare (" + counters.length + " entries, " + Integer.bitCount(historyMask) + " bits of history)";
+    }
+}
@@ -0,0 +1,62 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+//Flight recorder event committed by PerformanceCounters at the end of every interval of
+//instructions, spanning the wall time of the interval and holding what was retired during it. It is
+//only built up when a recording has the event enabled
+@Name("processor.InstructionInterval")
+@Label("Guest Instruction Interval")
+@Category("Virtual Processor")
+@Description("Instructions retired by a guest processor over one interval")
+@StackTrace(false)
+class InstructionIntervalEvent extends Event {
+
+    @Label("Counters")
+    String counters;
+
+    @Label("Instructions")
+    long instructions;
+
+    @Label("Instructions Per Second")
+    double instructionsPerSecond;
+
+    @Label("Math")
+    long math;
+
+    @Label("Branch")
+    long branch;
+
+    @Label("Call")
+    long call;
+
+    @Label("Push")
+    long push;
+
+    @Label("Load")
+    long load;
+
+    @Label("Store")
+    long store;
+
+    @Label("Pop")
+    long pop;
+
+    @Label("Atomic")
+    long atomic;
+
+    @Label("Taken Branches")
+    long takenBranches;
+
+    @Label("Memory Reads")
+    long memoryReads;
+
+    @Label("Memory Writes")
+    long memoryWrites;
+
+    @Label("Stack Depth")
+    long stackDepth;
+}
@@ -0,0 +1,3 @@
+public enum InstructionType {
+        NO_REG, DEST_ONLY, TWO_REG, THREE_REG
+}
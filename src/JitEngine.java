@@ -0,0 +1,329 @@
+import java.util.Arrays;
+
+//Execution engine for ExecutionMode.JIT. Code is run a basic block at a time: cold blocks are
+//interpreted by FastEngine, and once a block has been entered HOT_THRESHOLD times it is compiled by
+//BlockCompiler into a hidden JVM class so HotSpot can optimize the guest code directly. A write
+//that replaces an instruction which has been fetched throws away the compiled blocks holding that
+//instruction, and a block that cannot be compiled simply stays interpreted.
+public class JitEngine extends FastEngine {
+
+    //Number of times a block has to be entered before it is compiled
+    static final int HOT_THRESHOLD = 50;
+
+    //Blocks are only tracked for addresses below this, so the tables below stay small when memory is
+    //large - code above it is always interpreted
+    static final int MAX_TRACKED = 1 << 20;
+
+    //Per start address: the compiled block, the number of instructions in the block (0 if not yet
+    //scanned), and how often it has been entered
+    private CompiledBlock[] compiled;
+    private int[] blockLength;
+    private int[] entries;
+
+    //The instructions each compiled block was compiled from, for PerformanceCounters and to tell
+    //when one of them has been replaced
+    private DecodedInstruction[][] code;
+
+    //Start addresses of the compiled blocks
+    private int[] starts = new int[16];
+    private int blocks;
+
+    //memory.codeVersion() when the compiled blocks were last checked against memory
+    private int version;
+
+    //Thrown from a write inside a compiled block that replaced an instruction, so the rest of the
+    //block is not run with stale code
+    private final SelfModifiedCode selfModified = new SelfModifiedCode();
+
+    public JitEngine(MainMemory memory){
+        super(memory);
+        flush();
+    }
+
+    //Runs blocks until a halt, compiling the hot ones. In a CachedMemory everything is interpreted,
+    //since compiled blocks do not fetch the instructions they run, and so it is while profiling,
+    //since the profiler follows the stack pointer after every instruction
+    @Override
+    public void run(){
+        if(memory instanceof CachedMemory || profiler != null){
+            super.run();
+            return;
+        }
+        while(!halted){
+            if(memory.codeVersion() != version){
+                invalidate();
+            }
+            int pc = programCounter;
+            //Addresses outside of the tables (or memory) are left to the interpreter
+            if(pc < 0 || pc >= compiled.length){
+                execute(1);
+                continue;
+            }
+
+            CompiledBlock block = compiled[pc];
+            if(block == null && entries[pc] >= 0 && ++entries[pc] >= HOT_THRESHOLD){
+                block = compile(pc);
+            }
+            if(block != null){
+                try {
+                    programCounter = block.execute(registers, this);
+                    if(counters != null){
+                        retired(pc, pc + blockLength[pc], programCounter);
+                    }
+                } catch (SelfModifiedCode e) {
+                    programCounter = e.resume;
+                    if(counters != null){
+                        retired(pc, e.resume, e.resume);
+                    }
+                } catch (RuntimeException e) {
+                    //The helper that failed left the address after the failed instruction
+                    if(counters != null && programCounter > pc && programCounter <= pc + blockLength[pc]){
+                        retired(pc, programCounter - 1, programCounter - 1);
+                    }
+                    throw e;
+                }
+                continue;
+            }
+
+            if(blockLength[pc] == 0){
+                blockLength[pc] = Math.max(1, BlockCompiler.blockLength(memory, pc));
+            }
+            execute(blockLength[pc]);
+        }
+    }
+
+    //Compiles the block starting at the given address, marking it as never to be compiled again if
+    //the compiler cannot handle it
+    private CompiledBlock compile(int pc){
+        int length = BlockCompiler.blockLength(memory, pc);
+        CompiledBlock block = length == 0 ? null : BlockCompiler.compile(memory, pc, length);
+        if(block == null){
+            entries[pc] = -1;
+            return null;
+        }
+        compiled[pc] = block;
+        blockLength[pc] = length;
+        code[pc] = new DecodedInstruction[length];
+        for(int i = 0; i<length; i++){
+            code[pc][i] = memory.decode(pc + i);
+        }
+        if(blocks == starts.length){
+            starts = Arrays.copyOf(starts, blocks * 2);
+        }
+        starts[blocks++] = pc;
+        return block;
+    }
+
+    //Counts the instructions of a compiled block from start up to end, which ran one after another
+    //with the last one going on to next. They are counted as compiled, since the block may have
+    //written over some of them while running
+    private void retired(int start, int end, int next){
+        DecodedInstruction[] instructions = code[start];
+        for(int address = start; address<end; address++){
+            counters.retire(instructions[address - start], address, address + 1 == end ? next : address + 1);
+        }
+    }
+
+    //Throws away every compiled block and all block information
+    private void flush(){
+        int size = (int)Math.min(memory.size(), MAX_TRACKED);
+        compiled = new CompiledBlock[size];
+        code = new DecodedInstruction[size][];
+        blockLength = new int[size];
+        entries = new int[size];
+        blocks = 0;
+        version = memory.codeVersion();
+    }
+
+    //Throws away the compiled blocks holding an instruction that has been written since it was
+    //compiled. A write drops the decoded instruction memory keeps for its address, so those are the
+    //blocks whose instructions are no longer the ones memory decodes. The work is in the size of the
+    //compiled code rather than of memory, and everything else is kept. Memory of another size (such
+    //as a restored snapshot) throws away everything
+    private void invalidate(){
+        if(compiled.length != (int)Math.min(memory.size(), MAX_TRACKED)){
+            flush();
+            return;
+        }
+        //Read first, so a write made during the check is seen on the next one
+        version = memory.codeVersion();
+        int kept = 0;
+        for(int i = 0; i<blocks; i++){
+            int start = starts[i];
+            if(unchanged(start)){
+                starts[kept++] = start;
+            }
+            else{
+                compiled[start] = null;
+                code[start] = null;
+                blockLength[start] = 0;
+                entries[start] = 0;
+            }
+        }
+        blocks = kept;
+    }
+
+    //Whether memory still decodes the instructions the block at the given address was compiled from
+    private boolean unchanged(int start){
+        DecodedInstruction[] instructions = code[start];
+        for(int i = 0; i<instructions.length; i++){
+            if(memory.decode(start + i) != instructions[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //The following helpers are called from compiled blocks. Each one takes the address of the next
+    //instruction, which becomes the program counter if the memory access fails, so faults leave the
+    //same state as the interpreter would. They also leave the result an interrupt goes to the way
+    //the interpreter does.
+
+    //Leaves the given value as the result and returns it
+    static int result(JitEngine engine, int value){
+        engine.result = value;
+        return value;
+    }
+
+    //Reads a word of memory, which is the result
+    static int read(JitEngine engine, int address, int pc){
+        try {
+            engine.result = engine.memory.readValue(address);
+            return engine.result;
+        } catch (RuntimeException e) {
+            engine.programCounter = pc;
+            throw e;
+        }
+    }
+
+    //Reads a word at the given offset from the stack pointer (peek)
+    static int peek(JitEngine engine, int offset, int pc){
+        return read(engine, engine.stackPointer + offset, pc);
+    }
+
+    //Writes a word of memory, leaving the block if the write replaced an instruction. The word is
+    //the result even if the write fails
+    static void write(JitEngine engine, int address, int value, int pc){
+        engine.result = value;
+        store(engine, address, value, pc);
+        check(engine, pc);
+    }
+
+    //Pushes a word onto the stack, which is the result even if the push fails
+    static void push(JitEngine engine, int value, int pc){
+        engine.result = value;
+        store(engine, engine.stackPointer, value, pc);
+        engine.stackPointer--;
+        check(engine, pc);
+    }
+
+    //Pops a word off the stack into the given register, clearing its slot
+    static void pop(JitEngine engine, int[] registers, int rd, int pc){
+        engine.stackPointer++;
+        registers[rd] = read(engine, engine.stackPointer, pc);
+        store(engine, engine.stackPointer, 0, pc);
+        check(engine, pc);
+    }
+
+    //Performs an atomic operation (see FastEngine.atomic()), putting the word it held in register rd
+    //unless that is register 0
+    static void atomic(JitEngine engine, int[] registers, int rd, int function, int address, int operand,
+                       int expected, int pc){
+        int value;
+        try {
+            value = FastEngine.atomic(engine.memory, function, address, operand, expected);
+        } catch (RuntimeException e) {
+            engine.programCounter = pc;
+            throw e;
+        }
+        engine.result = value;
+        if(rd != 0){
+            registers[rd] = value;
+        }
+        check(engine, pc);
+    }
+
+    static void fence(JitEngine engine){
+        engine.memory.fence();
+    }
+
+    //Writes a word of memory without checking for replaced instructions
+    private static void store(JitEngine engine, int address, int value, int pc){
+        try {
+            engine.memory.writeValue(address, value);
+        } catch (RuntimeException e) {
+            engine.programCounter = pc;
+            throw e;
+        }
+    }
+
+    //Leaves the block, resuming at the given address, if a write replaced an instruction
+    private static void check(JitEngine engine, int pc){
+        if(engine.memory.codeVersion() != engine.version){
+            engine.selfModified.resume = pc;
+            throw engine.selfModified;
+        }
+    }
+
+    //The helpers below end a block, so they do not need to check for replaced instructions - run()
+    //does that before entering the next block
+
+    //Halts the processor and returns the address after the halt
+    static int halt(JitEngine engine, int pc){
+        engine.halted = true;
+        return pc;
+    }
+
+    //Picks the branch target if the boolean operation holds, otherwise the next instruction
+    static int branch(int function, int op1, int op2, int target, int pc){
+        return compare(function, op1, op2) ? target : pc;
+    }
+
+    //Pushes the return address and returns the call target, which is the result even if the push
+    //fails
+    static int call(JitEngine engine, int target, int pc){
+        engine.result = target;
+        store(engine, engine.stackPointer, pc, pc);
+        engine.stackPointer--;
+        return target;
+    }
+
+    //Calls the target if the boolean operation holds, otherwise continues to the next instruction.
+    //Where it went is the result, once the call has pushed
+    static int callIf(JitEngine engine, int function, int op1, int op2, int target, int pc){
+        if(compare(function, op1, op2)){
+            store(engine, engine.stackPointer, pc, pc);
+            engine.stackPointer--;
+            pc = target;
+        }
+        engine.result = pc;
+        return pc;
+    }
+
+    //Interrupts: pushes the address after the interrupt and goes to the result of the instruction
+    //before it
+    static int interrupt(JitEngine engine, int pc){
+        store(engine, engine.stackPointer, pc, pc);
+        engine.stackPointer--;
+        return engine.result;
+    }
+
+    //Pops the return address off the stack
+    static int ret(JitEngine engine, int pc){
+        engine.stackPointer++;
+        int value = read(engine, engine.stackPointer, pc);
+        store(engine, engine.stackPointer, 0, pc);
+        return value;
+    }
+
+    //Carries the address to resume at after a compiled block replaced one of its own instructions
+    private static class SelfModifiedCode extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        int resume;
+
+        SelfModifiedCode(){
+            super(null, null, false, false);
+        }
+    }
+}
@@ -1,74 +1,150 @@
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.HashMap;
+import java.util.NoSuchElementException;
 
-//This class analyzes the String that gets passed to it and breaks it down into
-//a list of Tokens (see more in the Token class), and throws an exception if 
-//it encounters an unknown character or incorrect number format
-public class Lexer {
-    private StringHandler handler;
+//This class analyzes the source that gets passed to it and breaks it down into
+//Tokens (see more in the Token class), and throws an exception if
+//it encounters an unknown character or incorrect number format. The source is
+//read through a small buffer and tokens are handed out one at a time as an
+//Iterator, so a Parser can consume them as they are made and memory stays flat
+//no matter how long the program is; lex() collects them all into a list instead.
+//All of a Lexer's state is its own and the key word table never changes, so any
+//number of Lexers can run at once on different threads (each Lexer on one thread)
+public class Lexer implements Iterator<Token> {
+    private final SourceHandler handler;
     private int lineNum;
     private int charPos;
 
-    // These hash maps allow for quick look ups to see whether a key word
-    // or symbol has a defined type
-    private static HashMap<String, TokenType> keyWords;
+    // The next token, read by hasNext() ahead of next()
+    private Token next;
 
-    public Lexer(String content) throws IOException {
+    // The key words and the type of each one, at the same index. They are
+    // looked up straight from the characters of a word through KEY_WORD_TABLE,
+    // so no String is built for a word
+    private static final String[] KEY_WORDS = {
+            "math", "add", "sub", "mult", "and", "or", "not", "xor", "copy", "halt", "branch",
+            "jump", "call", "push", "load", "return", "store", "peek", "pop", "intr", "equal",
+            "unequal", "greater", "less", "gequal", "lequal", "shift", "left", "right", "atomic",
+            "cas", "swap", "fence"
+    };
+    private static final TokenType[] KEY_WORD_TYPES = {
+            TokenType.MATH, TokenType.ADD, TokenType.SUBTRACT, TokenType.MULTIPLY, TokenType.AND,
+            TokenType.OR, TokenType.NOT, TokenType.XOR, TokenType.COPY, TokenType.HALT,
+            TokenType.BRANCH, TokenType.JUMP, TokenType.CALL, TokenType.PUSH, TokenType.LOAD,
+            TokenType.RETURN, TokenType.STORE, TokenType.PEEK, TokenType.POP, TokenType.INTERRUPT,
+            TokenType.EQUAL, TokenType.UNEQUAL, TokenType.GREATER, TokenType.LESS, TokenType.GEQUAL,
+            TokenType.LEQUAL, TokenType.SHIFT, TokenType.LEFT, TokenType.RIGHT, TokenType.ATOMIC,
+            TokenType.CAS, TokenType.SWAP, TokenType.FENCE
+    };
+    private static final int MAX_KEY_WORD = 7;
+
+    // Open addressing hash table holding the index of each key word plus one (0 is an empty slot),
+    // hashed the same way as String.hashCode(). It is only written while the class is initialized,
+    // which makes it safe to read from every thread afterwards
+    private static final int[] KEY_WORD_TABLE = new int[64];
+
+    static {
+        for (int i = 0; i < KEY_WORDS.length; i++) {
+            int slot = KEY_WORDS[i].hashCode() & (KEY_WORD_TABLE.length - 1);
+            while (KEY_WORD_TABLE[slot] != 0) {
+                slot = (slot + 1) & (KEY_WORD_TABLE.length - 1);
+            }
+            KEY_WORD_TABLE[slot] = i + 1;
+        }
+    }
+
+    // Characters of the word being processed, only as many as the longest key word
+    private final char[] word = new char[MAX_KEY_WORD];
+
+    // Lexes the given characters, such as a String, without copying them
+    public Lexer(CharSequence content) throws IOException {
+        this(new SourceHandler(content instanceof CharBuffer ? (CharBuffer)content : CharBuffer.wrap(content)));
+    }
+
+    // Lexes the characters read from the given reader, which is not closed
+    public Lexer(Reader source) throws IOException {
+        this(new SourceHandler(source));
+    }
+
+    // Lexes the bytes remaining in the given buffer, such as a memory mapped
+    // file, as ASCII characters. The buffer's position is left unchanged
+    public Lexer(ByteBuffer source) throws IOException {
+        this(new SourceHandler(source));
+    }
+
+    private Lexer(SourceHandler handler) {
         lineNum = 1;
         charPos = 1;
-        handler = new StringHandler(content);
-        keyWords = new HashMap<>();
-        populateHashMaps();
+        this.handler = handler;
+    }
+
+    // Returns the index of the key word made of the first length characters
+    // of word, given their String.hashCode(), or -1 if they are not a key word
+    private int findKeyWord(int length, int hash) {
+        if (length > MAX_KEY_WORD) {
+            return -1;
+        }
+        int slot = hash & (KEY_WORD_TABLE.length - 1);
+        while (KEY_WORD_TABLE[slot] != 0) {
+            String keyWord = KEY_WORDS[KEY_WORD_TABLE[slot] - 1];
+            if (keyWord.length() == length) {
+                int i = 0;
+                while (i < length && keyWord.charAt(i) == word[i]) {
+                    i++;
+                }
+                if (i == length) {
+                    return KEY_WORD_TABLE[slot] - 1;
+                }
+            }
+            slot = (slot + 1) & (KEY_WORD_TABLE.length - 1);
+        }
+        return -1;
     }
 
-    // Associates all the keys and values for the hash maps, used for quick lookup of key words when
-    // tokenizing the contents
-    private static void populateHashMaps() {
-        keyWords.put("math", TokenType.MATH);
-        keyWords.put("add", TokenType.ADD);
-        keyWords.put("sub", TokenType.SUBTRACT);
-        keyWords.put("mult", TokenType.MULTIPLY);
-        keyWords.put("and", TokenType.AND);
-        keyWords.put("or", TokenType.OR);
-        keyWords.put("not", TokenType.NOT);
-        keyWords.put("xor", TokenType.XOR);
-        keyWords.put("copy", TokenType.COPY);
-        keyWords.put("halt", TokenType.HALT);
-        keyWords.put("branch", TokenType.BRANCH);
-        keyWords.put("jump", TokenType.JUMP);
-        keyWords.put("call", TokenType.CALL);
-        keyWords.put("push", TokenType.PUSH);
-        keyWords.put("load", TokenType.LOAD);
-        keyWords.put("return", TokenType.RETURN);
-        keyWords.put("store", TokenType.STORE);
-        keyWords.put("peek", TokenType.PEEK);
-        keyWords.put("pop", TokenType.POP);
-        keyWords.put("intr", TokenType.INTERRUPT);
-        keyWords.put("equal", TokenType.EQUAL);
-        keyWords.put("unequal", TokenType.UNEQUAL);
-        keyWords.put("greater", TokenType.GREATER);
-        keyWords.put("less", TokenType.LESS);
-        keyWords.put("gequal", TokenType.GEQUAL);
-        keyWords.put("lequal", TokenType.LEQUAL);
-        keyWords.put("shift", TokenType.SHIFT);
-        keyWords.put("left", TokenType.LEFT);
-        keyWords.put("right", TokenType.RIGHT);
+    // Returns true if there is another token in the source
+    public boolean hasNext() {
+        if (next == null) {
+            next = nextToken();
+        }
+        return next != null;
     }
 
-    // The "main" method of the Lexer, this tokenizes the String that gets
-    // passed through the constructor and returns the list of tokens;
-    // assumes that a word starts with a letter and a number starts with a digit/'.'
+    // Returns the next token in the source. Tokens can also be handed to a
+    // callback as they are made with forEachRemaining()
+    public Token next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Token token = next;
+        next = null;
+        return token;
+    }
+
+    // Tokenizes the entire source and returns the list of tokens. Prefer passing
+    // the Lexer itself to a Parser, which does not keep every token in memory
     public LinkedList<Token> lex() throws IllegalArgumentException {
         LinkedList<Token> tokens = new LinkedList<Token>();
+        while (hasNext()) {
+            tokens.add(next());
+        }
+        return tokens;
+    }
 
-        // This loop runs until it reaches the end of the document
+    // The "main" method of the Lexer, this tokenizes the source up to the
+    // next token and returns it, or null at the end of the source;
+    // assumes that a word starts with a letter and a number starts with a digit/'.'
+    private Token nextToken() throws IllegalArgumentException {
+
+        // This loop runs until it reaches a token or the end of the document
         while (!handler.isDone()) {
 
             // nextChar allows us to analyze the char were at without
             // incrementing the handler index by using peek
             char thisChar = handler.peek(0);
-            Token symbol;
 
             if (thisChar == '#') {
                 processComment();
@@ -83,10 +159,11 @@ public class Lexer {
             // if this char is a new line, add a seperator token, increment the line number,
             // reset the position, and finally skip over the character
             else if (thisChar == '\n') {
-                tokens.add(new Token(TokenType.SEPERATOR, lineNum, charPos));
+                Token seperator = new Token(TokenType.SEPERATOR, lineNum, charPos);
                 lineNum++;
                 charPos = 0;
                 handler.swallow(1);
+                return seperator;
             }
 
             // if this char is a return carriage, then skip the character
@@ -96,17 +173,17 @@ public class Lexer {
 
             // if this char is an 'r' then tokenize a register location
             else if(thisChar=='r' && Character.isDigit(handler.peek(1))){
-                tokens.add(processRegister());
+                return processRegister();
             }
 
             // if this char is a letter, process the word and add it to the list
             else if (Character.isLetter(thisChar)) {
-                tokens.add(processWord());
+                return processWord();
             }
 
             // if this char is a number, process the number and add it to the list
             else if (Character.isDigit(thisChar) || thisChar=='-') {
-                tokens.add(processNumber());
+                return processNumber();
             }
 
             // if none of the above were true, this char is an unknown character
@@ -114,12 +191,13 @@ public class Lexer {
                 throw new IllegalArgumentException("Unknown character '" + thisChar + "' ; Line: " + lineNum + "; Position: " + charPos);
             }
         }
-        return tokens;
+        return null;
     }
 
     //Processes the characters associated with a register, associating the value in the token to the
     //index that the register lies (e.g. r1 will have a value of 1 inside the token)
     private Token processRegister() {
+        int position = charPos;
 
         if(handler.getChar() != 'r'){
             throw new IllegalArgumentException("Invalid token type");
@@ -129,54 +207,77 @@ public class Lexer {
         }
 
         //Gets the first digit of the index for the register
-        String num = handler.getChar() + "";
+        int num = Character.digit(handler.getChar(), 10);
+        charPos += 2;
 
         //If the next token is the end of file or a separator, return the current token
         if(handler.isDone() || handler.peek(0) == ' ' || handler.peek(0) == '\r' || handler.peek(0) == '\n'){
-            return new Token(TokenType.REGISTER, lineNum, charPos, num);
+            return new Token(TokenType.REGISTER, lineNum, position, num);
         }
         //If there is another digit in the register (e.g. r31 has two digits) then return that token
         //with the next digit added on
         else if(!handler.isDone() && Character.isDigit(handler.peek(0))){
-            return new Token(TokenType.REGISTER, lineNum, charPos, num + handler.getChar());
+            charPos++;
+            return new Token(TokenType.REGISTER, lineNum, position, num * 10 + Character.digit(handler.getChar(), 10));
         }
         throw new IllegalArgumentException("Invalid token type");
     }
 
-    // This method increments through a series of characters and
-    // adds them to a String in an attempt to form a word token.
+    // This method increments through a series of characters in an attempt
+    // to form a word token, keeping the characters (and their hash) only as
+    // long as they could still be a key word.
     // Assumes the first character is a letter
     private Token processWord() throws IllegalArgumentException {
-        String word = "";
+        int length = 0;
+        int hash = 0;
         int position = charPos;
 
-        // Adds a letter to the String if the handler is not at the end of the
+        // Adds a letter to the word if the handler is not at the end of the
         // document, and continues if the character is a digit, letter, or underscore
         while ((!handler.isDone() && (Character.isDigit(handler.peek(0)) || Character.isLetter(handler.peek(0))
                 || handler.peek(0) == '_'))) {
-            word += handler.getChar();
+            char c = handler.getChar();
+            if (length < MAX_KEY_WORD) {
+                word[length] = c;
+                hash = 31 * hash + c;
+            }
+            length++;
             charPos++;
         }
 
         // Checks if the word is actually a key word in AWK
-        if (keyWords.containsKey(word)) {
-            return new Token(keyWords.get(word), lineNum, position, word);
+        int keyWord = findKeyWord(length, hash);
+        if (keyWord >= 0) {
+            return new Token(KEY_WORD_TYPES[keyWord], lineNum, position, KEY_WORDS[keyWord]);
         }
         throw new IllegalArgumentException("Invalid token type");
     }
 
     // This method increments through a series of characters and
-    // adds them to a String in an attempt to form a number token.
-    // Assumes the first character is a digit.
+    // works out their value in an attempt to form a number token.
+    // Assumes the first character is a digit or '-'.
     private Token processNumber() {
-        String number = "";
         int position = charPos;
-        // Adds a number or '.' to the String as long as the handler isn't done and the
-        // character is either
-        // a digit or decimal
+        boolean negative = handler.peek(0) == '-';
+        boolean valid = true;
+        int digits = 0;
+        long number = 0;
+        if (negative) {
+            handler.swallow(1);
+            charPos++;
+        }
+        // Adds a digit to the number as long as the handler isn't done, a '.' or
+        // '-' is still read as part of the number but makes it invalid
         while (!handler.isDone() && (Character.isDigit(handler.peek(0)) || handler.peek(0) == '.' || handler.peek(0) == '-')) {
-            number += handler.getChar();
+            char c = handler.getChar();
             charPos++;
+            if (Character.isDigit(c)) {
+                number = Math.min(number * 10 + Character.digit(c, 10), 1L << 32);
+                digits++;
+            }
+            else {
+                valid = false;
+            }
         }
 
         // This condition checks if after the number is made we have encountered a
@@ -185,7 +286,14 @@ public class Lexer {
             throw new NumberFormatException("Number not valid; Line: " + lineNum + "; Position: " + charPos);
         }
 
-        return new Token(TokenType.NUMBER, lineNum, position, number);
+        // Only whole numbers that fit in an int are valid
+        if (negative) {
+            number = -number;
+        }
+        if (!valid || digits == 0 || number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Number not valid; Line: " + lineNum + "; Position: " + position);
+        }
+        return new Token(TokenType.NUMBER, lineNum, position, (int)number);
     }
 
     // This method swallows all characters from the position it is called
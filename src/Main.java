@@ -1,42 +1,422 @@
-
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.nio.file.Files;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 //Instructions: when running, please provide the name to the file where your code is located, such
-//as "code.txt", or run in debug mode, such as with "debug "copy r1 5"" to run instructions directly
+//as "code.txt", or run in debug mode, such as with "debug "copy r1 5"" to run instructions directly.
+//The options that can follow it are described in the README
 
 //Runs the processor on the given arguments, where arg[0] = the file path for the assembly code,
 //also includes a debugging option to allow for testing with a String for the code
 public class Main {
     public static void main(String args[]) throws Exception {
-        String code;
+        if (args[0].equals("convert")) {
+            ProgramImage.fromText(Paths.get(args[1])).write(Paths.get(args[2]));
+            return;
+        }
+        if (args[0].equals("batch")) {
+            runBatch(args);
+            return;
+        }
+        CharSequence code = null;
+        ByteBuffer source = null;
+        ProgramImage image = null;
+        Checkpoint resume = null;
         // This condition allows for simple input of a String without
         // the need for a file, intended for debugging
         if (args[0].equals("debug")) {
             code = args[1];
+        } else if (args[0].equals("resume")) {
+            resume = Checkpoint.read(Paths.get(args[1]));
+        } else if (ProgramImage.isImage(Paths.get(args[0]))) {
+            image = ProgramImage.map(Paths.get(args[0]));
         } else {
-            code = new String(Files.readAllBytes(Paths.get(args[0])));
-        }
-        //Tokenizes and parses the file/code and output to a file in the CWD named "output.txt"
-        Lexer lexer = new Lexer(code);
-        LinkedList<Token> tokens = lexer.lex();
-        Parser parser = new Parser(tokens);
-        parser.parse();
-
-        //Reads the list from the output file that the parser created
-        BufferedReader reader = new BufferedReader(new FileReader("output.txt"));
-        List<String> lines = reader.lines().toList();
-
-        //Loads the list into an array and loads it into memory and runs the processor on said
-        //instructions
-        String[] linesArray = lines.toArray(new String[0]);
-        MainMemory.load(linesArray);
-        Processor processor = new Processor();
-        processor.run();
+            //The source is assembled straight out of the mapped file
+            try (FileChannel channel = FileChannel.open(Paths.get(args[0]))) {
+                source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        long size = MainMemory.DEFAULT_SIZE;
+        MemoryBacking backing = MemoryBacking.HEAP;
+        TraceMode traceMode = TraceMode.FULL;
+        int traceInterval = 1;
+        String traceFile = null;
+        String output = null;
+        String imageOutput = null;
+        int cores = 1;
+        int quantum = 0;
+        long seed = 0;
+        int threads = 1;
+        ReplacementPolicy caches = null;
+        ExecutionMode mode = ExecutionMode.REFERENCE;
+        boolean pipelined = false;
+        String predictor = null;
+        int counters = 0;
+        String profile = null;
+        String flameGraph = null;
+        String checkpoint = null;
+        long every = 1_000_000;
+        boolean fuse = false;
+        int cosim = 0;
+        for(int i = args[0].equals("debug") || args[0].equals("resume") ? 2 : 1; i<args.length; i++){
+            if(args[i].equals("direct")){
+                backing = MemoryBacking.DIRECT;
+            }
+            else if(args[i].startsWith("trace=")){
+                String trace = args[i].substring(6);
+                if(trace.equals("off")){
+                    traceMode = TraceMode.OFF;
+                }
+                else if(trace.equals("change")){
+                    traceMode = TraceMode.ON_CHANGE;
+                }
+                else if(!trace.equals("full")){
+                    traceMode = TraceMode.EVERY_N;
+                    traceInterval = Integer.parseInt(trace);
+                }
+            }
+            else if(args[i].startsWith("tracefile=")){
+                traceFile = args[i].substring(10);
+            }
+            else if(args[i].startsWith("output=")){
+                output = args[i].substring(7);
+            }
+            else if(args[i].startsWith("image=")){
+                imageOutput = args[i].substring(6);
+            }
+            else if(args[i].startsWith("cores=")){
+                cores = Integer.parseInt(args[i].substring(6));
+            }
+            else if(args[i].startsWith("quantum=")){
+                quantum = Integer.parseInt(args[i].substring(8));
+            }
+            else if(args[i].startsWith("seed=")){
+                seed = Long.parseLong(args[i].substring(5));
+            }
+            else if(args[i].startsWith("threads=")){
+                threads = Integer.parseInt(args[i].substring(8));
+            }
+            else if(args[i].equals("pipeline")){
+                pipelined = true;
+            }
+            else if(args[i].startsWith("predictor=")){
+                predictor = args[i].substring(10);
+                pipelined = true;
+            }
+            else if(args[i].equals("counters")){
+                counters = PerformanceCounters.DEFAULT_INTERVAL;
+            }
+            else if(args[i].startsWith("counters=")){
+                counters = Integer.parseInt(args[i].substring(9));
+            }
+            else if(args[i].equals("profile")){
+                profile = Integer.toString(Profiler.DEFAULT_PERIOD);
+            }
+            else if(args[i].startsWith("profile=")){
+                profile = args[i].substring(8);
+            }
+            else if(args[i].startsWith("flamegraph=")){
+                flameGraph = args[i].substring(11);
+                if(profile == null){
+                    profile = Integer.toString(Profiler.DEFAULT_PERIOD);
+                }
+            }
+            else if(args[i].startsWith("checkpoint=")){
+                checkpoint = args[i].substring(11);
+            }
+            else if(args[i].startsWith("every=")){
+                every = Long.parseLong(args[i].substring(6));
+            }
+            else if(args[i].equals("fuse")){
+                fuse = true;
+            }
+            else if(args[i].equals("cosim")){
+                cosim = 1;
+            }
+            else if(args[i].startsWith("cosim=")){
+                cosim = Integer.parseInt(args[i].substring(6));
+            }
+            else if(args[i].equals("caches")){
+                caches = ReplacementPolicy.LRU;
+            }
+            else if(args[i].startsWith("caches=")){
+                caches = ReplacementPolicy.valueOf(args[i].substring(7).toUpperCase());
+            }
+            else{
+                size = size(args[i]);
+            }
+        }
+
+        //Options that only work on a single core, or on an engine that another option replaces
+        if(cores > 1 || quantum > 0){
+            String multiple = cores > 1 ? "cores=" : "quantum=";
+            exclude(caches != null, "caches", multiple);
+            exclude(predictor != null, "predictor=", multiple);
+            exclude(profile != null, "profile", multiple);
+            exclude(checkpoint != null, "checkpoint=", multiple);
+            exclude(fuse, "fuse", multiple);
+            exclude(cosim > 0, "cosim", multiple);
+        }
+        if(cosim > 0){
+            exclude(caches != null, "caches", "cosim");
+            exclude(pipelined, "pipeline", "cosim");
+            exclude(counters > 0, "counters", "cosim");
+            exclude(profile != null, "profile", "cosim");
+            exclude(checkpoint != null, "checkpoint=", "cosim");
+        }
+        exclude(fuse && pipelined, "fuse", "pipeline");
+        exclude(fuse && caches != null, "fuse", "caches");
+        if(pipelined){
+            mode = ExecutionMode.PIPELINED;
+        }
+        else if(fuse){
+            mode = ExecutionMode.FAST;
+        }
+
+        //Tokenizes and parses the file/code into a program image, along with the source lines
+        if(image == null && resume == null){
+            image = source != null ? Assembler.assembleImage(source) : Assembler.assembleImage(code);
+            if(output != null){
+                ProgramFile.writeText(image.getSegments().get(0).toArray(), Paths.get(output));
+            }
+        }
+        if(imageOutput != null && image != null){
+            image.write(Paths.get(imageOutput));
+        }
+
+        if(cores > 1 || quantum > 0){
+            if(resume != null){
+                throw new IllegalArgumentException("A checkpoint only holds a single core");
+            }
+            runCores(image, size, backing, mode, cores, quantum, seed, threads, counters);
+            return;
+        }
+
+        if(cosim > 0){
+            if(resume != null){
+                throw new IllegalArgumentException("Co-simulation starts from a program, not a checkpoint");
+            }
+            runCoSimulation(image, size, cosim, fuse);
+            return;
+        }
+
+        //Loads the program into memory and runs the processor on said instructions
+        CacheHierarchy hierarchy = caches == null ? null : new CacheHierarchy(caches);
+        VirtualMachine machine = resume != null ? resume.start(hierarchy, mode)
+                : new VirtualMachine(image, size, backing, hierarchy, mode);
+        if(predictor != null){
+            machine.getProcessor().getPipeline().setBranchUnit(new BranchUnit(predictor(predictor)));
+        }
+        PerformanceCounters performance = null;
+        if(counters > 0){
+            performance = new PerformanceCounters("core 0", counters);
+            performance.register();
+            machine.getProcessor().setCounters(performance);
+        }
+        Profiler profiler = null;
+        if(profile != null){
+            profiler = profile.endsWith("us")
+                    ? Profiler.timed(image, Long.parseLong(profile.substring(0, profile.length() - 2)), TimeUnit.MICROSECONDS)
+                    : new Profiler(image, Integer.parseInt(profile));
+            machine.getProcessor().setProfiler(profiler);
+        }
+        Fusion fusion = null;
+        if(fuse){
+            fusion = new Fusion();
+            machine.getProcessor().setFusion(fusion);
+        }
+        if(checkpoint != null){
+            //Slices are not traced, so only the registers at the end are printed
+            try (Checkpoint.Writer writer = new Checkpoint.Writer(Paths.get(checkpoint))) {
+                while(!machine.isHalted()){
+                    machine.run(every);
+                    writer.write(machine);
+                }
+            }
+            TextTraceSink end = TextTraceSink.standardOutput();
+            end.write(0, machine.getProgramCounter(), machine.getStackPointer(), machine.getRegisters());
+            end.close();
+        }
+        else{
+            TraceSink sink = traceFile == null ? TextTraceSink.standardOutput()
+                    : new BinaryTraceSink(new FileOutputStream(traceFile));
+            try (Tracer tracer = new Tracer(traceMode, traceInterval, sink)) {
+                machine.setTracer(tracer);
+                machine.run();
+            }
+        }
+        if(hierarchy != null){
+            System.err.println(hierarchy);
+        }
+        Pipeline pipeline = machine.getProcessor().getPipeline();
+        if(pipeline != null){
+            System.err.println(pipeline);
+            if(pipeline.getBranchUnit() != null){
+                System.err.println(pipeline.getBranchUnit().report(10));
+            }
+        }
+        if(performance != null){
+            performance.unregister();
+            System.err.println(performance);
+        }
+        if(fusion != null){
+            System.err.println(fusion);
+        }
+        if(profiler != null){
+            profiler.close();
+            System.err.println(profiler.report(20));
+            if(flameGraph != null){
+                profiler.writeCollapsed(Paths.get(flameGraph));
+            }
+        }
+    }
+
+    //Throws a usage error if an option was given along with another it can not be combined with
+    private static void exclude(boolean given, String option, String other){
+        if(given){
+            throw new IllegalArgumentException("\"" + option + "\" can not be combined with \"" + other + "\"");
+        }
+    }
+
+    //Runs the program on the reference and fast engines, comparing them every interval instructions
+    private static void runCoSimulation(ProgramImage image, long size, int interval, boolean fuse) throws Exception {
+        CoSimulation simulation = new CoSimulation(image, size, ExecutionMode.FAST, interval);
+        Fusion fusion = null;
+        if(fuse){
+            fusion = new Fusion();
+            simulation.getFast().getProcessor().setFusion(fusion);
+        }
+        CoSimulation.Divergence divergence = simulation.run(0);
+        if(divergence != null){
+            System.err.println(divergence);
+            System.exit(1);
+        }
+        System.err.println("The engines agreed for " + simulation.getInstructions() + " instructions"
+                + (simulation.getFailure() == null ? "" : ", then both failed with " + simulation.getFailure()));
+        if(fusion != null){
+            System.err.println(fusion);
+        }
+        VirtualMachine machine = simulation.getReference();
+        TextTraceSink end = TextTraceSink.standardOutput();
+        end.write(0, machine.getProgramCounter(), machine.getStackPointer(), machine.getRegisters());
+        end.close();
+    }
+
+    //Runs the batch of programs given after "batch", see the README
+    private static void runBatch(String[] args) throws Exception {
+        String results = "results.tsv";
+        long limit = 0;
+        long timeout = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutionMode mode = ExecutionMode.FAST;
+        long size = MainMemory.DEFAULT_SIZE;
+        for(int i = 2; i<args.length; i++){
+            if(args[i].startsWith("results=")){
+                results = args[i].substring(8);
+            }
+            else if(args[i].startsWith("limit=")){
+                limit = Long.parseLong(args[i].substring(6));
+            }
+            else if(args[i].startsWith("timeout=")){
+                timeout = Long.parseLong(args[i].substring(8));
+            }
+            else if(args[i].startsWith("threads=")){
+                threads = Integer.parseInt(args[i].substring(8));
+            }
+            else if(args[i].startsWith("mode=")){
+                mode = ExecutionMode.valueOf(args[i].substring(5).toUpperCase());
+            }
+            else{
+                size = size(args[i]);
+            }
+        }
+        long start = System.nanoTime();
+        List<BatchRunner.Result> done = new BatchRunner(mode, size, threads)
+                .run(BatchRunner.programs(Paths.get(args[1]), limit, timeout));
+        BatchRunner.write(done, Paths.get(results));
+        System.err.println(done.size() + " programs in " + (System.nanoTime() - start) / 1_000_000 + " ms: "
+                + BatchRunner.summary(done));
+    }
+
+    //Returns the memory size given as an argument, the one argument that is not a named option, so
+    //anything else is an option that does not exist
+    private static long size(String argument){
+        if(!argument.matches("[0-9]+")){
+            throw new IllegalArgumentException("Unknown option " + argument);
+        }
+        return Long.parseLong(argument);
+    }
+
+    //Returns a new branch predictor of the given name, as given after "predictor="
+    private static BranchPredictor predictor(String name){
+        switch(name){
+            case "static": return new StaticPredictor(false);
+            case "taken": return new StaticPredictor(true);
+            case "bimodal": return new BimodalPredictor();
+            case "gshare": return new GsharePredictor();
+            case "tournament": return new TournamentPredictor();
+            default: throw new IllegalArgumentException("Unknown branch predictor " + name);
+        }
+    }
+
+    //Runs the program on several cores, all starting at the image's entry point, freely or in
+    //quanta if one is given, and prints the registers of each core in order. Each core is counted
+    //with the given interval, or not at all if it is 0
+    private static void runCores(ProgramImage image, long size, MemoryBacking backing, ExecutionMode mode, int cores,
+                                 int quantum, long seed, int threads, int counters) throws Exception {
+        MainMemory memory = new MainMemory(Math.max(size, image.extent()), backing);
+        memory.load(image);
+        Processor[] processors = new Processor[cores];
+        if(quantum > 0){
+            QuantumScheduler scheduler = new QuantumScheduler(memory, cores, mode, quantum, seed);
+            for(int i = 0; i<cores; i++){
+                processors[i] = scheduler.getCore(i);
+                processors[i].setProgramCounter(image.getEntryPoint());
+            }
+            count(processors, counters);
+            scheduler.run(threads);
+        }
+        else{
+            MultiProcessor processor = new MultiProcessor(memory, cores, mode);
+            for(int i = 0; i<cores; i++){
+                processors[i] = processor.getCore(i);
+                processors[i].setProgramCounter(image.getEntryPoint());
+            }
+            count(processors, counters);
+            processor.run();
+        }
+        TextTraceSink sink = TextTraceSink.standardOutput();
+        for(int i = 0; i<cores; i++){
+            Processor core = processors[i];
+            int[] registers = new int[core.r.length];
+            for(int j = 0; j<registers.length; j++){
+                registers[j] = core.r[j].getSigned();
+            }
+            sink.write(0, core.getProgramCounter(), core.getStackPointer(), registers);
+        }
+        sink.close();
+        for(int i = 0; i<cores; i++){
+            if(processors[i].getPipeline() != null){
+                System.err.println("Core " + i + " " + processors[i].getPipeline());
+            }
+            if(processors[i].getCounters() != null){
+                processors[i].getCounters().unregister();
+                System.err.println(processors[i].getCounters());
+            }
+        }
+    }
+
+    //Gives each core registered counters with the given interval, unless it is 0
+    private static void count(Processor[] processors, int interval) throws Exception {
+        if(interval > 0){
+            for(int i = 0; i<processors.length; i++){
+                PerformanceCounters counters = new PerformanceCounters("core " + i, interval);
+                counters.register();
+                processors[i].setCounters(counters);
+            }
+        }
     }
 }
@@ -1,54 +1,410 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
 
 //Represents the memory for the processor, allowing the user to read, write, and load to/from the
-//memory
-//Note - requires the user to call MainMemory.init() to initialize the memory
+//memory. Memory is word addressed and holds values rather than Word objects: read() hands out a
+//copy and write() copies the given word in, so registers and memory never share a word.
+//Every processor (or virtual machine) has its own memory, so any number of them can exist at once.
+//A memory is only meant to be used by one thread at a time, except by the cores of a
+//MultiProcessor once share() has been called, which see each other's writes as described there.
 public class MainMemory {
 
-    private static Word[] stack = new Word[1024];
-    private static boolean isInit = false;
+    //Size used when none is given
+    public static final long DEFAULT_SIZE = 1024;
 
-    //Initializes the stack and indicates the other methods that it has been initialized
-    public static void init(){
-        for(int i = 0; i<1024; i++){
-            stack[i] = new Word();
+    //Largest supported memory, every address a 32 bit word can hold
+    public static final long MAX_SIZE = 1L << 32;
+
+    //Number of addresses that can have a predecoded instruction
+    static final int MAX_DECODED = 1 << 20;
+
+    private static final VarHandle DECODED = MethodHandles.arrayElementVarHandle(DecodedInstruction[].class);
+    private static final VarHandle CODE_VERSION;
+
+    static {
+        try {
+            CODE_VERSION = MethodHandles.lookup().findVarHandle(MainMemory.class, "codeVersion", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
         }
-        isInit = true;
     }
 
-    //Returns the word at the given address in the stack
-    public static Word read(Word address) throws Exception {
-        if(!isInit){
-            throw new Exception("Memory has not been initialized");
+    private MemoryStore stack;
+
+    //The store's int array when it is a single array not shared with a snapshot, so the common case
+    //of readValue() and writeValue() goes straight to it. Null otherwise
+    private int[] words;
+
+    //The store's dirty bit per page of words, set by every write made straight to it
+    private boolean[] dirty;
+
+    //Highest valid address as an unsigned int, for bounds checks that also work with the full range
+    private int lastAddress;
+
+    //Predecoded instructions for each address, filled in the first time an address is fetched and
+    //cleared whenever that address is written so self-modifying programs still behave correctly.
+    //Only the first MAX_DECODED addresses are cached, code above that is decoded on every fetch.
+    //Entries are only added with a compare and set and cleared through DECODED, see fill()
+    private DecodedInstruction[] decoded;
+
+    //Counts writes that land on an address which has been decoded (fetched as code), so the JIT can
+    //tell when compiled code may be out of date. Only changed atomically through CODE_VERSION, since
+    //the cores of a MultiProcessor all write it
+    private volatile int codeVersion = 0;
+
+    //Set by share(): every write is then made with an atomic swap, see fill()
+    private boolean shared;
+
+    //Creates a memory of DEFAULT_SIZE words
+    public MainMemory(){
+        this(DEFAULT_SIZE, MemoryBacking.HEAP);
+    }
+
+    //Creates a memory of the given number of words, kept on the heap
+    public MainMemory(long size){
+        this(size, MemoryBacking.HEAP);
+    }
+
+    //Creates a memory of the given number of words, all zero, kept in the given backing
+    public MainMemory(long size, MemoryBacking backing){
+        if(size < 1 || size > MAX_SIZE){
+            throw new IllegalArgumentException("Memory size must be between 1 and " + MAX_SIZE + " words");
         }
-        return stack[(int)address.getUnsigned()];
+        use(MemoryStore.create(size, backing));
+    }
+
+    //Creates a memory of the same size as the given one without storage of its own, for
+    //QuantumMemory, which overrides every access to keep its own writes apart from the given memory
+    MainMemory(MainMemory shared){
+        stack = shared.stack;
+        lastAddress = shared.lastAddress;
+    }
+
+    //Creates a memory holding the contents of a snapshot, sharing its storage until written
+    public MainMemory(MemoryStore snapshot){
+        use(snapshot.copy());
+    }
+
+    //Returns a copy-on-write snapshot of the current contents of memory
+    public MemoryStore snapshot(){
+        MemoryStore snapshot = stack.copy();
+        hoist();
+        return snapshot;
+    }
+
+    //Replaces the contents of memory with a snapshot. The snapshot itself is left unchanged, so the
+    //same snapshot can be restored any number of times
+    public void restore(MemoryStore snapshot){
+        use(snapshot.copy());
+    }
+
+    //Prepares the memory to be used by several threads at once: storage still shared with a snapshot
+    //is copied now, since copying it on a write could lose the writes other threads make meanwhile.
+    //Snapshots should not be taken or restored while those threads are running
+    public void share(){
+        stack.unshare();
+        hoist();
+        shared = true;
+    }
+
+    //Makes the given store the memory, throwing away all decoded instructions
+    private void use(MemoryStore store){
+        stack = store;
+        hoist();
+        lastAddress = (int)(store.size - 1);
+        decoded = new DecodedInstruction[(int)Math.min(store.size, MAX_DECODED)];
+        changed();
     }
 
-    //Writes word value to the given value to the given address in the stack
-    public static void write(Word address, Word value) throws Exception {
-        if(!isInit){
-            throw new Exception("Memory has not been initialized");
+    //Takes the store's array and dirty bits, which change whenever it is copied or copies its array
+    private void hoist(){
+        words = stack.array();
+        dirty = stack.dirty();
+    }
+
+    //Marks compiled code as possibly out of date
+    private void changed(){
+        CODE_VERSION.getAndAdd(this, 1);
+    }
+
+    //Returns a copy of the word at the given address in the stack
+    public Word read(Word address) {
+        Word value = new Word();
+        read(address, value);
+        return value;
+    }
+
+    //Copies the word at the given address into target, returning target
+    public Word read(Word address, Word target) {
+        target.set(readValue(address.getSigned()));
+        return target;
+    }
+
+    //Writes word value to the given value to the given address in the stack - the bits are copied so
+    //later changes to value (such as the processor reusing its result word) do not leak into memory
+    public void write(Word address, Word value) {
+        writeValue(address.getSigned(), value.getSigned());
+    }
+
+    //Drops the decoded instruction for the given address, if there is one
+    private void invalidate(int index){
+        if(Integer.compareUnsigned(index, decoded.length) < 0 && DECODED.getVolatile(decoded, index) != null){
+            DECODED.setVolatile(decoded, index, null);
+            //The pair fused with the instruction before was made from this one too
+            if(index > 0 && decoded[index - 1] != null){
+                decoded[index - 1].fused = null;
+            }
+            changed();
         }
-        stack[(int)address.getUnsigned()] = value;
     }
 
-    //Loads the given data into memory - assumes data is formatted such that every 32 characters is
-    //one word and is formatted such that a bit is '1' or '0'
-    public static void load(String[] data) throws Exception {
-        if(!isInit){
-            throw new Exception("Memory has not been initialized");
+    //Throws a MemoryAccessException if the (unsigned) address is outside of memory. Building the
+    //exception is left to a separate method so this stays small enough to be inlined everywhere
+    void check(int address){
+        if(Integer.compareUnsigned(address, lastAddress) > 0){
+            throw outside(address);
         }
-        int i = 0;
+    }
 
-        //Sets each bit in the stack, starting from 0, to the corresponding bit in the data
-        for (String word : data) {
-            for (int j = 0; j < 32; j++) {
-                if (word.charAt(j) == '1') {
-                    stack[i].setBit(j, new Bit(true));
-                } else {
-                    stack[i].setBit(j, new Bit(false));
+    private MemoryAccessException outside(int address){
+        return new MemoryAccessException(address, stack.size);
+    }
+
+    //Returns the number of memory words
+    public long size(){
+        return stack.size;
+    }
+
+    //Returns a number that changes whenever a write replaces an instruction that has been fetched
+    public int codeVersion(){
+        return codeVersion;
+    }
+
+    //Returns the decoded form of the instruction at the given address, decoding and caching it the
+    //first time the address is fetched
+    public DecodedInstruction decode(Word address) {
+        return decode(address.getSigned());
+    }
+
+    //Same as read(), but takes the address as an (unsigned) int and returns the value of the word,
+    //used by the engines that keep their state in plain ints
+    public int readValue(int address) {
+        int[] words = this.words;
+        if(words != null && Integer.compareUnsigned(address, words.length) < 0){
+            return words[address];
+        }
+        check(address);
+        return stack.get(address);
+    }
+
+    //Same as write(), but takes the address and value as ints
+    public void writeValue(int address, int value) {
+        int[] words = this.words;
+        if(shared){
+            //Made atomic for the sake of cores decoding the address at the same time, see fill()
+            check(address);
+            stack.getAndSet(address, value);
+        }
+        else if(words != null && Integer.compareUnsigned(address, words.length) < 0){
+            words[address] = value;
+            dirty[address >>> MemoryStore.PAGE_BITS] = true;
+        }
+        else{
+            check(address);
+            stack.set(address, value);
+            //The write may have given the store a private copy of a shared array
+            hoist();
+        }
+        invalidate(address);
+    }
+
+    //Atomically replaces the word at the given address with value if it holds expected, returning
+    //the word it held either way. Like every atomic operation it also acts as a fence()
+    public int compareAndExchange(int address, int expected, int value) {
+        check(address);
+        int old = stack.compareAndExchange(address, expected, value);
+        updated(address, old, old == expected ? value : old);
+        return old;
+    }
+
+    //Atomically adds delta to the word at the given address, returning the word it held
+    public int getAndAdd(int address, int delta) {
+        check(address);
+        int old = stack.getAndAdd(address, delta);
+        updated(address, old, old + delta);
+        return old;
+    }
+
+    //Atomically replaces the word at the given address with value, returning the word it held
+    public int getAndSet(int address, int value) {
+        check(address);
+        int old = stack.getAndSet(address, value);
+        updated(address, old, value);
+        return old;
+    }
+
+    //Keeps the hoisted array and decoded instructions up to date after an atomic operation changed a
+    //word from old to value
+    private void updated(int address, int old, int value){
+        //The operation may have given the store a private copy of a shared array
+        hoist();
+        if(old != value){
+            invalidate(address);
+        }
+    }
+
+    //Orders every read and write before the fence before every read and write after it, and makes
+    //the writes before it visible to any core that fences (or performs an atomic operation) later
+    public void fence() {
+        VarHandle.fullFence();
+    }
+
+    //Returns the addresses that have a decoded instruction, as pairs of the first address of a run
+    //of them and its length
+    int[] decodedRanges(){
+        int[] ranges = new int[16];
+        int count = 0;
+        int address = 0;
+        while(address < decoded.length){
+            if(decoded[address] == null){
+                address++;
+                continue;
+            }
+            int start = address;
+            while(address < decoded.length && decoded[address] != null){
+                address++;
+            }
+            if(count == ranges.length){
+                ranges = Arrays.copyOf(ranges, count * 2);
+            }
+            ranges[count++] = start;
+            ranges[count++] = address - start;
+        }
+        return Arrays.copyOf(ranges, count);
+    }
+
+    //Decodes the instructions in the given ranges (as returned by decodedRanges()) ahead of their
+    //first fetch
+    void predecode(int[] ranges){
+        for(int i = 0; i<ranges.length; i += 2){
+            for(int address = ranges[i]; address<ranges[i] + ranges[i + 1]; address++){
+                decode(address);
+            }
+        }
+    }
+
+    //Same as decode(), but takes the address as an int
+    public DecodedInstruction decode(int address) {
+        check(address);
+        if(Integer.compareUnsigned(address, decoded.length) >= 0){
+            return DecodedInstruction.decode(stack.get(address));
+        }
+        DecodedInstruction instruction = decoded[address];
+        return instruction != null ? instruction : fill(address);
+    }
+
+    //Decodes the word at the given address and caches it. When another core writes the word at the
+    //same time, its write is an atomic swap followed by a check of the cached entry in invalidate(),
+    //while the entry here is added with a compare and set followed by a fence and a second read of
+    //the word. Either the write sees the entry and drops it, or the second read sees the new word and
+    //the entry is dropped here, so a stale instruction never stays cached
+    private DecodedInstruction fill(int address){
+        while(true){
+            int word = stack.get(address);
+            DecodedInstruction instruction = DecodedInstruction.decode(word);
+            if(!DECODED.compareAndSet(decoded, address, null, instruction)){
+                //Another core cached it first
+                DecodedInstruction cached = (DecodedInstruction)DECODED.getVolatile(decoded, address);
+                if(cached != null){
+                    return cached;
                 }
+                continue;
+            }
+            VarHandle.fullFence();
+            if(stack.get(address) == word){
+                return instruction;
+            }
+            DECODED.compareAndSet(decoded, address, instruction, null);
+        }
+    }
+
+    //Whether FastEngine may run pairs of instructions fetched from this memory as one (see Fusion).
+    //Views that fetch or buffer instructions themselves have them run one at a time, and so do the
+    //cores of a MultiProcessor, since a pair is not kept in step with writes from other cores
+    boolean fuses() {
+        return !shared;
+    }
+
+    //Returns the pair of instructions starting at the given address if FastEngine can run them as
+    //one, or FusedInstruction.NONE, given the instruction just decoded there. The answer is kept with
+    //that instruction until either of the two is written. Only decoded instructions that are cached
+    //are fused
+    FusedInstruction fuse(int address, DecodedInstruction first) {
+        FusedInstruction pair = null;
+        if(Integer.compareUnsigned(address, decoded.length - 1) < 0 && decoded[address] == first){
+            pair = FusedInstruction.fuse(first, decode(address + 1));
+        }
+        first.fused = pair == null ? FusedInstruction.NONE : pair;
+        return first.fused;
+    }
+
+    //Drops the decoded instructions of the given addresses after they were loaded over, along with
+    //the pair fused with the first of them
+    private void loaded(int start, int end){
+        Arrays.fill(decoded, start, end, null);
+        if(start > 0 && decoded[start - 1] != null){
+            decoded[start - 1].fused = null;
+        }
+        changed();
+    }
+
+    //Loads a program image (such as the one returned by Parser.parse()) into memory, starting at
+    //address 0
+    public void load(int[] program) {
+        if(program.length > stack.size){
+            throw outside((int)stack.size);
+        }
+        int[] words = this.words;
+        if(words != null){
+            System.arraycopy(program, 0, words, 0, program.length);
+            stack.written(0, program.length);
+            //Anything decoded before is stale now
+            loaded(0, Math.min(program.length, decoded.length));
+            return;
+        }
+        for(int i = 0; i<program.length; i++){
+            writeValue(i, program[i]);
+        }
+    }
+
+    //Loads every segment of a program image but its source lines into memory at its address.
+    //Segments of a mapped image are copied straight from the mapping with a single bulk copy when
+    //memory is one flat array
+    public void load(ProgramImage image) {
+        if(image.extent() > stack.size){
+            throw outside((int)stack.size);
+        }
+        for(ProgramImage.Segment segment : image.getSegments()){
+            if(segment.type == ProgramImage.LINES){
+                continue;
+            }
+            int[] words = this.words;
+            if(words != null){
+                segment.words.get(0, words, segment.address, segment.length());
+                stack.written(segment.address, segment.length());
+                int end = (int)Math.min(Integer.toUnsignedLong(segment.address) + segment.length(), decoded.length);
+                if(Integer.compareUnsigned(segment.address, end) < 0){
+                    loaded(segment.address, end);
+                }
+                else{
+                    changed();
+                }
+                continue;
+            }
+            for(int i = 0; i<segment.length(); i++){
+                writeValue(segment.address + i, segment.words.get(i));
             }
-            i++;
         }
     }
 
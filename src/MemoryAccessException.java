@@ -0,0 +1,22 @@
+//Thrown when a program reads or writes an address that is outside of memory. Every engine leaves
+//the same state behind: the instruction that faulted has changed no register or word of memory,
+//but the program counter is already on the instruction after it (or still on the address itself
+//when the instruction could not be fetched), and a pop or return has already moved the stack
+//pointer up to the word it failed to read. A call, push or interrupt leaves the stack pointer where
+//it was
+public class MemoryAccessException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long address;
+
+    public MemoryAccessException(int address, long size){
+        super("Address " + Integer.toUnsignedString(address) + " is outside of memory (" + size + " words)");
+        this.address = Integer.toUnsignedLong(address);
+    }
+
+    //Returns the address that was accessed, as an unsigned number
+    public long getAddress(){
+        return address;
+    }
+}
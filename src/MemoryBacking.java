@@ -0,0 +1,5 @@
+//Where the words of MainMemory are kept: in int arrays on the Java heap, or in direct byte buffers
+//outside of it, which keeps very large memories away from the garbage collector
+public enum MemoryBacking {
+        HEAP, DIRECT
+}
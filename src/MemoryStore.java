@@ -0,0 +1,458 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Storage for the words of MainMemory. Memories up to FLAT_LIMIT words on the heap are a single int
+//array. Larger memories, and all memories kept off the heap, are split into pages of PAGE_SIZE
+//words which are only allocated the first time something other than zero is written to them, so a
+//memory covering the whole 32 bit address range costs nothing until it is used.
+//Copies share their storage, which is only copied when one of the memories sharing it writes to it
+//(copy-on-write) - the whole array for a flat memory, or the single page written for a paged one.
+//Addresses are unsigned ints and are not checked here - MainMemory does the bounds checks.
+//Words can also be read and written atomically (see MultiProcessor). Pages are allocated under a
+//lock and published with release stores and read with acquire loads, so cores sharing a memory
+//never lose each other's first writes to a page or see a page before it is filled in. Copying
+//shared storage on a write is not safe while several threads write, which is why MainMemory.share()
+//takes private copies up front.
+public abstract class MemoryStore {
+
+    static final int FLAT_LIMIT = 1 << 24;
+
+    static final int PAGE_BITS = 12;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    //Atomic access to the elements of int arrays, and to the ints of a native order byte buffer
+    static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    static final VarHandle BUFFER_INTS = MethodHandles.byteBufferViewVarHandle(int[].class,
+            ByteOrder.nativeOrder());
+
+    //Number of words
+    final long size;
+
+    MemoryStore(long size){
+        this.size = size;
+    }
+
+    //Creates an empty (all zero) memory of the given number of words
+    static MemoryStore create(long size, MemoryBacking backing){
+        if(backing == MemoryBacking.DIRECT){
+            return new Direct(size);
+        }
+        return size <= FLAT_LIMIT ? new Flat(size) : new Paged(size);
+    }
+
+    abstract int get(int address);
+
+    abstract void set(int address, int value);
+
+    //Atomically replaces the word with value if it holds expected, returning the word it held
+    abstract int compareAndExchange(int address, int expected, int value);
+
+    //Atomically adds delta to the word, returning the word it held
+    abstract int getAndAdd(int address, int delta);
+
+    //Atomically replaces the word with value, returning the word it held
+    abstract int getAndSet(int address, int value);
+
+    //Returns a memory with the same contents that shares its storage with this one until written
+    abstract MemoryStore copy();
+
+    //Takes a private copy of any storage shared with another copy
+    abstract void unshare();
+
+    //Returns the int array holding every word, if there is one that can be written directly
+    int[] array(){
+        return null;
+    }
+
+    //Returns the dirty bit of each page of the array returned by array(), which whoever writes the
+    //array directly has to set, or null if the store keeps none
+    boolean[] dirty(){
+        return null;
+    }
+
+    //Marks the words from the given address on as written after they were copied into array()
+    void written(int address, int length){
+    }
+
+    MemoryBacking backing(){
+        return MemoryBacking.HEAP;
+    }
+
+    //Returns the number of pages of PAGE_SIZE words (see Checkpoint), the last of which is shorter
+    //when the size is not a multiple of PAGE_SIZE
+    int pageCount(){
+        return (int)((size + PAGE_MASK) >>> PAGE_BITS);
+    }
+
+    //Returns the number of words in the given page
+    int pageLength(int index){
+        return (int)Math.min(PAGE_SIZE, size - ((long)index << PAGE_BITS));
+    }
+
+    //Returns true if the given page may hold other words than it does in since, an earlier copy of
+    //this store, or than an empty memory if since is null. A page still shared with the copy has not
+    //been written since, so it is never reported
+    abstract boolean changed(MemoryStore since, int index);
+
+    //Copies the words of the given page into the start of words
+    abstract void getPage(int index, int[] words);
+
+    //A single int array. Comparing two snapshots of a flat memory word by word would cost the whole
+    //array every checkpoint, so a dirty bit is kept per page instead. Once an array has been shared it
+    //is never written again, so it is named by a stamp, and a store's dirty bits are the pages written
+    //since it held the array with the stamp in base
+    static class Flat extends MemoryStore {
+
+        //Source of the stamps, 0 is never used
+        private static final AtomicLong STAMPS = new AtomicLong();
+
+        private int[] words;
+
+        //Set when another copy may be using the same array. Both sides of a copy are marked, so
+        //whichever writes first takes a private copy
+        private boolean shared;
+
+        //The stamp of the array while it is shared, 0 otherwise
+        private long stamp;
+
+        //The stamp of the array the dirty bits are relative to, 0 if they are relative to an empty
+        //memory, and per page whether it has been written since
+        private long base;
+        private boolean[] dirty;
+
+        Flat(long size){
+            super(size);
+            words = new int[(int)size];
+            dirty = new boolean[pageCount()];
+        }
+
+        int get(int address){
+            return words[address];
+        }
+
+        void set(int address, int value){
+            unshare();
+            words[address] = value;
+            dirty[address >>> PAGE_BITS] = true;
+        }
+
+        int compareAndExchange(int address, int expected, int value){
+            unshare();
+            dirty[address >>> PAGE_BITS] = true;
+            return (int)INTS.compareAndExchange(words, address, expected, value);
+        }
+
+        int getAndAdd(int address, int delta){
+            unshare();
+            dirty[address >>> PAGE_BITS] = true;
+            return (int)INTS.getAndAdd(words, address, delta);
+        }
+
+        int getAndSet(int address, int value){
+            unshare();
+            dirty[address >>> PAGE_BITS] = true;
+            return (int)INTS.getAndSet(words, address, value);
+        }
+
+        void unshare(){
+            if(shared){
+                words = words.clone();
+                shared = false;
+                stamp = 0;
+            }
+        }
+
+        //Creates a copy sharing the given array, with dirty bits relative to the given stamp
+        private Flat(long size, int[] words, long stamp, long base, boolean[] dirty){
+            super(size);
+            this.words = words;
+            this.stamp = stamp;
+            this.base = base;
+            this.dirty = dirty;
+            shared = true;
+        }
+
+        //The first copy of an array stamps it. The copy takes over the dirty bits, since it is
+        //usually the snapshot compared with the one before, and this store starts again from clear
+        //ones. A copy of an array that was already shared has no pages written since
+        MemoryStore copy(){
+            if(stamp != 0){
+                return new Flat(size, words, stamp, stamp, new boolean[dirty.length]);
+            }
+            shared = true;
+            stamp = STAMPS.incrementAndGet();
+            Flat copy = new Flat(size, words, stamp, base, dirty);
+            base = stamp;
+            dirty = new boolean[dirty.length];
+            return copy;
+        }
+
+        int[] array(){
+            return shared ? null : words;
+        }
+
+        boolean[] dirty(){
+            return dirty;
+        }
+
+        void written(int address, int length){
+            if(length > 0){
+                Arrays.fill(dirty, address >>> PAGE_BITS, ((address + length - 1) >>> PAGE_BITS) + 1, true);
+            }
+        }
+
+        //Only the dirty bits are needed when since holds the array they are relative to
+        boolean changed(MemoryStore since, int index){
+            if(since instanceof Flat && ((Flat)since).stamp != 0 && ((Flat)since).stamp == base){
+                return dirty[index];
+            }
+            int from = index << PAGE_BITS;
+            int to = from + pageLength(index);
+            if(since == null){
+                for(int i = from; i<to; i++){
+                    if(words[i] != 0){
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if(!(since instanceof Flat) || since.size != size){
+                return true;
+            }
+            int[] before = ((Flat)since).words;
+            return before != words && !Arrays.equals(words, from, to, before, from, to);
+        }
+
+        void getPage(int index, int[] page){
+            System.arraycopy(words, index << PAGE_BITS, page, 0, pageLength(index));
+        }
+    }
+
+    //Pages of words that are allocated on first use
+    abstract static class Pages extends MemoryStore {
+
+        //Pages that may also be referenced by another copy, and so have to be copied before a write
+        final boolean[] shared;
+
+        Pages(long size){
+            super(size);
+            shared = new boolean[(int)((size + PAGE_MASK) >>> PAGE_BITS)];
+        }
+
+        //Allocates the given page, or replaces it with a private copy if it is shared
+        abstract void own(int index);
+
+        void unshare(){
+            for(int i = 0; i<shared.length; i++){
+                if(shared[i]){
+                    own(i);
+                }
+            }
+        }
+    }
+
+    //Pages kept in int arrays on the heap
+    static class Paged extends Pages {
+
+        private static final VarHandle PAGES = MethodHandles.arrayElementVarHandle(int[][].class);
+
+        private final int[][] pages;
+
+        Paged(long size){
+            super(size);
+            pages = new int[shared.length][];
+        }
+
+        private int[] page(int index){
+            return (int[])PAGES.getAcquire(pages, index);
+        }
+
+        int get(int address){
+            int[] page = page(address >>> PAGE_BITS);
+            return page == null ? 0 : page[address & PAGE_MASK];
+        }
+
+        void set(int address, int value){
+            int index = address >>> PAGE_BITS;
+            int[] page = page(index);
+            if(page == null || shared[index]){
+                //Unallocated pages already read as zero
+                if(page == null && value == 0){
+                    return;
+                }
+                own(index);
+                page = page(index);
+            }
+            page[address & PAGE_MASK] = value;
+        }
+
+        //Returns the page holding the given address, allocating it if needed
+        private int[] writable(int address){
+            int index = address >>> PAGE_BITS;
+            if(page(index) == null || shared[index]){
+                own(index);
+            }
+            return page(index);
+        }
+
+        int compareAndExchange(int address, int expected, int value){
+            return (int)INTS.compareAndExchange(writable(address), address & PAGE_MASK, expected, value);
+        }
+
+        int getAndAdd(int address, int delta){
+            return (int)INTS.getAndAdd(writable(address), address & PAGE_MASK, delta);
+        }
+
+        int getAndSet(int address, int value){
+            return (int)INTS.getAndSet(writable(address), address & PAGE_MASK, value);
+        }
+
+        //Another thread may have allocated the page while this one waited for the lock
+        synchronized void own(int index){
+            int[] page = pages[index];
+            if(page == null){
+                PAGES.setRelease(pages, index, new int[pageLength(index)]);
+            }
+            else if(shared[index]){
+                PAGES.setRelease(pages, index, page.clone());
+                shared[index] = false;
+            }
+        }
+
+        //Pages are copied before being written, so an unchanged page is the very same array
+        boolean changed(MemoryStore since, int index){
+            if(since == null){
+                return page(index) != null;
+            }
+            return !(since instanceof Paged) || since.size != size || page(index) != ((Paged)since).page(index);
+        }
+
+        void getPage(int index, int[] words){
+            int[] page = page(index);
+            if(page == null){
+                Arrays.fill(words, 0, pageLength(index), 0);
+            }
+            else{
+                System.arraycopy(page, 0, words, 0, page.length);
+            }
+        }
+
+        MemoryStore copy(){
+            Paged copy = new Paged(size);
+            for(int i = 0; i<pages.length; i++){
+                if(pages[i] != null){
+                    copy.pages[i] = pages[i];
+                    shared[i] = true;
+                    copy.shared[i] = true;
+                }
+            }
+            return copy;
+        }
+    }
+
+    //Pages kept in direct byte buffers outside of the heap
+    static class Direct extends Pages {
+
+        private static final VarHandle PAGES = MethodHandles.arrayElementVarHandle(ByteBuffer[].class);
+
+        private final ByteBuffer[] pages;
+
+        Direct(long size){
+            super(size);
+            pages = new ByteBuffer[shared.length];
+        }
+
+        private ByteBuffer page(int index){
+            return (ByteBuffer)PAGES.getAcquire(pages, index);
+        }
+
+        int get(int address){
+            ByteBuffer page = page(address >>> PAGE_BITS);
+            return page == null ? 0 : page.getInt((address & PAGE_MASK) << 2);
+        }
+
+        void set(int address, int value){
+            int index = address >>> PAGE_BITS;
+            ByteBuffer page = page(index);
+            if(page == null || shared[index]){
+                if(page == null && value == 0){
+                    return;
+                }
+                own(index);
+                page = page(index);
+            }
+            page.putInt((address & PAGE_MASK) << 2, value);
+        }
+
+        private ByteBuffer writable(int address){
+            int index = address >>> PAGE_BITS;
+            if(page(index) == null || shared[index]){
+                own(index);
+            }
+            return page(index);
+        }
+
+        int compareAndExchange(int address, int expected, int value){
+            return (int)BUFFER_INTS.compareAndExchange(writable(address), (address & PAGE_MASK) << 2, expected, value);
+        }
+
+        int getAndAdd(int address, int delta){
+            return (int)BUFFER_INTS.getAndAdd(writable(address), (address & PAGE_MASK) << 2, delta);
+        }
+
+        int getAndSet(int address, int value){
+            return (int)BUFFER_INTS.getAndSet(writable(address), (address & PAGE_MASK) << 2, value);
+        }
+
+        synchronized void own(int index){
+            ByteBuffer original = pages[index];
+            if(original != null && !shared[index]){
+                return;
+            }
+            ByteBuffer page = ByteBuffer.allocateDirect(pageLength(index) << 2).order(ByteOrder.nativeOrder());
+            if(original != null){
+                page.put(0, original, 0, original.capacity());
+            }
+            PAGES.setRelease(pages, index, page);
+            shared[index] = false;
+        }
+
+        MemoryBacking backing(){
+            return MemoryBacking.DIRECT;
+        }
+
+        boolean changed(MemoryStore since, int index){
+            if(since == null){
+                return page(index) != null;
+            }
+            return !(since instanceof Direct) || since.size != size || page(index) != ((Direct)since).page(index);
+        }
+
+        void getPage(int index, int[] words){
+            ByteBuffer page = page(index);
+            if(page == null){
+                Arrays.fill(words, 0, pageLength(index), 0);
+            }
+            else{
+                page.asIntBuffer().get(0, words, 0, pageLength(index));
+            }
+        }
+
+        MemoryStore copy(){
+            Direct copy = new Direct(size);
+            for(int i = 0; i<pages.length; i++){
+                if(pages[i] != null){
+                    copy.pages[i] = pages[i];
+                    shared[i] = true;
+                    copy.shared[i] = true;
+                }
+            }
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+//Several processor cores running one program in a single shared memory, each core on its own
+//thread with its own registers, program counter and stack pointer. Every core starts at address 0
+//with its number (0 to cores - 1) in r31 and the number of cores in r30, so the program can split
+//up the work, and its stack starts stackSize words below the stack of the core before it (core 0
+//has the top of memory).
+//
+//Memory model. Words are never torn: a read sees the whole of some write to that word. Beyond that,
+//plain loads, stores, pushes and pops are not ordered between cores - another core may see them
+//late, or in a different order than they were made. The atomic instructions (compare and swap,
+//swap and the fetch and operate ones) and fence are sequentially consistent: every core sees them
+//happen in one single order, and each one is also a full fence. A fence makes every read and write
+//before it happen before every read and write after it, so a program that only shares words
+//through atomics, or that orders its plain accesses with fences (write the data, fence, set a flag
+//with an atomic - then read the flag with an atomic, fence, read the data), behaves as if the
+//cores took turns. A loop waiting on another core should read with an atomic (such as
+//"atomic cas r1 r2", which reads the word at r2 into r1 without changing it) or contain a fence,
+//since a plain load in a loop may never see the other core's write. The same goes for code: a core
+//is only sure to run instructions another core wrote after both have passed a fence, and fetching
+//an instruction while another core writes it leaves which of the two is run undefined.
+//
+//Each core runs until it halts. run() returns once every core has halted, after which the memory
+//and every core's registers can be read as usual.
+public class MultiProcessor {
+
+    //Words of stack each core gets when no size is given
+    public static final int DEFAULT_STACK_SIZE = 256;
+
+    //Registers holding the core's number and the number of cores when it starts
+    public static final int CORE_REGISTER = 31;
+    public static final int CORES_REGISTER = 30;
+
+    private final MainMemory memory;
+    private final Processor[] cores;
+
+    //Runs the given number of cores in the given memory, which should already hold the program
+    public MultiProcessor(MainMemory memory, int cores, ExecutionMode mode){
+        this(memory, cores, DEFAULT_STACK_SIZE, mode);
+    }
+
+    public MultiProcessor(MainMemory memory, int cores, int stackSize, ExecutionMode mode){
+        if(cores < 1){
+            throw new IllegalArgumentException("There must be at least one core");
+        }
+        if(stackSize < 1 || (long)cores * stackSize > memory.size()){
+            throw new IllegalArgumentException("Memory of " + memory.size() + " words can not hold " + cores
+                    + " stacks of " + stackSize + " words");
+        }
+        this.memory = memory;
+        memory.share();
+        this.cores = new Processor[cores];
+        for(int i = 0; i<cores; i++){
+            Processor core = new Processor(memory, mode);
+            core.setStackPointer((int)(memory.size() - 1 - (long)i * stackSize));
+            core.r[CORE_REGISTER].set(i);
+            core.r[CORES_REGISTER].set(cores);
+            this.cores[i] = core;
+        }
+    }
+
+    //Runs every core on its own thread until all of them have halted. If any core throws, the first
+    //failure (by core number) is thrown once the others have halted, with the rest suppressed in it
+    public void run() throws Exception {
+        Thread[] threads = new Thread[cores.length];
+        Throwable[] failures = new Throwable[cores.length];
+        for(int i = 0; i<cores.length; i++){
+            Processor core = cores[i];
+            int number = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    core.run();
+                } catch (Throwable e) {
+                    failures[number] = e;
+                }
+            }, "core-" + i);
+            threads[i].start();
+        }
+        //Joining also makes everything the cores wrote visible to this thread
+        for(Thread thread : threads){
+            thread.join();
+        }
+
+        Throwable failure = null;
+        for(Throwable e : failures){
+            if(e == null){
+                continue;
+            }
+            if(failure == null){
+                failure = e;
+            }
+            else{
+                failure.addSuppressed(e);
+            }
+        }
+        if(failure instanceof Exception exception){
+            throw exception;
+        }
+        if(failure instanceof Error error){
+            throw error;
+        }
+    }
+
+    //Returns the number of cores
+    public int cores(){
+        return cores.length;
+    }
+
+    //Returns the given core, such as to set its program counter or tracer before running
+    public Processor getCore(int core){
+        return cores[core];
+    }
+
+    public MainMemory getMemory(){
+        return memory;
+    }
+}
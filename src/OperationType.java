@@ -0,0 +1,3 @@
+public enum OperationType {
+        MATH, BRANCH, CALL, PUSH, LOAD, STORE, POP, ATOMIC
+}
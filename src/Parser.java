@@ -1,280 +1,237 @@
-import java.util.LinkedList;
-import java.util.Optional;
-import java.io.*;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
-//Used to parse a list of tokens from a lexer in order to encode the instructions to a file to run
-//inside the processor with machine language. Refer to the SIA32 document for specifics on the
-//instruction architecture.
+//Used to parse a list of tokens from a lexer in order to encode the instructions into a program to
+//run inside the processor with machine language. Refer to the SIA32 document for specifics on the
+//instruction architecture. Each instruction is built as an int from the tables below: the
+//operation bits of the keyword, the function bits of the math/boolean/shift function, and then the
+//registers and immediate, whose places depend on how many registers there are (the format). The
+//tables never change after the class is initialized and a Parser writes nothing outside of itself,
+//so many programs can be parsed at once on different threads
 public class Parser {
 
-    private TokenHandler handler;
-    private Word instruction;
+    //What follows the keyword of each kind of statement. The function kinds are bits, since a math
+    //function can also name the operation of an atomic statement
+    private static final int NOTHING = 0;
+    private static final int REGISTERS = 1;
+    private static final int MATH_FUNCTION = 2;
+    private static final int BOOLEAN_FUNCTION = 4;
+    private static final int SHIFT_FUNCTION = 8;
+    private static final int ATOMIC_FUNCTION = 16;
 
-    public Parser(LinkedList<Token> tokens) {
+    //Indexed by TokenType ordinal: the operation bits (bits 2-4 of the opcode) of each keyword that
+    //starts a statement, or -1, and what follows that keyword
+    private static final int[] OPERATION = new int[TokenType.values().length];
+    private static final int[] OPERANDS = new int[TokenType.values().length];
+
+    //Indexed by TokenType ordinal: the function bits of each math, boolean, shift or atomic
+    //function, and the kinds of statement it belongs to (0 for types that are not functions)
+    private static final int[] FUNCTION = new int[TokenType.values().length];
+    private static final int[] FUNCTION_KIND = new int[TokenType.values().length];
+
+    //Indexed by the number of registers given: the format bits, and where the immediate goes and
+    //how many bits it has. The registers themselves go at REGISTER_SHIFT, in the order given
+    private static final int[] FORMAT = {0b01, 0b01, 0b11, 0b10};
+    private static final int[] IMMEDIATE_SHIFT = {14, 14, 19, 24};
+    private static final int[] IMMEDIATE_BITS = {18, 18, 13, 8};
+    private static final int[] REGISTER_SHIFT = {5, 14, 19};
+
+    static {
+        Arrays.fill(OPERATION, -1);
+        statement(TokenType.MATH, 0b000, MATH_FUNCTION);
+        statement(TokenType.HALT, 0b000, NOTHING);
+        statement(TokenType.SHIFT, 0b000, SHIFT_FUNCTION);
+        statement(TokenType.COPY, 0b000, REGISTERS);
+        statement(TokenType.BRANCH, 0b001, BOOLEAN_FUNCTION);
+        statement(TokenType.CALL, 0b010, BOOLEAN_FUNCTION);
+        statement(TokenType.JUMP, 0b010, REGISTERS);
+        statement(TokenType.PUSH, 0b011, MATH_FUNCTION);
+        statement(TokenType.LOAD, 0b100, REGISTERS);
+        statement(TokenType.RETURN, 0b100, NOTHING);
+        statement(TokenType.STORE, 0b101, REGISTERS);
+        statement(TokenType.PEEK, 0b110, REGISTERS);
+        statement(TokenType.POP, 0b110, REGISTERS);
+        statement(TokenType.INTERRUPT, 0b110, NOTHING);
+        statement(TokenType.ATOMIC, 0b111, ATOMIC_FUNCTION);
+        statement(TokenType.FENCE, 0b111, NOTHING);
+
+        //Atomic statements take any math function (fetch and add, fetch and or...) as well as their own
+        function(TokenType.AND, 0b1000, MATH_FUNCTION | ATOMIC_FUNCTION);
+        function(TokenType.OR, 0b1001, MATH_FUNCTION | ATOMIC_FUNCTION);
+        function(TokenType.XOR, 0b1010, MATH_FUNCTION | ATOMIC_FUNCTION);
+        function(TokenType.NOT, 0b1011, MATH_FUNCTION | ATOMIC_FUNCTION);
+        function(TokenType.ADD, 0b1110, MATH_FUNCTION | ATOMIC_FUNCTION);
+        function(TokenType.SUBTRACT, 0b1111, MATH_FUNCTION | ATOMIC_FUNCTION);
+        function(TokenType.MULTIPLY, 0b0111, MATH_FUNCTION | ATOMIC_FUNCTION);
+        function(TokenType.CAS, 0b0001, ATOMIC_FUNCTION);
+        function(TokenType.SWAP, 0b0010, ATOMIC_FUNCTION);
+
+        function(TokenType.EQUAL, 0b0000, BOOLEAN_FUNCTION);
+        function(TokenType.UNEQUAL, 0b0001, BOOLEAN_FUNCTION);
+        function(TokenType.LESS, 0b0010, BOOLEAN_FUNCTION);
+        function(TokenType.GEQUAL, 0b0011, BOOLEAN_FUNCTION);
+        function(TokenType.GREATER, 0b0100, BOOLEAN_FUNCTION);
+        function(TokenType.LEQUAL, 0b0101, BOOLEAN_FUNCTION);
+
+        function(TokenType.LEFT, 0b1100, SHIFT_FUNCTION);
+        function(TokenType.RIGHT, 0b1101, SHIFT_FUNCTION);
+    }
+
+    private static void statement(TokenType keyword, int operation, int operands) {
+        OPERATION[keyword.ordinal()] = operation;
+        OPERANDS[keyword.ordinal()] = operands;
+    }
+
+    private static void function(TokenType name, int function, int kinds) {
+        FUNCTION[name.ordinal()] = function;
+        FUNCTION_KIND[name.ordinal()] = kinds;
+    }
+
+    private final TokenHandler handler;
+
+    //Set by parse() when the tokens ended with separators, leaving an empty statement at the end
+    private boolean endedEmpty;
+
+    //The source line of each instruction of the last parse(), and the line of the last separator
+    //read (0 before any)
+    private int[] lines = new int[0];
+    private int lastLine;
+
+    public Parser(List<Token> tokens) {
+        this(tokens.iterator());
+    }
+
+    //Parses tokens as they come from the given source, normally a Lexer, so the tokens are never
+    //all held in memory at once
+    public Parser(Iterator<Token> tokens) {
         handler = new TokenHandler(tokens);
-        instruction = new Word();
-        MainMemory.init();
     }
 
     //Accepts new lines and semi-colons until there are neither of each
     private boolean acceptSeperators() {
         boolean retVal = false;
-        while (handler.matchAndRemove(TokenType.SEPERATOR).isPresent()) {
+        Token seperator;
+        while ((seperator = handler.matchAndRemove(TokenType.SEPERATOR)) != null) {
+            lastLine = seperator.getLineNum();
             retVal = true;
         }
         return retVal;
     }
 
-    // The main method of Parser, this will parse the entirety of the token list and output each
-    //instruction to a file named "output.txt" in the current working directory
-    public void parse() throws Exception {
-        PrintWriter writer = new PrintWriter(new FileWriter("output.txt"));
+    // The main method of Parser, this will parse the entirety of the token list and return the
+    //program image, one encoded instruction per word starting from address 0. ProgramFile can write
+    //the image out as text if a file is wanted. Assembler parses large sources in parallel
+    public int[] parse() throws Exception {
+        return parse(true);
+    }
+
+    //Parses every statement. Separators at the very end leave an empty statement, which is encoded
+    //as a halt (all 0's) only when keepEmptyEnd is true - Assembler leaves it out of every chunk of a
+    //source but the last, since the statements carry on in the next chunk
+    int[] parse(boolean keepEmptyEnd) throws Exception {
+        int[] program = new int[64];
+        int[] lines = new int[64];
+        int length = 0;
+        endedEmpty = false;
+        lastLine = 0;
         // Loops until there are no more tokens in the list
         while (handler.moreTokens()) {
             acceptSeperators();
-            parseStatement();
-            writer.println(instruction.toString());
-            instruction = new Word();
+            if (!handler.moreTokens()) {
+                endedEmpty = true;
+                if (!keepEmptyEnd) {
+                    break;
+                }
+            }
+            if(length == program.length){
+                program = Arrays.copyOf(program, length * 2);
+                lines = Arrays.copyOf(lines, length * 2);
+            }
+            //An empty statement at the end is on the line after the last separator
+            Token first = handler.peek(0);
+            lines[length] = first != null ? first.getLineNum() : lastLine + 1;
+            program[length++] = parseStatement();
         }
-        writer.close();
+        this.lines = Arrays.copyOf(lines, length);
+        return Arrays.copyOf(program, length);
     }
 
-    //Parses each type of statement provided with the assembler, including: math, halt, shift, copy,
-    //branch, call, jump, push, load, return, store, peek, pop, and interrupt, and sets the bits in
-    //the instruction accordingly
-    private void parseStatement() throws Exception {
-        if (handler.matchAndRemove(TokenType.MATH).isPresent()) {
-            parseMop();
-        }
-        //Empty since halt requires all 0 bits in the word
-        else if(handler.matchAndRemove(TokenType.HALT).isPresent()){}
-        else if(handler.matchAndRemove(TokenType.SHIFT).isPresent()){
-            parseShift();
-        }
-        else if(handler.matchAndRemove(TokenType.COPY).isPresent()){
-            parseRegisters();
-        }
-        else if(handler.matchAndRemove(TokenType.BRANCH).isPresent()){
-            instruction.setBits(27,28, false);
-            instruction.setBit(29, true);
-            parseBop();
-        }
-        else if(handler.matchAndRemove(TokenType.CALL).isPresent()){
-            instruction.setBit(27,false);
-            instruction.setBit(28, true);
-            instruction.setBit(29, false);
-            parseBop();
-        }
-        else if(handler.matchAndRemove(TokenType.JUMP).isPresent()){
-            instruction.setBit(27,false);
-            instruction.setBit(28, true);
-            instruction.setBit(29, false);
-            parseRegisters();
-        }
-        else if(handler.matchAndRemove(TokenType.PUSH).isPresent()){
-            instruction.setBit(27, false);
-            instruction.setBits(28,29, true);
-            parseMop();
-        }
-        else if(handler.matchAndRemove(TokenType.LOAD).isPresent()){
-            instruction.setBit(27, true);
-            instruction.setBits(28,29, false);
-            parseRegisters();
-        }
-        else if(handler.matchAndRemove(TokenType.RETURN).isPresent()){
-            instruction.setBit(27, true);
-            instruction.setBits(28,29, false);
-        }
-        else if(handler.matchAndRemove(TokenType.STORE).isPresent()){
-            instruction.setBit(27, true);
-            instruction.setBit(28, false);
-            instruction.setBit(29, true);
-            parseRegisters();
-        }
-        else if(handler.matchAndRemove(TokenType.PEEK).isPresent()){
-            instruction.setBits(27,28, true);
-            instruction.setBit(29, false);
-            parseRegisters();
-        }
-        else if(handler.matchAndRemove(TokenType.POP).isPresent()){
-            instruction.setBits(27,28, true);
-            instruction.setBit(29, false);
-            parseRegisters();
-        }
-        else if(handler.matchAndRemove(TokenType.INTERRUPT).isPresent()){
-            instruction.setBits(27,28, true);
-            instruction.setBit(29, false);
-        }
+    //Returns true if the last parse() ended with an empty statement
+    boolean endedEmpty() {
+        return endedEmpty;
     }
 
-    //Parses the shift instruction, which takes two unique arguments: left and right, determining
-    //the direction the operation will shift in
-    private void parseShift() throws Exception {
-        if(handler.matchAndRemove(TokenType.LEFT).isPresent()){
-            instruction.setBit(18, true);
-            instruction.setBit(19, true);
-            instruction.setBit(20, false);
-            instruction.setBit(21, false);
-            parseRegisters();
-        }
-        else if(handler.matchAndRemove(TokenType.RIGHT).isPresent()){
-            instruction.setBit(18, true);
-            instruction.setBit(19, true);
-            instruction.setBit(20, false);
-            instruction.setBit(21, true);
-            parseRegisters();
-        }
+    //Returns the source line (counting from 1) each instruction returned by the last parse() was
+    //parsed from, indexed by address, such as for ProgramImage.of(program, lines)
+    public int[] getLines() {
+        return lines.clone();
     }
 
-    //Parses all the different kinds of boolean operations as specified in the SIA32 document and
-    //then parses the registers that follow it, setting the bits in the instruction accordingly
-    private void parseBop() throws Exception {
-        if(handler.matchAndRemove(TokenType.UNEQUAL).isPresent()){
-            instruction.setBit(18, false);
-            instruction.setBit(19, false);
-            instruction.setBit(20, false);
-            instruction.setBit(21, true);
-        }
-        //Empty since equal requires all 0 bits
-        else if(handler.matchAndRemove(TokenType.EQUAL).isPresent()){}
-        else if(handler.matchAndRemove(TokenType.LESS).isPresent()){
-            instruction.setBit(18, false);
-            instruction.setBit(19, false);
-            instruction.setBit(20, true);
-            instruction.setBit(21, false);
-        }
-        else if(handler.matchAndRemove(TokenType.GEQUAL).isPresent()){
-            instruction.setBit(18, false);
-            instruction.setBit(19, false);
-            instruction.setBit(20, true);
-            instruction.setBit(21, true);
-        }
-        else if(handler.matchAndRemove(TokenType.GREATER).isPresent()){
-            instruction.setBit(18, false);
-            instruction.setBit(19, true);
-            instruction.setBit(20, false);
-            instruction.setBit(21, false);
-        }
-        else if(handler.matchAndRemove(TokenType.LEQUAL).isPresent()){
-            instruction.setBit(18, false);
-            instruction.setBit(19, true);
-            instruction.setBit(20, false);
-            instruction.setBit(21, true);
-        }
-        parseRegisters();
+    //Returns the line of the last separator the last parse() read, which is the number of lines in
+    //a source ending with a new line
+    int lastLine() {
+        return lastLine;
     }
 
-    //Parses all the different kinds of math operations as specified in the SIA32 document and
-    //then parses the registers that follow it, setting the bits in the instruction accordingly
-    private void parseMop() throws Exception {
-        if(handler.matchAndRemove(TokenType.AND).isPresent()){
-            instruction.setBit(18, true);
-            instruction.setBits(19, 21, false);
-        }
-        else if(handler.matchAndRemove(TokenType.OR).isPresent()){
-            instruction.setBit(18, true);
-            instruction.setBits(19, 20, false);
-            instruction.setBit(21, true);
-        }
-        else if(handler.matchAndRemove(TokenType.XOR).isPresent()){
-            instruction.setBit(18, true);
-            instruction.setBit(19, false);
-            instruction.setBit(20, true);
-            instruction.setBit(21, false);
-        }
-        else if(handler.matchAndRemove(TokenType.NOT).isPresent()){
-            instruction.setBit(18, true);
-            instruction.setBit(19, false);
-            instruction.setBit(20, true);
-            instruction.setBit(21, true);
-        }
-        else if(handler.matchAndRemove(TokenType.ADD).isPresent()){
-            instruction.setBits(18, 20, true);
-            instruction.setBit(21, false);
-        }
-        else if(handler.matchAndRemove(TokenType.SUBTRACT).isPresent()){
-            instruction.setBits(18,21, true);
-        }
-        else if(handler.matchAndRemove(TokenType.MULTIPLY).isPresent()){
-            instruction.setBit(18, false);
-            instruction.setBit(19, true);
-            instruction.setBit(20, true);
-            instruction.setBit(21, true);
+    //Parses each type of statement provided with the assembler, including: math, halt, shift, copy,
+    //branch, call, jump, push, load, return, store, peek, pop, interrupt, atomic and fence, and
+    //returns the encoded instruction. An empty statement is a halt, since halt requires all 0 bits in the word
+    private int parseStatement() {
+        Token keyword = handler.remove();
+        if (keyword == null) {
+            return 0;
+        }
+        int type = keyword.getType().ordinal();
+        if (OPERATION[type] < 0) {
+            throw new IllegalArgumentException("Expected an instruction, found " + keyword);
+        }
+        int instruction = OPERATION[type] << 2;
+        switch (OPERANDS[type]) {
+            case NOTHING:
+                return instruction;
+            case REGISTERS:
+                return parseRegisters(instruction);
+            case SHIFT_FUNCTION:
+                //A shift without a direction has nothing else to it
+                Token direction = handler.peek(0);
+                if (direction == null || (FUNCTION_KIND[direction.getType().ordinal()] & SHIFT_FUNCTION) == 0) {
+                    return instruction;
+                }
+                handler.remove();
+                return parseRegisters(instruction | FUNCTION[direction.getType().ordinal()] << 10);
+            default:
+                //The math, boolean or atomic function is optional, leaving the function bits 0
+                //without one
+                Token function = handler.peek(0);
+                if (function != null && (FUNCTION_KIND[function.getType().ordinal()] & OPERANDS[type]) != 0) {
+                    handler.remove();
+                    instruction |= FUNCTION[function.getType().ordinal()] << 10;
+                }
+                return parseRegisters(instruction);
         }
-        parseRegisters();
     }
 
     //Parses for each the different kinds of instruction register formats: no register, destination
     //only, two registers, and three registers. After determining which format we are in and
     //encoding the registers into the instruction, sets the immediate to the given value at the end
-    private void parseRegisters() throws Exception {
-        Optional<Token> register;
-        //Finds the first register in the instruction and encodes it - immediate is handled below
-        if((register = handler.matchAndRemove(TokenType.REGISTER)).isPresent()){
-            encode(register.get(), 22);
-        }
-        //If there are two registers then continue parsing, otherwise parse the immediate value
-        if((register = handler.matchAndRemove(TokenType.REGISTER)).isPresent()){
-            encode(register.get(), 13);
-
-            //Pattern continues below, parsing the next register or otherwise parsing the immediate
-            //value. This will fail if the user does not provide properly formatted input.
-            if((register = handler.matchAndRemove(TokenType.REGISTER)).isPresent()){
-                encode(register.get(), 8);
-                if((register = handler.matchAndRemove(TokenType.NUMBER)).isPresent()){
-                    encode(register.get(), 0, 8);
-                }
-                instruction.setBit(30, true);
-                instruction.setBit(31, false);
-            }
-            else{
-                if((register = handler.matchAndRemove(TokenType.NUMBER)).isPresent()){
-                    encode(register.get(), 0, 13);
-                }
-                instruction.setBit(30, true);
-                instruction.setBit(31, true);
-            }
+    private int parseRegisters(int instruction) {
+        int registers = 0;
+        Token token;
+        while (registers < REGISTER_SHIFT.length && (token = handler.matchAndRemove(TokenType.REGISTER)) != null) {
+            instruction |= field(token, 5) << REGISTER_SHIFT[registers];
+            registers++;
         }
-        //Parses the immediate value if there is one or zero registers
-        else{
-            if((register = handler.matchAndRemove(TokenType.NUMBER)).isPresent()){
-                encode(register.get(), 0, 18);
-            }
-            instruction.setBit(30, false);
-            instruction.setBit(31, true);
-        }
-    }
-
-    //Used to encode the immediate value, from the given start to end range, allowing the processor
-    //to properly read the instruction
-    private void encode(Token number, int start, int end) {
-        int num = Integer.valueOf(number.getValue());
-        int result;
-        int power = end-start-1;
-        for (int i = start; i < end; i++) {
-            result = (int) Math.pow(2, power);
-            if (num >= result) {
-                instruction.setBit(i, true);
-                num -= result;
-            }
-            power--;
+        if ((token = handler.matchAndRemove(TokenType.NUMBER)) != null) {
+            instruction |= field(token, IMMEDIATE_BITS[registers]) << IMMEDIATE_SHIFT[registers];
         }
+        return instruction | FORMAT[registers];
     }
 
-    //Used for quick writing of the register index to the instruction, meaning from the start value
-    //to 5 more bits over
-    public void encode(Token number, int start) {
-        int num = Integer.valueOf(number.getValue());
-        int result;
-        int power = 4;
-        for (int i = start; i < start+5; i++) {
-            result = (int) Math.pow(2, power);
-            if (num >= result) {
-                instruction.setBit(i, true);
-                num -= result;
-            }
-            power--;
-        }
+    //Returns the value of a number or register clamped to what fits in the given number of bits:
+    //negative values are encoded as 0 and values too large as all 1's
+    private static int field(Token number, int bits) {
+        int num = number.getNumber();
+        return Math.max(0, Math.min(num, (1 << bits) - 1));
     }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,305 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//Hardware style performance counters for a processor, given to it with Processor.setCounters().
+//Every retired instruction is counted by its (operation type, format) pair, which is all the engines
+//hand over besides where the instruction went; the memory reads and writes, pushes and pops follow
+//from that the same way for every engine:
+//  - calls, pushes and interrupts push a word (a write), conditional calls only when taken
+//  - returns and pops pop a word, which reads it and clears it (a read and a write)
+//  - loads and peeks read a word, stores write one
+//  - atomics count as one read and one write, however often a fetch and operate has to retry
+//A branch or call counts as taken when it goes anywhere but the next address. Instructions that
+//throw are not retired. On the JIT engine a compiled block is counted once it has run, which is
+//the same as counting each of its instructions.
+//
+//Every interval instructions the wall time of the interval is measured, giving the instructions per
+//second, and an InstructionIntervalEvent is committed to any flight recording that enables it.
+//register() publishes the counters as a platform MXBean. They are only written by the thread
+//running the processor, so other threads reading them may see values that are slightly behind.
+public class PerformanceCounters implements PerformanceCountersMXBean {
+
+    //Instructions per interval when none is given
+    public static final int DEFAULT_INTERVAL = 1_000_000;
+
+    //Words each handler (see FastEngine) reads, writes, and pushes (1) or pops (-1) whenever it runs
+    private static final int[] READS = new int[32];
+    private static final int[] WRITES = new int[32];
+    private static final int[] STACK = new int[32];
+
+    static {
+        for(int handler : new int[]{FastEngine.CALL_NO_REG, FastEngine.CALL_DEST_ONLY, FastEngine.PUSH_DEST_ONLY,
+                FastEngine.PUSH_TWO_REG, FastEngine.PUSH_THREE_REG, FastEngine.POP_NO_REG}){
+            WRITES[handler] = 1;
+            STACK[handler] = 1;
+        }
+        for(int handler : new int[]{FastEngine.LOAD_NO_REG, FastEngine.POP_DEST_ONLY}){
+            READS[handler] = 1;
+            WRITES[handler] = 1;
+            STACK[handler] = -1;
+        }
+        for(int handler : new int[]{FastEngine.LOAD_DEST_ONLY, FastEngine.LOAD_TWO_REG, FastEngine.LOAD_THREE_REG,
+                FastEngine.POP_TWO_REG, FastEngine.POP_THREE_REG}){
+            READS[handler] = 1;
+        }
+        for(int handler : new int[]{FastEngine.STORE_DEST_ONLY, FastEngine.STORE_TWO_REG, FastEngine.STORE_THREE_REG}){
+            WRITES[handler] = 1;
+        }
+        for(int handler : new int[]{FastEngine.ATOMIC_DEST_ONLY, FastEngine.ATOMIC_TWO_REG, FastEngine.ATOMIC_THREE_REG}){
+            READS[handler] = 1;
+            WRITES[handler] = 1;
+        }
+    }
+
+    private final String name;
+    private final int interval;
+
+    //Instructions retired per handler
+    private final long[] retired = new long[32];
+
+    private long instructions;
+    private long taken;
+    private long notTaken;
+    private long reads;
+    private long writes;
+    private long pushes;
+    private long pops;
+    private long maxDepth;
+
+    //Instructions left in the current interval, when it started, and how long the last one took
+    private int remaining;
+    private long intervalStart;
+    private long intervalNanos;
+
+    //The flight recorder event of the current interval, and the totals at its start
+    private InstructionIntervalEvent event;
+    private final long[] eventStart = new long[32];
+    private long eventTaken;
+    private long eventReads;
+    private long eventWrites;
+
+    //Creates counters measuring the wall time of every DEFAULT_INTERVAL instructions
+    public PerformanceCounters(String name){
+        this(name, DEFAULT_INTERVAL);
+    }
+
+    public PerformanceCounters(String name, int interval){
+        if(interval < 1){
+            throw new IllegalArgumentException("The interval must be at least 1 instruction");
+        }
+        this.name = name;
+        this.interval = interval;
+        remaining = interval;
+    }
+
+    //Counts an instruction that was fetched from pc and has been run, leaving the program counter at
+    //next
+    void retire(DecodedInstruction d, int pc, int next){
+        if(event == null){
+            begin(System.nanoTime());
+        }
+        int handler = d.handler;
+        retired[handler]++;
+        instructions++;
+        reads += READS[handler];
+        writes += WRITES[handler];
+        int stack = STACK[handler];
+        if(d.opType == OperationType.BRANCH || d.opType == OperationType.CALL){
+            if(next != pc + 1){
+                taken++;
+                //A conditional call only pushes when it is taken
+                if(handler == FastEngine.CALL_TWO_REG || handler == FastEngine.CALL_THREE_REG){
+                    writes++;
+                    stack = 1;
+                }
+            }
+            else{
+                notTaken++;
+            }
+        }
+        if(stack > 0){
+            pushes++;
+            maxDepth = Math.max(maxDepth, pushes - pops);
+        }
+        else if(stack < 0){
+            pops++;
+        }
+        if(--remaining == 0){
+            end();
+        }
+    }
+
+    //Ends the current interval, measuring it and committing its event
+    private void end(){
+        long now = System.nanoTime();
+        intervalNanos = now - intervalStart;
+        remaining = interval;
+        InstructionIntervalEvent event = this.event;
+        event.end();
+        if(event.shouldCommit()){
+            event.counters = name;
+            event.instructions = interval;
+            event.instructionsPerSecond = getInstructionsPerSecond();
+            event.math = since(OperationType.MATH);
+            event.branch = since(OperationType.BRANCH);
+            event.call = since(OperationType.CALL);
+            event.push = since(OperationType.PUSH);
+            event.load = since(OperationType.LOAD);
+            event.store = since(OperationType.STORE);
+            event.pop = since(OperationType.POP);
+            event.atomic = since(OperationType.ATOMIC);
+            event.takenBranches = taken - eventTaken;
+            event.memoryReads = reads - eventReads;
+            event.memoryWrites = writes - eventWrites;
+            event.stackDepth = getStackDepth();
+            event.commit();
+        }
+        begin(now);
+    }
+
+    //Starts an interval at the given time, along with its event
+    private void begin(long now){
+        intervalStart = now;
+        event = new InstructionIntervalEvent();
+        System.arraycopy(retired, 0, eventStart, 0, retired.length);
+        eventTaken = taken;
+        eventReads = reads;
+        eventWrites = writes;
+        event.begin();
+    }
+
+    //Returns the instructions of the given operation type retired during the current interval
+    private long since(OperationType op){
+        long count = 0;
+        for(int handler = op.ordinal() * 4; handler<op.ordinal() * 4 + 4; handler++){
+            count += retired[handler] - eventStart[handler];
+        }
+        return count;
+    }
+
+    //Publishes the counters as a platform MXBean named
+    //"VirtualProcessor:type=PerformanceCounters,name=<name>"
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName());
+    }
+
+    //Removes the MXBean published by register()
+    public void unregister() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName());
+    }
+
+    private ObjectName objectName() throws JMException {
+        return new ObjectName("VirtualProcessor:type=PerformanceCounters,name=" + ObjectName.quote(name));
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    //Returns the instructions of the given operation type retired so far
+    public long getRetired(OperationType op){
+        long count = 0;
+        for(int handler = op.ordinal() * 4; handler<op.ordinal() * 4 + 4; handler++){
+            count += retired[handler];
+        }
+        return count;
+    }
+
+    //Returns the instructions of the given format retired so far
+    public long getRetired(InstructionType format){
+        long count = 0;
+        for(int handler = format.ordinal(); handler<retired.length; handler += 4){
+            count += retired[handler];
+        }
+        return count;
+    }
+
+    @Override
+    public long getInstructions(){
+        return instructions;
+    }
+
+    @Override
+    public double getInstructionsPerSecond(){
+        return intervalNanos == 0 ? 0 : interval * 1e9 / intervalNanos;
+    }
+
+    @Override
+    public int getInterval(){
+        return interval;
+    }
+
+    @Override
+    public long getIntervalNanos(){
+        return intervalNanos;
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts(){
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for(OperationType op : OperationType.values()){
+            counts.put(op.name(), getRetired(op));
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getFormatCounts(){
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for(InstructionType format : InstructionType.values()){
+            counts.put(format.name(), getRetired(format));
+        }
+        return counts;
+    }
+
+    @Override
+    public long getTakenBranches(){
+        return taken;
+    }
+
+    @Override
+    public long getNotTakenBranches(){
+        return notTaken;
+    }
+
+    @Override
+    public long getMemoryReads(){
+        return reads;
+    }
+
+    @Override
+    public long getMemoryWrites(){
+        return writes;
+    }
+
+    @Override
+    public long getPushes(){
+        return pushes;
+    }
+
+    @Override
+    public long getPops(){
+        return pops;
+    }
+
+    @Override
+    public long getStackDepth(){
+        return pushes - pops;
+    }
+
+    @Override
+    public long getMaxStackDepth(){
+        return maxDepth;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("Counters %s: %d instructions, %s by operation, %s by format, %d taken and %d not taken "
+                + "branches, %d memory reads, %d memory writes, %d pushes, %d pops (deepest %d), %.0f instructions "
+                + "per second", name, instructions, getOperationCounts(), getFormatCounts(), taken, notTaken, reads,
+                writes, pushes, pops, maxDepth, getInstructionsPerSecond());
+    }
+}
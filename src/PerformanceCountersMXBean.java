@@ -0,0 +1,31 @@
+import java.util.Map;
+
+//Management interface of PerformanceCounters, so the counters of a running processor can be read
+//with any JMX client (such as JConsole or a metrics agent) once registered with register()
+public interface PerformanceCountersMXBean {
+
+    //Instructions retired so far
+    long getInstructions();
+
+    //Instructions per second of wall time over the last interval, 0 until one has passed
+    double getInstructionsPerSecond();
+
+    //Instructions per interval, and the wall time the last interval took in nanoseconds
+    int getInterval();
+    long getIntervalNanos();
+
+    //Instructions retired by operation type (MATH, BRANCH...) and by format (NO_REG, DEST_ONLY...)
+    Map<String, Long> getOperationCounts();
+    Map<String, Long> getFormatCounts();
+
+    long getTakenBranches();
+    long getNotTakenBranches();
+    long getMemoryReads();
+    long getMemoryWrites();
+    long getPushes();
+    long getPops();
+
+    //Words pushed and not yet popped, and the most there have been at once
+    long getStackDepth();
+    long getMaxStackDepth();
+}
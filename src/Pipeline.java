@@ -0,0 +1,267 @@
+//Timing model of a classic in-order five stage pipeline - fetch (IF), decode and register read (ID),
+//execute (EX), memory (MEM) and write back (WB) - used by ExecutionMode.PIPELINED. The processor
+//still runs each instruction through its fetch, decode, execute and store steps, so the registers
+//and memory come out exactly as in the reference engine; as each instruction retires it is handed
+//to retire(), which works out the cycle it enters every stage given the instructions before it, as
+//if they had been overlapped in hardware.
+//
+//An instruction enters a stage once it has left the one before and the instruction ahead of it has
+//moved on. Operands are needed at the start of EX. Math results are ready at the end of EX and the
+//word read by a load, pop, peek or atomic at the end of MEM; the forwarding paths decide how soon a
+//later instruction can use them:
+//  - execute forwarding passes a result from the end of EX straight into the next EX
+//  - memory forwarding passes a result from the end of MEM into EX
+//  - without either, the value goes through the register file, written in the first half of WB and
+//    read by ID in the second half
+//When an operand is not ready the instruction waits in ID (a data hazard stall), holding everything
+//behind it. Without a BranchUnit fetching simply goes on to the next address, so a branch, call or
+//return that goes anywhere else flushes the instructions fetched after it; with one, only those
+//whose target it mispredicted do. Branches and calls are resolved at the end of EX and returns
+//(which read their target off the stack) at the end of MEM. The stack pointer is always forwarded,
+//and reading r0 never waits.
+//
+//If the processor runs in a CachedMemory the pipeline can be given its CacheHierarchy, and every
+//cycle an instruction's fetch or data accesses took beyond a level 1 hit is added to IF or MEM.
+//Without one, every memory access takes one cycle.
+public class Pipeline {
+
+    private final boolean executeForwarding;
+    private final boolean memoryForwarding;
+
+    //Caches whose extra cycles stall IF and MEM, and their counters as of the last instruction
+    private CacheHierarchy caches;
+    private long instructionCycles;
+    private long instructionAccesses;
+    private long dataCycles;
+    private long dataAccesses;
+
+    //The cycle the last instruction entered each stage
+    private long fetched;
+    private long decoded;
+    private long executed;
+    private long accessed;
+    private long written;
+
+    //Predicts the branches, null to always fetch the next address
+    private BranchUnit branches;
+
+    //Earliest cycle the next instruction can be fetched, after a flush, and the address of the
+    //branch that caused the last flush
+    private long redirect;
+    private int flushed;
+
+    //Earliest cycle an instruction reading each register can enter EX
+    private final long[] ready = new long[32];
+
+    private long instructions;
+    private long dataStalls;
+    private long controlStalls;
+    private long flushes;
+    private long memoryStalls;
+
+    //Creates a pipeline with both forwarding paths
+    public Pipeline(){
+        this(true, true);
+    }
+
+    public Pipeline(boolean executeForwarding, boolean memoryForwarding){
+        this.executeForwarding = executeForwarding;
+        this.memoryForwarding = memoryForwarding;
+        //The first instruction is fetched in cycle 1
+        fetched = 0;
+        decoded = 1;
+        executed = 1;
+        accessed = 1;
+        written = 1;
+    }
+
+    //Charges the cycles each access beyond a level 1 hit takes in the given caches (null for none)
+    //to the pipeline from the next instruction on
+    public void setCaches(CacheHierarchy caches){
+        this.caches = caches;
+        if(caches != null){
+            instructionCycles = caches.getInstructionCycles();
+            instructionAccesses = accesses(caches.getInstructionCache());
+            dataCycles = caches.getDataCycles();
+            dataAccesses = accesses(caches.getDataCache());
+        }
+    }
+
+    //Predicts branches with the given unit from the next instruction on, or not at all if null
+    public void setBranchUnit(BranchUnit branches){
+        this.branches = branches;
+    }
+
+    public BranchUnit getBranchUnit(){
+        return branches;
+    }
+
+    private static long accesses(Cache cache){
+        return cache.getHits() + cache.getMisses();
+    }
+
+    //Accounts for an instruction that was fetched from pc and has been run, leaving the program
+    //counter at next
+    void retire(DecodedInstruction d, int pc, int next){
+        instructions++;
+        int fetchStall = 0;
+        int memoryStall = 0;
+        if(caches != null){
+            fetchStall = stall(caches.getInstructionCache(), caches.getInstructionCycles() - instructionCycles,
+                    accesses(caches.getInstructionCache()) - instructionAccesses);
+            memoryStall = stall(caches.getDataCache(), caches.getDataCycles() - dataCycles,
+                    accesses(caches.getDataCache()) - dataAccesses);
+            setCaches(caches);
+        }
+        memoryStalls += fetchStall + memoryStall;
+
+        //Each stage waits for the one before it and for the instruction ahead to leave it
+        long sequential = Math.max(fetched + 1, decoded);
+        long fetch = Math.max(sequential, redirect);
+        controlStalls += fetch - sequential;
+        if(fetch > sequential && branches != null){
+            branches.charge(flushed, fetch - sequential);
+        }
+        long decode = Math.max(fetch + 1 + fetchStall, executed);
+        long unstalled = Math.max(decode + 1, accessed);
+        long execute = Math.max(unstalled, operands(d));
+        dataStalls += execute - unstalled;
+        long access = Math.max(execute + 1, written);
+        long write = access + 1 + memoryStall;
+
+        //Results become ready for later instructions as the forwarding allows
+        int rd = destination(d);
+        if(rd != 0){
+            if(memoryResult(d)){
+                ready[rd] = memoryForwarding ? write : write + 1;
+            }
+            else{
+                ready[rd] = executeForwarding ? execute + 1 : memoryForwarding ? write : write + 1;
+            }
+        }
+
+        //Fetching anywhere but where the instruction went flushes what was fetched after it
+        if(control(d) && (branches != null ? !branches.resolve(d, pc, next) : next != pc + 1)){
+            flushes++;
+            flushed = pc;
+            redirect = d.opType == OperationType.LOAD ? write : execute + 1;
+        }
+
+        fetched = fetch;
+        decoded = decode;
+        executed = execute;
+        accessed = access;
+        written = write;
+    }
+
+    //Returns the cycles the given accesses to a level 1 cache took beyond a hit each
+    private static int stall(Cache cache, long cycles, long accesses){
+        return (int)Math.max(0, cycles - accesses * cache.getLatency());
+    }
+
+    //Returns the earliest cycle the instruction's operands are all ready for EX
+    private long operands(DecodedInstruction d){
+        int sources = sources(d) & ~1;
+        long earliest = 0;
+        while(sources != 0){
+            earliest = Math.max(earliest, ready[Integer.numberOfTrailingZeros(sources)]);
+            sources &= sources - 1;
+        }
+        return earliest;
+    }
+
+    //Returns a bit for each register the instruction reads, following Processor.execute() and store()
+    private static int sources(DecodedInstruction d){
+        int rd = 1 << d.rd;
+        int rs1 = 1 << d.rs1;
+        int rs2 = 1 << d.rs2;
+        OperationType op = d.opType;
+        switch(d.instType){
+            case NO_REG:
+                return 0;
+            case DEST_ONLY:
+                return op == OperationType.MATH || op == OperationType.BRANCH || op == OperationType.POP ? 0 : rd;
+            case THREE_REG:
+                if(op == OperationType.CALL || op == OperationType.STORE
+                        || (op == OperationType.ATOMIC && d.function == FastEngine.COMPARE_AND_SWAP)){
+                    return rs1 | rs2 | rd;
+                }
+                return rs1 | rs2;
+            default:
+                return op == OperationType.LOAD || op == OperationType.POP ? rs1 : rs1 | rd;
+        }
+    }
+
+    //Returns the register the instruction writes, 0 if none
+    private static int destination(DecodedInstruction d){
+        if(d.instType == InstructionType.NO_REG){
+            return 0;
+        }
+        OperationType op = d.opType;
+        return op == OperationType.MATH || memoryResult(d) ? d.rd : 0;
+    }
+
+    //Returns true if the instruction's result is read from memory, ready at the end of MEM
+    private static boolean memoryResult(DecodedInstruction d){
+        OperationType op = d.opType;
+        return op == OperationType.LOAD || op == OperationType.POP || op == OperationType.ATOMIC;
+    }
+
+    //Returns true if the instruction can change the program counter: branches, calls, returns and
+    //interrupts
+    private static boolean control(DecodedInstruction d){
+        OperationType op = d.opType;
+        return op == OperationType.BRANCH || op == OperationType.CALL
+                || (d.instType == InstructionType.NO_REG && (op == OperationType.LOAD || op == OperationType.POP));
+    }
+
+    public boolean hasExecuteForwarding(){
+        return executeForwarding;
+    }
+
+    public boolean hasMemoryForwarding(){
+        return memoryForwarding;
+    }
+
+    //Returns the number of instructions retired
+    public long getInstructions(){
+        return instructions;
+    }
+
+    //Returns the cycles from fetching the first instruction to the last one leaving WB
+    public long getCycles(){
+        return instructions == 0 ? 0 : written;
+    }
+
+    //Returns the cycles instructions waited in ID for an operand
+    public long getDataStalls(){
+        return dataStalls;
+    }
+
+    //Returns the number of times the pipeline was flushed
+    public long getFlushes(){
+        return flushes;
+    }
+
+    //Returns the cycles lost to flushes
+    public long getControlStalls(){
+        return controlStalls;
+    }
+
+    //Returns the cycles IF and MEM waited on the caches
+    public long getMemoryStalls(){
+        return memoryStalls;
+    }
+
+    //Returns the average cycles per instruction, 0 before any instruction
+    public double getCPI(){
+        return instructions == 0 ? 0 : (double)getCycles() / instructions;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("Pipeline: %d instructions in %d cycles (CPI %.3f), %d data stall cycles, %d flushes "
+                + "costing %d cycles, %d memory stall cycles", instructions, getCycles(), getCPI(), dataStalls,
+                flushes, controlStalls, memoryStalls);
+    }
+}
@@ -1,5 +1,3 @@
-import java.util.Arrays;
-
 //Processor contains functionality to emulate an actual CPU, using the fetch->decode->execute->store
 //cycle - WIP
 public class Processor {
@@ -7,7 +5,7 @@ public class Processor {
     //Program counter indicates what instruction we read next from memory
     private Word programCounter;
     private Word stackPointer;
-    private Word currentInstruction;
+    private DecodedInstruction decoded;
     private Bit halted;
 
     //These variables are used as intermediate storage between steps, primarily decode()->execute()
@@ -18,34 +16,70 @@ public class Processor {
     private Word function;
     private Word rd;
 
-    //Used to store the result from execute(), used in store()
+    //Used to store the result from execute(), used in store(). The word is reused every cycle, so
+    //store() copies out of it rather than keeping a reference
     private Word result;
 
+    //Scratch word for addresses calculated with the ALU, and an empty word used to clear the stack
+    private Word address;
+    private Word zero;
+
+    //Scratch word holding the word an atomic operation found in memory
+    private Word old;
+
     //Public for testing purposes, represents all registers - the 0th register is not writable based
     //on code in store() to prevent writing
-    public static Word[] r;
+    public Word[] r;
 
-    private enum InstructionType {NO_REG, DEST_ONLY, TWO_REG, THREE_REG};
-    private InstructionType instType;
+    //Memory this processor runs in
+    private final MainMemory memory;
 
-    private enum OperationType {MATH, BRANCH, CALL, PUSH, LOAD, STORE, POP};
+    //Records the state after each cycle, null when tracing is off
+    private Tracer tracer;
+
+    private InstructionType instType;
     private OperationType opType;
 
     private ALU alu;
 
+    //Which engine run() uses, and the fast or JIT engine itself if one was selected
+    private ExecutionMode mode;
+    private FastEngine engine;
+
+    //Times the instructions run in ExecutionMode.PIPELINED, null in every other mode
+    private Pipeline pipeline;
+
+    //Counts the instructions run, null when not counting
+    private PerformanceCounters counters;
 
-    public Processor(){
+    //Samples the instructions run, null when not profiling
+    private Profiler profiler;
+
+
+    public Processor(MainMemory memory){
+        this(memory, ExecutionMode.REFERENCE);
+    }
+
+    public Processor(MainMemory memory, ExecutionMode mode){
+        this.memory = memory;
+        this.mode = mode;
         programCounter = new Word();
         stackPointer = new Word();
         programCounter.set(0);
-        stackPointer.set(1023);
+        //The stack starts at the top of memory and grows down
+        stackPointer.set((int)(memory.size() - 1));
         halted = new Bit(false);
 
+        opcode = new Word();
         immediate = new Word();
         rs1 = new Word();
         rs2 = new Word();
         function = new Word();
         rd = new Word();
+        result = new Word();
+        address = new Word();
+        zero = new Word();
+        old = new Word();
         r = new Word[32];
 
         for(int i = 0; i<32; i++){
@@ -53,115 +87,251 @@ public class Processor {
         }
 
         alu = new ALU();
+        if(mode == ExecutionMode.FAST){
+            engine = new FastEngine(memory);
+        }
+        else if(mode == ExecutionMode.JIT){
+            engine = new JitEngine(memory);
+        }
+        else if(mode == ExecutionMode.PIPELINED){
+            setPipeline(new Pipeline());
+        }
+    }
+
+    //Replaces the pipeline of a processor in ExecutionMode.PIPELINED, such as with one that has
+    //other forwarding paths. When the memory is a CachedMemory the pipeline also waits on its caches
+    public void setPipeline(Pipeline pipeline){
+        if(mode != ExecutionMode.PIPELINED){
+            throw new IllegalStateException("Only a processor in ExecutionMode.PIPELINED has a pipeline");
+        }
+        if(memory instanceof CachedMemory cached){
+            pipeline.setCaches(cached.getCaches());
+        }
+        this.pipeline = pipeline;
+    }
+
+    //Counts every instruction run from now on in the given counters, whatever the engine, or stops
+    //counting if they are null
+    public void setCounters(PerformanceCounters counters){
+        this.counters = counters;
+        if(engine != null){
+            engine.counters = counters;
+        }
+    }
+
+    public PerformanceCounters getCounters(){
+        return counters;
+    }
+
+    //Samples the instructions run from now on with the given profiler, whatever the engine, or stops
+    //profiling if it is null
+    public void setProfiler(Profiler profiler){
+        this.profiler = profiler;
+        if(engine != null){
+            engine.profiler = profiler;
+        }
+    }
+
+    public Profiler getProfiler(){
+        return profiler;
+    }
+
+    //Runs common pairs of instructions as one from now on, counting them in the given fusion, or
+    //stops fusing if it is null. Only the fast and JIT engines fuse instructions
+    public void setFusion(Fusion fusion){
+        if(engine == null){
+            throw new IllegalStateException("Only the fast and JIT engines fuse instructions");
+        }
+        engine.fusion = fusion;
+    }
+
+    public Fusion getFusion(){
+        return engine == null ? null : engine.fusion;
+    }
+
+    //Returns the pipeline timing the instructions run so far, null unless in ExecutionMode.PIPELINED
+    public Pipeline getPipeline(){
+        return pipeline;
+    }
+
+    //Sets the tracer that run() records the state to, null (or a tracer in TraceMode.OFF) for no
+    //tracing
+    public void setTracer(Tracer tracer){
+        this.tracer = tracer == null || tracer.getMode() == TraceMode.OFF ? null : tracer;
+    }
+
+    public MainMemory getMemory(){
+        return memory;
+    }
+
+    public int getProgramCounter(){
+        return programCounter.getSigned();
+    }
+
+    public int getStackPointer(){
+        return stackPointer.getSigned();
+    }
+
+    //Sets where execution starts (or resumes), such as the entry point of a program image
+    public void setProgramCounter(int address){
+        programCounter.set(address);
+    }
+
+    public void setStackPointer(int address){
+        stackPointer.set(address);
+    }
+
+    public boolean isHalted(){
+        return halted.getValue();
+    }
+
+    //Sets whether the processor has halted, such as when restoring a Checkpoint
+    public void setHalted(boolean halted){
+        this.halted.set(halted);
     }
 
     //Main functionality for the processor, fetching, decoding, executing, and then storing the
     //results of instructions
     public void run() throws Exception {
+        if(engine != null){
+            runFast();
+            return;
+        }
+        long cycles = 0;
         while(!halted.getValue()){
+            int pc = programCounter.getSigned();
+            fetch();
+            decode();
+            execute();
+            store();
+            if(pipeline != null){
+                pipeline.retire(decoded, pc, programCounter.getSigned());
+            }
+            if(counters != null){
+                counters.retire(decoded, pc, programCounter.getSigned());
+            }
+            if(profiler != null){
+                profiler.retire(decoded, pc, programCounter.getSigned(), stackPointer.getSigned());
+            }
+            cycles++;
+            if(tracer != null){
+                tracer.record(cycles, programCounter.getSigned(), stackPointer.getSigned(), r);
+            }
+        }
+        if(tracer != null){
+            tracer.halted(cycles, programCounter.getSigned(), stackPointer.getSigned(), r);
+        }
+    }
+
+    //Runs at most the given number of instructions, stopping early on a halt, and returns how many
+    //were run, so the processor can be run a slice at a time (see QuantumScheduler). Nothing is
+    //traced, and the JIT engine only interprets, since compiled blocks cannot stop in the middle.
+    public long run(long limit) throws Exception {
+        if(engine != null){
+            toEngine();
+            try {
+                return engine.execute(limit);
+            } finally {
+                fromEngine();
+            }
+        }
+        long cycles = 0;
+        while(!halted.getValue() && cycles < limit){
+            int pc = programCounter.getSigned();
             fetch();
             decode();
             execute();
             store();
-            //Used for debugging, can be commented out for final build
-            System.out.println(Arrays.toString(r));
+            if(pipeline != null){
+                pipeline.retire(decoded, pc, programCounter.getSigned());
+            }
+            if(counters != null){
+                counters.retire(decoded, pc, programCounter.getSigned());
+            }
+            if(profiler != null){
+                profiler.retire(decoded, pc, programCounter.getSigned(), stackPointer.getSigned());
+            }
+            cycles++;
         }
+        return cycles;
     }
 
-    //Fetches the current instruction from the place in memory where programCounter is pointing for
-    //use in the decode step of the processor
-    public void fetch(){
+    //Runs the program on the fast or JIT engine, copying the registers, program counter and stack pointer
+    //into its ints beforehand and back into the words afterwards. When tracing, the engine is run
+    //in steps of as many instructions as the tracer needs between records - the JIT engine then
+    //only interprets, since compiled blocks cannot stop in the middle.
+    private void runFast(){
+        toEngine();
         try {
-            currentInstruction = MainMemory.read(programCounter);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            if(tracer == null){
+                engine.run();
+            }
+            else{
+                long cycles = 0;
+                int step = tracer.step();
+                while(!engine.halted){
+                    cycles += engine.execute(step);
+                    tracer.record(cycles, engine.programCounter, engine.stackPointer, engine.registers);
+                }
+                tracer.halted(cycles, engine.programCounter, engine.stackPointer, engine.registers);
+            }
+        } finally {
+            fromEngine();
         }
-        programCounter = programCounter.increment();
     }
 
-    //Decodes the instruction according to the first two bits in the opcode, storing the bits in
-    //our intermediate storage variables for use in the execute step of the processor; refer to the
-    //SIA 32 document for further information on the architecture of instructions.
-    public void decode(){
-        Word mask = new Word();
-        mask.setBits(27, 31, true);
-        opcode = currentInstruction.and(mask);
-
-        //The following determines what kind of operation is being performed, used in execute and
-        //store
-        boolean[] opBits = new boolean[]{opcode.getBitValue(27), opcode.getBitValue(28),
-                opcode.getBitValue(29)};
-        if(!opBits[0] && !opBits[1] && !opBits[2])
-            opType = OperationType.MATH;
-        else if(!opBits[0] && !opBits[1] && opBits[2])
-            opType = OperationType.BRANCH;
-        else if(!opBits[0] && opBits[1] && !opBits[2])
-            opType = OperationType.CALL;
-        else if(!opBits[0] && opBits[1] && opBits[2])
-            opType = OperationType.PUSH;
-        else if(opBits[0] && !opBits[1] && !opBits[2])
-            opType = OperationType.LOAD;
-        else if(opBits[0] && !opBits[1] && opBits[2])
-            opType = OperationType.STORE;
-        else if(opBits[0] && opBits[1] && !opBits[2])
-            opType = OperationType.POP;
-
-        //The following code sets the intermediate variables according to the opcode, using a mask
-        //to get each of the individual sets of bits and store them in the appropriate intermediate
-        //storage variables (immediate, rs1, rs2, function, rd).
-
-        //00: A no register operation, we only set the opcode and the immediate value
-        if(!opcode.getBitValue(30) && !opcode.getBitValue(31)){
-            mask = mask.not();
-            mask.setBit(29, new Bit(false));
-            mask.setBit(28, new Bit(false));
-            mask.setBit(27, new Bit(false));
-            immediate = currentInstruction.and(mask).rightShift(5);
-            instType = InstructionType.NO_REG;
-            return;
+    //Copies the registers, program counter, stack pointer, halted bit and the result an interrupt
+    //goes to into the engine's ints
+    private void toEngine(){
+        for(int i = 0; i<32; i++){
+            engine.registers[i] = r[i].getSigned();
         }
-        //10 and 01 and 11: For conciseness, this sets the rd and function for the next opcodes
-        if(opcode.getBitValue(30) || opcode.getBitValue(31)){
-            mask = new Word();
-            mask.setBits(22, 27, true);
-            rd = currentInstruction.and(mask).rightShift(5);
+        engine.programCounter = programCounter.getSigned();
+        engine.stackPointer = stackPointer.getSigned();
+        engine.halted = halted.getValue();
+        engine.result = result.getSigned();
+    }
 
-            mask = new Word();
-            mask.setBits(18, 22, true);
-            function = currentInstruction.and(mask).rightShift(10);
-        }
-        //01: Destination only operation
-        if(!opcode.getBitValue(30) && opcode.getBitValue(31)){
-            mask = new Word();
-            mask.setBits(0, 18, true);
-            immediate = currentInstruction.and(mask).rightShift(14);
-            instType = InstructionType.DEST_ONLY;
+    //Copies the engine's state back into the words
+    private void fromEngine(){
+        for(int i = 0; i<32; i++){
+            r[i].set(engine.registers[i]);
         }
-        //10: Three register operation
-        else if(opcode.getBitValue(30) && !opcode.getBitValue(31)){
-            mask = new Word();
-            mask.setBits(13, 18, true);
-            rs2 =  currentInstruction.and(mask).rightShift(14);
+        programCounter.set(engine.programCounter);
+        stackPointer.set(engine.stackPointer);
+        halted.set(engine.halted);
+        result.set(engine.result);
+    }
 
-            mask = new Word();
-            mask.setBits(8, 13, true);
-            rs1 =  currentInstruction.and(mask).rightShift(19);
+    //Fetches the current instruction from the place in memory where programCounter is pointing for
+    //use in the decode step of the processor. The instruction is only read once, as its decoded form,
+    //so a CachedMemory sees a single instruction fetch
+    public void fetch(){
+        decoded = memory.decode(programCounter);
+        programCounter = programCounter.increment();
+    }
 
-            mask = new Word();
-            mask.setBits(0, 8, true);
-            immediate =  currentInstruction.and(mask).rightShift(24);
-            instType = InstructionType.THREE_REG;
+    //Decodes the instruction according to the first two bits in the opcode, storing the bits in
+    //our intermediate storage variables for use in the execute step of the processor. The masking
+    //itself is done once per memory word by DecodedInstruction, see there and the SIA 32 document
+    //for further information on the architecture of instructions.
+    public void decode(){
+        opcode.set(decoded.opcode);
+        opType = decoded.opType;
+        instType = decoded.instType;
+
+        //Only the fields that the format actually holds are updated
+        immediate.set(decoded.immediate);
+        if(instType != InstructionType.NO_REG){
+            rd.set(decoded.rd);
+            function.set(decoded.function);
         }
-        //11: Two register operation
-        else if(opcode.getBitValue(30) && opcode.getBitValue(31)){
-            mask = new Word();
-            mask.setBits(13, 18, true);
-            rs1 =  currentInstruction.and(mask).rightShift(14);
-
-            mask = new Word();
-            mask.setBits(0, 13, true);
-            immediate = currentInstruction.and(mask).rightShift(19);
-            instType = InstructionType.TWO_REG;
+        if(instType == InstructionType.THREE_REG){
+            rs2.set(decoded.rs2);
+            rs1.set(decoded.rs1);
+        }
+        else if(instType == InstructionType.TWO_REG){
+            rs1.set(decoded.rs1);
         }
     }
 
@@ -174,11 +344,9 @@ public class Processor {
     //100 - load
     //101 - store
     //110 - pop/interrupt
+    //111 - atomic/fence
     public void execute() throws Exception {
-        Bit[] funcOp = new Bit[]{function.getBit(28), function.getBit(29),
-                function.getBit(30), function.getBit(31)};
-        Bit[] addOp = new Bit[]{new Bit(true), new Bit(true),
-                new Bit(true), new Bit(false)};
+        int funcOp = function.getSigned() & 0xF;
         //If the opcode is "00000" then we set the halted bit to indicate the processor should stop
         for(int i = 27; i<32; i++){
             if(!opcode.getBitValue(i)){
@@ -200,15 +368,15 @@ public class Processor {
         //Stores a value in a register or performs a math operation between two registers
         if(opType == OperationType.MATH){
             if(instType == InstructionType.DEST_ONLY){
-                result = immediate;
+                result.copy(immediate);
             }
             //Uses the value at the register destination and rs1 (stores back into rd in store())
             else if(instType == InstructionType.TWO_REG){
-                result = mop(r[(int)rd.getUnsigned()], r[(int)rs1.getUnsigned()], funcOp);
+                mop(r[(int)rd.getUnsigned()], r[(int)rs1.getUnsigned()], funcOp, result);
             }
             //Uses rs1 and rs2 for the values of the ALU
             else if(instType == InstructionType.THREE_REG){
-                result = mop(r[(int)rs1.getUnsigned()], r[(int)rs2.getUnsigned()], funcOp);
+                mop(r[(int)rs1.getUnsigned()], r[(int)rs2.getUnsigned()], funcOp, result);
             }
         }
 
@@ -218,27 +386,27 @@ public class Processor {
 
             //Equivalent to goto in C
             if(instType == InstructionType.NO_REG){
-                result = immediate;
+                result.copy(immediate);
             }
             else if(instType == InstructionType.DEST_ONLY){
-                result = mop(programCounter, immediate, addOp);
+                mop(programCounter, immediate, ALU.ADD, result);
             }
 
             //Performs a boolean op. to determine where to set the programCounter
             else if(instType == InstructionType.THREE_REG){
                 if(bop(r[(int)rs1.getUnsigned()], r[(int)rs2.getUnsigned()])){
-                    result = mop(programCounter, immediate, addOp);
+                    mop(programCounter, immediate, ALU.ADD, result);
                 }
                 else{
-                    result = programCounter;
+                    result.copy(programCounter);
                 }
             }
             else if(instType == InstructionType.TWO_REG){
                 if(bop(r[(int)rs1.getUnsigned()], r[(int)rd.getUnsigned()])){
-                    result = mop(programCounter, immediate, addOp);
+                    mop(programCounter, immediate, ALU.ADD, result);
                 }
                 else{
-                    result = programCounter;
+                    result.copy(programCounter);
                 }
             }
         }
@@ -246,29 +414,29 @@ public class Processor {
         //Similar to branch except it pushes the programCounter onto the stack to pop later (return)
         else if(opType == OperationType.CALL){
             if(instType == InstructionType.NO_REG){
-                result = immediate;
+                result.copy(immediate);
             }
             else if(instType == InstructionType.DEST_ONLY){
-                result = mop(r[(int) rd.getUnsigned()], immediate, addOp);
+                mop(r[(int) rd.getUnsigned()], immediate, ALU.ADD, result);
             }
 
             //Conditional call will only jump if the condition is true
             else if(instType == InstructionType.THREE_REG){
                 if(bop(r[(int)rs1.getUnsigned()], r[(int)rs2.getUnsigned()])){
                     push(programCounter);
-                    result = mop(r[(int)rd.getUnsigned()], immediate, addOp);
+                    mop(r[(int)rd.getUnsigned()], immediate, ALU.ADD, result);
                 }
                 else{
-                    result = programCounter;
+                    result.copy(programCounter);
                 }
             }
             else if(instType == InstructionType.TWO_REG){
                 if(bop(r[(int)rs1.getUnsigned()], r[(int)rd.getUnsigned()])){
                     push(programCounter);
-                    result = mop(programCounter, immediate, addOp);
+                    mop(programCounter, immediate, ALU.ADD, result);
                 }
                 else{
-                    result = programCounter;
+                    result.copy(programCounter);
                 }
             }
         }
@@ -276,13 +444,13 @@ public class Processor {
         //Pushes the given register onto the memory stack
         else if(opType == OperationType.PUSH){
             if(instType == InstructionType.DEST_ONLY){
-                result = mop(r[(int) rd.getUnsigned()], immediate, funcOp);
+                mop(r[(int) rd.getUnsigned()], immediate, funcOp, result);
             }
             else if(instType == InstructionType.THREE_REG) {
-                result = mop(r[(int) rs1.getUnsigned()], r[(int) rs2.getUnsigned()], funcOp);
+                mop(r[(int) rs1.getUnsigned()], r[(int) rs2.getUnsigned()], funcOp, result);
             }
             else if(instType == InstructionType.TWO_REG){
-                result = mop(r[(int) rd.getUnsigned()], r[(int) rs1.getUnsigned()], funcOp);
+                mop(r[(int) rd.getUnsigned()], r[(int) rs1.getUnsigned()], funcOp, result);
             }
         }
 
@@ -290,32 +458,32 @@ public class Processor {
         //register
         else if(opType == OperationType.LOAD){
             if(instType == InstructionType.NO_REG){
-                result = pop();
+                pop(result);
             }
             else if(instType == InstructionType.DEST_ONLY){
-                Word address = mop(r[(int) rd.getUnsigned()], immediate, addOp);
-                result = MainMemory.read(address);
+                mop(r[(int) rd.getUnsigned()], immediate, ALU.ADD, address);
+                memory.read(address, result);
             }
             else if(instType == InstructionType.THREE_REG){
-                Word address = mop(r[(int)rs1.getUnsigned()], r[(int)rs2.getUnsigned()], addOp);
-                result = MainMemory.read(address);
+                mop(r[(int)rs1.getUnsigned()], r[(int)rs2.getUnsigned()], ALU.ADD, address);
+                memory.read(address, result);
             }
             else if(instType == InstructionType.TWO_REG){
-                Word address = mop(r[(int)rs1.getUnsigned()], immediate, addOp);
-                result = MainMemory.read(address);
+                mop(r[(int)rs1.getUnsigned()], immediate, ALU.ADD, address);
+                memory.read(address, result);
             }
         }
 
         //Stores the given value into memory at a location of the users choosing
         else if(opType == OperationType.STORE){
             if(instType == InstructionType.DEST_ONLY){
-                result = immediate;
+                result.copy(immediate);
             }
             else if(instType == InstructionType.THREE_REG){
-                result = r[(int)rs2.getUnsigned()];
+                result.copy(r[(int)rs2.getUnsigned()]);
             }
             else if(instType == InstructionType.TWO_REG){
-                result = r[(int)rs1.getUnsigned()];
+                result.copy(r[(int)rs1.getUnsigned()]);
             }
         }
 
@@ -323,41 +491,86 @@ public class Processor {
         //offset from the stackPointer
         else if(opType == OperationType.POP){
             if(instType == InstructionType.DEST_ONLY){
-                result = pop();
+                pop(result);
+            }
+            else if(instType == InstructionType.THREE_REG){
+                mop(r[(int)rs1.getUnsigned()], r[(int)rs2.getUnsigned()], ALU.ADD, address);
+                memory.read(mop(stackPointer, address, ALU.ADD, address), result);
+            }
+            else if(instType == InstructionType.TWO_REG){
+                mop(r[(int)rs1.getUnsigned()], immediate, ALU.ADD, address);
+                memory.read(mop(stackPointer, address, ALU.ADD, address), result);
+            }
+        }
+
+        //Reads and writes a word of memory as one indivisible step, even with other cores running in
+        //the same memory (see MultiProcessor). The address is the last register plus the immediate,
+        //or just the immediate, and the word it held is stored into rd. Without registers it is a
+        //fence
+        else if(opType == OperationType.ATOMIC){
+            if(instType == InstructionType.NO_REG){
+                memory.fence();
+            }
+            else if(instType == InstructionType.DEST_ONLY){
+                address.copy(immediate);
+                atomic(r[(int)rd.getUnsigned()], funcOp);
             }
             else if(instType == InstructionType.THREE_REG){
-                Word temp = mop(r[(int)rs1.getUnsigned()], r[(int)rs2.getUnsigned()], addOp);
-                result = MainMemory.read(mop(stackPointer, temp, addOp));
+                mop(r[(int)rs1.getUnsigned()], immediate, ALU.ADD, address);
+                atomic(r[(int)rs2.getUnsigned()], funcOp);
             }
             else if(instType == InstructionType.TWO_REG){
-                Word temp = mop(r[(int)rs1.getUnsigned()], immediate, addOp);
-                result = MainMemory.read(mop(stackPointer, temp, addOp));
+                mop(r[(int)rs1.getUnsigned()], immediate, ALU.ADD, address);
+                atomic(r[(int)rd.getUnsigned()], funcOp);
+            }
+        }
+    }
+
+    //Helper method for the atomic operations on the word at address, leaving the word it held in
+    //result. Compare and swap writes operand only if the word equals rd, swap always writes operand,
+    //and any other function is done by the ALU on the word and operand - if another core changes the
+    //word in the meantime, the operation is done again on the new word
+    private void atomic(Word operand, int funcOp){
+        int location = address.getSigned();
+        if(funcOp == FastEngine.COMPARE_AND_SWAP){
+            result.set(memory.compareAndExchange(location, r[(int)rd.getUnsigned()].getSigned(), operand.getSigned()));
+        }
+        else if(funcOp == FastEngine.SWAP){
+            result.set(memory.getAndSet(location, operand.getSigned()));
+        }
+        else{
+            memory.read(address, old);
+            while(true){
+                mop(old, operand, funcOp, result);
+                int witness = memory.compareAndExchange(location, old.getSigned(), result.getSigned());
+                if(witness == old.getSigned()){
+                    break;
+                }
+                old.set(witness);
             }
+            result.copy(old);
         }
     }
 
-    //Helper method for code reuse, prepares the ALU and then performs the given function, returning
-    //the result
-    private Word mop(Word op1, Word op2, Bit[] function){
+    //Helper method for code reuse, prepares the ALU and then performs the given function, writing
+    //the result into target and returning it
+    private Word mop(Word op1, Word op2, int function, Word target){
         alu.op1 = op1;
         alu.op2 = op2;
-        alu.doOperation(function);
-        return alu.result;
+        alu.doOperation(function, target);
+        return target;
     }
 
     //Helper method to determine what boolean operation to use and increase code readability, uses
     //subtraction between two words to compare them (e.g. if the result is 0 they are equivalent)
     private boolean bop(Word op1, Word op2){
-        boolean[] bits = new boolean[]{function.getBitValue(28), function.getBitValue(29),
-                function.getBitValue(30), function.getBitValue(31)};
-        Bit[] subOp = new Bit[]{new Bit(true), new Bit(true),
-                new Bit(true), new Bit(true)};
+        int code = function.getSigned() & 0xF;
 
         //Equals: checks if all the bits are 0 to ensure equality
-        if(!bits[0] && !bits[1] && !bits[2] && !bits[3]){
+        if(code == 0b0000){
             alu.op1 = op1;
             alu.op2 = op2;
-            alu.doOperation(subOp);
+            alu.doOperation(ALU.SUBTRACT);
             for(int i = 0; i<32; i++){
                 if(alu.result.getBitValue(i)){
                     return false;
@@ -367,10 +580,10 @@ public class Processor {
         }
 
         //Not Equal: Opposite of equals, checks if there is at least one 1 to indicate not equals
-        else if(!bits[0] && !bits[1] && !bits[2] && bits[3]){
+        else if(code == 0b0001){
             alu.op1 = op1;
             alu.op2 = op2;
-            alu.doOperation(subOp);
+            alu.doOperation(ALU.SUBTRACT);
             for(int i = 0; i<32; i++){
                 if(alu.result.getBitValue(i)){
                     return true;
@@ -380,19 +593,19 @@ public class Processor {
         }
 
         //Less Than: if the first bit is a 1 (indicating it is negative) then it is less than
-        else if(!bits[0] && !bits[1] && bits[2] && !bits[3]){
+        else if(code == 0b0010){
             alu.op1 = op1;
             alu.op2 = op2;
-            alu.doOperation(subOp);
+            alu.doOperation(ALU.SUBTRACT);
             return alu.result.getBitValue(0);
         }
 
         //Greater Than or Equal: first checks if a reversed subtraction is negative, if not then
         //checks for equality
-        else if(!bits[0] && !bits[1] && bits[2] && bits[3]){
+        else if(code == 0b0011){
             alu.op1 = op2;
             alu.op2 = op1;
-            alu.doOperation(subOp);
+            alu.doOperation(ALU.SUBTRACT);
             if(alu.result.getBitValue(0)){
                 return true;
             }
@@ -407,18 +620,18 @@ public class Processor {
         }
 
         //Greater Than: Same as less than except the operation is reversed (op2 - op1)
-        else if(!bits[0] && bits[1] && !bits[2] && !bits[3]){
+        else if(code == 0b0100){
             alu.op1 = op2;
             alu.op2 = op1;
-            alu.doOperation(subOp);
+            alu.doOperation(ALU.SUBTRACT);
             return alu.result.getBitValue(0);
         }
 
         //Less Than or Equal: Same as greater than or equal except the operation is reversed
-        else if(!bits[0] && bits[1] && !bits[2] && bits[3]){
+        else if(code == 0b0101){
             alu.op1 = op1;
             alu.op2 = op2;
-            alu.doOperation(subOp);
+            alu.doOperation(ALU.SUBTRACT);
             if(alu.result.getBitValue(0)){
                 return true;
             }
@@ -437,25 +650,22 @@ public class Processor {
     //Helper method for code readability, simply pushes the given word on to the stack and
     //decrements the stack pointer
     private void push(Word word) throws Exception {
-        MainMemory.write(stackPointer, word);
+        memory.write(stackPointer, word);
         stackPointer = stackPointer.decrement();
     }
 
-    //Helper method for code readability, increments the stack pointer and reads the first value off
-    //the stack, replacing the read word with an empty word
-    private Word pop() throws Exception{
+    //Helper method for code readability, increments the stack pointer and copies the first value off
+    //the stack into target, replacing the read word with an empty word
+    private void pop(Word target) throws Exception{
         stackPointer = stackPointer.increment();
-        Word retVal = MainMemory.read(stackPointer);
-        MainMemory.write(stackPointer, new Word());
-        return retVal;
+        memory.read(stackPointer, target);
+        memory.write(stackPointer, zero);
     }
 
     //Stores the result (as calculated in execute()) into a register, memory location, or program
     //counter as indicated by the operation type. The following is briefly annotated for quick
     //reference. See the SIA32 document for more information.
     public void store() throws Exception {
-        Bit[] addOp = new Bit[]{new Bit(true), new Bit(true),
-                new Bit(true), new Bit(false)};
         //Calculates the register number rd represents for use in many of the store operations
         int regNum = 0;
         for(int i = 27; i<32; i++){
@@ -468,23 +678,23 @@ public class Processor {
         if(opType == OperationType.MATH){
             if(instType == InstructionType.NO_REG){}
             else if(regNum!=0){
-                r[regNum] = result;
+                r[regNum].copy(result);
             }
         }
 
         //Branch: sets the program counter to the result for the next clock cycle
         else if(opType == OperationType.BRANCH){
-            programCounter = result;
+            programCounter.copy(result);
         }
 
         //Call: Pushes the program counter onto the stack to return back with load/pop
         else if(opType == OperationType.CALL){
             if(instType == InstructionType.DEST_ONLY || instType == InstructionType.NO_REG){
                 push(programCounter);
-                programCounter = result;
+                programCounter.copy(result);
             }
             else{
-                programCounter = result;
+                programCounter.copy(result);
             }
         }
 
@@ -499,11 +709,11 @@ public class Processor {
         //set the given register accordingly
         else if(opType == OperationType.LOAD){
             if(instType == InstructionType.NO_REG){
-                programCounter = result;
+                programCounter.copy(result);
             }
             else{
                 if(regNum!=0){
-                    r[regNum] = result;
+                    r[regNum].copy(result);
                 }
             }
         }
@@ -512,25 +722,33 @@ public class Processor {
         //if necessary to find said location
         else if(opType == OperationType.STORE){
             if(instType == InstructionType.DEST_ONLY){
-                MainMemory.write(r[regNum], result);
+                memory.write(r[regNum], result);
             }
             else if(instType == InstructionType.THREE_REG){
-                MainMemory.write(mop(r[(int)rs1.getUnsigned()], r[(int)rd.getUnsigned()], addOp), result);
+                memory.write(mop(r[(int)rs1.getUnsigned()], r[(int)rd.getUnsigned()], ALU.ADD, address), result);
             }
             else if(instType == InstructionType.TWO_REG){
-                MainMemory.write(mop(r[(int)rd.getUnsigned()], immediate, addOp), result);
+                memory.write(mop(r[(int)rd.getUnsigned()], immediate, ALU.ADD, address), result);
             }
         }
 
-        //Pop/Interrupt/Peek: if it is an interrupt [WIP - fill in when done], otherwise just set
-        //the register according to what was popped off the stack
+        //Pop/Interrupt/Peek: an interrupt pushes the program counter and goes to the result the
+        //instruction before it left, otherwise just set the register according to what was popped
+        //off the stack
         else if(opType == OperationType.POP){
             if(instType == InstructionType.NO_REG){
                 push(programCounter);
-                programCounter = result;
+                programCounter.copy(result);
             }
             else{
-                r[regNum] = result;
+                r[regNum].copy(result);
+            }
+        }
+
+        //Atomic: execute() already wrote memory, here the word it held goes into the register
+        else if(opType == OperationType.ATOMIC){
+            if(instType != InstructionType.NO_REG && regNum != 0){
+                r[regNum].copy(result);
             }
         }
     }
@@ -0,0 +1,270 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+//Sampling profiler for the program running on a processor, given to it with Processor.setProfiler().
+//Every period instructions - or for a timed profiler, at the first instruction after every period
+//of wall time - the instruction being run is sampled, and counted:
+//  - by its address, giving the hottest instructions
+//  - by the basic block it is in. A block starts wherever execution went other than the next
+//    address, and right after every branch and call
+//  - by the call stack it was run in. Calls (taken conditional ones too) and interrupts start a
+//    frame named after the address they went to, which lasts until the stack pointer moves back
+//    above the return address they pushed, whether by a return or a pop
+//Given the ProgramImage the program was loaded from, addresses are also shown as the source lines
+//they were assembled from when the image has them (see Assembler.assembleImage()). report() lists
+//the hottest instructions and blocks, and writeCollapsed() writes the call stacks in the collapsed
+//format flame graph tools such as flamegraph.pl read.
+//
+//Sampling every period instructions is deterministic. A period sharing a factor with the length of
+//a loop keeps landing on the same few instructions of it, hence the prime DEFAULT_PERIOD. The call
+//stack has to be followed on every instruction, so the JIT engine only interprets while profiling.
+public class Profiler implements AutoCloseable {
+
+    //Instructions between samples when none is given
+    public static final int DEFAULT_PERIOD = 1009;
+
+    //Calls nested deeper than this are left out of the call stack
+    static final int MAX_DEPTH = 4096;
+
+    private final ProgramImage image;
+    private final int period;
+
+    //Wall time between samples of a timed profiler, 0 when sampling by instructions, and the thread
+    //that marks each sample as due
+    private final long nanos;
+    private final ScheduledExecutorService timer;
+    private volatile boolean due;
+
+    //Instructions left until the next sample
+    private int remaining;
+
+    //Start of the block being run, and whether the next instruction starts a new one
+    private int block;
+    private boolean blockEnded = true;
+
+    //The call stack: the address each frame was called at, and the stack pointer just below the
+    //return address it pushed
+    private int[] frames = new int[16];
+    private int[] framePointers = new int[16];
+    private int depth;
+
+    private long samples;
+    private final Histogram instructions = new Histogram();
+    private final Histogram blocks = new Histogram();
+
+    //Samples per call stack, in collapsed form
+    private final Map<String, long[]> stacks = new HashMap<>();
+
+    //Samples every DEFAULT_PERIOD instructions
+    public Profiler(ProgramImage image){
+        this(image, DEFAULT_PERIOD);
+    }
+
+    //Samples every period instructions. The image gives the source lines, and can be null
+    public Profiler(ProgramImage image, int period){
+        if(period < 1){
+            throw new IllegalArgumentException("The period must be at least 1 instruction");
+        }
+        this.image = image;
+        this.period = period;
+        this.nanos = 0;
+        this.timer = null;
+        remaining = period;
+    }
+
+    private Profiler(ProgramImage image, long nanos){
+        if(nanos < 1){
+            throw new IllegalArgumentException("The period must be at least 1 nanosecond");
+        }
+        this.image = image;
+        this.period = 0;
+        this.nanos = nanos;
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Profiler timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(() -> due = true, nanos, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    //Creates a profiler sampling every period of wall time, which runs a timer thread until closed
+    public static Profiler timed(ProgramImage image, long period, TimeUnit unit){
+        return new Profiler(image, unit.toNanos(period));
+    }
+
+    //Stops the timer of a timed profiler, leaving what it sampled
+    @Override
+    public void close(){
+        if(timer != null){
+            timer.shutdownNow();
+        }
+    }
+
+    //Accounts for an instruction that was fetched from pc and has been run, leaving the program
+    //counter at next and the stack pointer at sp
+    void retire(DecodedInstruction d, int pc, int next, int sp){
+        if(blockEnded){
+            block = pc;
+            blockEnded = false;
+        }
+        if(nanos == 0 ? --remaining == 0 : due){
+            sample(pc);
+        }
+        if(d.opType == OperationType.BRANCH || d.opType == OperationType.CALL || next != pc + 1){
+            blockEnded = true;
+        }
+
+        //Frames whose return address has been popped have ended
+        while(depth > 0 && Integer.compareUnsigned(sp, framePointers[depth - 1]) > 0){
+            depth--;
+        }
+        //Calls push the address after them, conditional ones only when taken, and so do interrupts
+        boolean called = d.opType == OperationType.CALL
+                ? (d.handler == FastEngine.CALL_NO_REG || d.handler == FastEngine.CALL_DEST_ONLY || next != pc + 1)
+                : d.handler == FastEngine.POP_NO_REG;
+        if(called && depth < MAX_DEPTH){
+            if(depth == frames.length){
+                frames = Arrays.copyOf(frames, depth * 2);
+                framePointers = Arrays.copyOf(framePointers, depth * 2);
+            }
+            frames[depth] = next;
+            framePointers[depth] = sp;
+            depth++;
+        }
+    }
+
+    //Counts a sample of the instruction at pc
+    private void sample(int pc){
+        remaining = period;
+        due = false;
+        samples++;
+        instructions.add(pc);
+        blocks.add(block);
+        StringBuilder stack = new StringBuilder("main");
+        for(int i = 0; i<depth; i++){
+            stack.append(';').append(label(frames[i]));
+        }
+        stack.append(';').append(label(pc));
+        stacks.computeIfAbsent(stack.toString(), key -> new long[1])[0]++;
+    }
+
+    //Names an address in a call stack: "line<source line>@<address>", or "@<address>" without lines
+    private String label(int address){
+        int line = line(address);
+        String unsigned = Integer.toUnsignedString(address);
+        return line == 0 ? "@" + unsigned : "line" + line + "@" + unsigned;
+    }
+
+    //Returns the source line of the given address, or 0 if not known
+    private int line(int address){
+        return image == null ? 0 : image.getLine(address);
+    }
+
+    //Returns the number of samples taken
+    public long getSamples(){
+        return samples;
+    }
+
+    //Returns the number of samples of the instruction at the given address
+    public long getSamples(int address){
+        return instructions.get(address);
+    }
+
+    //Returns the number of samples of the block starting at the given address
+    public long getBlockSamples(int address){
+        return blocks.get(address);
+    }
+
+    //Returns the samples of each call stack in collapsed form: frames from the outermost separated
+    //by ';', the last being the sampled instruction
+    public Map<String, Long> getStacks(){
+        Map<String, Long> collapsed = new TreeMap<>();
+        for(Map.Entry<String, long[]> entry : stacks.entrySet()){
+            collapsed.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return collapsed;
+    }
+
+    //Writes the call stacks as collapsed stacks, one line each of the frames and then the number of
+    //samples, such as for "flamegraph.pl <file> > profile.svg"
+    public void writeCollapsed(Path file) throws IOException {
+        try(BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)){
+            for(Map.Entry<String, Long> entry : getStacks().entrySet()){
+                writer.write(entry.getKey());
+                writer.write(' ');
+                writer.write(Long.toString(entry.getValue()));
+                writer.newLine();
+            }
+        }
+    }
+
+    //Returns the number of samples followed by the given number of the most sampled instructions and
+    //blocks, each with its source line (0 if not known)
+    public String report(int top){
+        StringBuilder builder = new StringBuilder(toString());
+        builder.append(String.format("%nHottest instructions:%n%10s %8s %12s %8s", "address", "line", "samples", "share"));
+        table(builder, instructions, top);
+        builder.append(String.format("%nHottest blocks:%n%10s %8s %12s %8s", "start", "line", "samples", "share"));
+        table(builder, blocks, top);
+        return builder.toString();
+    }
+
+    private void table(StringBuilder builder, Histogram histogram, int top){
+        for(int number : histogram.top(top)){
+            int address = histogram.addresses.address(number);
+            long count = histogram.counts[number];
+            builder.append(String.format("%n%10s %8d %12d %7.2f%%", Integer.toUnsignedString(address), line(address),
+                    count, 100.0 * count / samples));
+        }
+    }
+
+    @Override
+    public String toString(){
+        return String.format("Profile: %d samples, one every %s", samples,
+                nanos == 0 ? period + " instructions" : nanos / 1000 + " microseconds");
+    }
+
+    //Samples per address, by the number the table gave the address
+    private static class Histogram {
+
+        private final AddressTable addresses = new AddressTable();
+        private long[] counts = new long[32];
+
+        void add(int address){
+            int number = addresses.add(address);
+            if(number == counts.length){
+                counts = Arrays.copyOf(counts, number * 2);
+            }
+            counts[number]++;
+        }
+
+        long get(int address){
+            int number = addresses.find(address);
+            return number < 0 ? 0 : counts[number];
+        }
+
+        //Returns the numbers of the given number of most sampled addresses, most first (then lowest
+        //address first)
+        List<Integer> top(int top){
+            List<Integer> numbers = new ArrayList<>(addresses.size());
+            for(int i = 0; i<addresses.size(); i++){
+                numbers.add(i);
+            }
+            numbers.sort((a, b) -> counts[a] != counts[b] ? Long.compare(counts[b], counts[a])
+                    : Integer.compareUnsigned(addresses.address(a), addresses.address(b)));
+            return numbers.subList(0, Math.min(top, numbers.size()));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+//Reads and writes program images as text, one instruction per line written as 32 '0'/'1'
+//characters with the left most bit first - the form the parser used to write to output.txt
+public class ProgramFile {
+
+    //Writes the program to the given file, replacing it if it exists
+    public static void writeText(int[] program, Path file) throws IOException {
+        char[] line = new char[32];
+        try(BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)){
+            for(int instruction : program){
+                for(int i = 0; i<32; i++){
+                    line[i] = (instruction >>> (31 - i) & 1) == 0 ? '0' : '1';
+                }
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+    }
+
+    //Reads a program written by writeText()
+    public static int[] readText(Path file) throws IOException {
+        int[] program = new int[64];
+        int length = 0;
+        try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII)){
+            String line;
+            while((line = reader.readLine()) != null){
+                if(line.isBlank()){
+                    continue;
+                }
+                if(line.length() < 32){
+                    throw new IOException("Line " + (length + 1) + " of " + file + " is not a 32 bit word");
+                }
+                int instruction = 0;
+                for(int i = 0; i<32; i++){
+                    if(line.charAt(i) == '1'){
+                        instruction |= 1 << (31 - i);
+                    }
+                }
+                if(length == program.length){
+                    program = Arrays.copyOf(program, length * 2);
+                }
+                program[length++] = instruction;
+            }
+        }
+        return Arrays.copyOf(program, length);
+    }
+}
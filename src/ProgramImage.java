@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+//A program in the binary image format, which takes 4 bytes per word instead of the 33 of the text
+//format and can be memory mapped, so even very large programs load with a single copy straight
+//from the file into memory. All values are little-endian ints:
+//
+//  header (HEADER_SIZE bytes)
+//    0  MAGIC
+//    4  VERSION
+//    8  flags, currently always 0
+//    12 entry point, the address execution starts at
+//    16 initial stack pointer, or TOP_OF_MEMORY
+//    20 number of segments
+//    24 CRC32C checksum of everything after the header
+//    28 reserved, 0
+//  segment table, 16 bytes per segment
+//    0  type (CODE, DATA or LINES)
+//    4  address the segment is loaded at
+//    8  length in words
+//    12 offset of the segment's words from the start of the file, in bytes
+//  segment words
+public class ProgramImage {
+
+    //"SIAI" - SIA32 image
+    public static final int MAGIC = 0x49414953;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int SEGMENT_SIZE = 16;
+
+    public static final int CODE = 0;
+    public static final int DATA = 1;
+
+    //Segment of the source line each word of the code at the same address was assembled from (0 if
+    //not known). It is not loaded into memory - see getLine()
+    public static final int LINES = 2;
+
+    //Stack pointer meaning the last address of whatever memory the image is loaded into
+    public static final int TOP_OF_MEMORY = -1;
+
+    private final int entryPoint;
+    private final int stackPointer;
+    private final List<Segment> segments;
+
+    public ProgramImage(int entryPoint, int stackPointer, List<Segment> segments){
+        this.entryPoint = entryPoint;
+        this.stackPointer = stackPointer;
+        this.segments = Collections.unmodifiableList(new ArrayList<>(segments));
+    }
+
+    //Creates an image of a program as returned by Parser.parse(), a single code segment at address 0
+    public static ProgramImage of(int[] program){
+        return new ProgramImage(0, TOP_OF_MEMORY, List.of(new Segment(CODE, 0, IntBuffer.wrap(program))));
+    }
+
+    //Creates an image of a program as returned by Parser.parse() along with the source line of each
+    //of its instructions, as returned by Parser.getLines()
+    public static ProgramImage of(int[] program, int[] lines){
+        return new ProgramImage(0, TOP_OF_MEMORY, List.of(new Segment(CODE, 0, IntBuffer.wrap(program)),
+                new Segment(LINES, 0, IntBuffer.wrap(lines))));
+    }
+
+    //Converts a program in the text format (see ProgramFile) into an image
+    public static ProgramImage fromText(Path file) throws IOException {
+        return of(ProgramFile.readText(file));
+    }
+
+    public int getEntryPoint(){
+        return entryPoint;
+    }
+
+    public int getStackPointer(){
+        return stackPointer;
+    }
+
+    public List<Segment> getSegments(){
+        return segments;
+    }
+
+    //Returns the number of words of memory needed to hold every segment
+    public long extent(){
+        long extent = 0;
+        for(Segment segment : segments){
+            if(segment.type != LINES){
+                extent = Math.max(extent, Integer.toUnsignedLong(segment.address) + segment.length());
+            }
+        }
+        return extent;
+    }
+
+    //Returns the source line the instruction at the given address was assembled from, or 0 if the
+    //image does not know
+    public int getLine(int address){
+        for(Segment segment : segments){
+            long offset = Integer.toUnsignedLong(address) - Integer.toUnsignedLong(segment.address);
+            if(segment.type == LINES && offset >= 0 && offset < segment.length()){
+                return segment.words.get((int)offset);
+            }
+        }
+        return 0;
+    }
+
+    //Returns true if the file starts with the image MAGIC
+    public static boolean isImage(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while(magic.hasRemaining() && channel.read(magic) >= 0){
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    //Maps an image file into memory. The segments are views of the mapping rather than copies, and
+    //the mapping stays valid after the channel is closed
+    public static ProgramImage map(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            if(channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE){
+                throw new IOException(file + " is not a program image");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.getInt(0) != MAGIC){
+            throw new IOException(file + " is not a program image");
+        }
+        if(buffer.getInt(4) != VERSION){
+            throw new IOException(file + " is image version " + buffer.getInt(4) + ", only version " + VERSION + " is supported");
+        }
+        if(buffer.getInt(24) != checksum(buffer)){
+            throw new IOException(file + " is corrupt, its checksum does not match");
+        }
+
+        int count = buffer.getInt(20);
+        if(count < 0 || HEADER_SIZE + (long)count * SEGMENT_SIZE > buffer.capacity()){
+            throw new IOException(file + " has a broken segment table");
+        }
+        List<Segment> segments = new ArrayList<>(count);
+        for(int i = 0; i<count; i++){
+            int entry = HEADER_SIZE + i * SEGMENT_SIZE;
+            int length = buffer.getInt(entry + 8);
+            int offset = buffer.getInt(entry + 12);
+            if(length < 0 || offset < 0 || (offset & 3) != 0 || offset + (long)length * 4 > buffer.capacity()){
+                throw new IOException(file + " has a segment outside of the file");
+            }
+            IntBuffer words = buffer.slice(offset, length * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            segments.add(new Segment(buffer.getInt(entry), buffer.getInt(entry + 4), words));
+        }
+        return new ProgramImage(buffer.getInt(12), buffer.getInt(16), segments);
+    }
+
+    //Writes the image to the given file, replacing it if it exists
+    public void write(Path file) throws IOException {
+        long size = HEADER_SIZE + (long)segments.size() * SEGMENT_SIZE;
+        for(Segment segment : segments){
+            size += segment.length() * 4L;
+        }
+        if(size > Integer.MAX_VALUE){
+            throw new IOException("Image is too large to write");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int)size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, 0);
+        buffer.putInt(12, entryPoint);
+        buffer.putInt(16, stackPointer);
+        buffer.putInt(20, segments.size());
+        int offset = HEADER_SIZE + segments.size() * SEGMENT_SIZE;
+        for(int i = 0; i<segments.size(); i++){
+            Segment segment = segments.get(i);
+            int entry = HEADER_SIZE + i * SEGMENT_SIZE;
+            buffer.putInt(entry, segment.type);
+            buffer.putInt(entry + 4, segment.address);
+            buffer.putInt(entry + 8, segment.length());
+            buffer.putInt(entry + 12, offset);
+            buffer.position(offset);
+            buffer.asIntBuffer().put(segment.words.duplicate().clear());
+            offset += segment.length() * 4;
+        }
+        buffer.putInt(24, checksum(buffer));
+
+        buffer.clear();
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+        }
+    }
+
+    //Checksum of everything in the buffer after the header
+    private static int checksum(ByteBuffer buffer){
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(HEADER_SIZE, buffer.capacity() - HEADER_SIZE));
+        return (int)crc.getValue();
+    }
+
+    //A run of words loaded at a fixed address
+    public static class Segment {
+
+        public final int type;
+        public final int address;
+        final IntBuffer words;
+
+        public Segment(int type, int address, IntBuffer words){
+            this.type = type;
+            this.address = address;
+            this.words = words;
+        }
+
+        public int length(){
+            return words.capacity();
+        }
+
+        //Returns a copy of the segment's words
+        public int[] toArray(){
+            int[] array = new int[length()];
+            words.get(0, array);
+            return array;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+//One core's view of the memory shared by the cores of a QuantumScheduler. While buffering, writes
+//are kept in a small hash table of this core's own and reads see them over the shared memory, which
+//nothing changes until the scheduler commits every core's writes at the end of the quantum. That
+//way cores can run a quantum at the same time on any number of threads and still only see what
+//the other cores wrote in earlier quanta. Atomic instructions and fences cannot be run against a
+//view like that, so they end the quantum by throwing QuantumEnd before doing anything; the
+//scheduler runs them directly on the shared memory once the writes are committed.
+class QuantumMemory extends MainMemory {
+
+    //Thrown by an atomic instruction or fence while buffering. It carries no stack trace, so it is
+    //only built once per view
+    static class QuantumEnd extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        QuantumEnd(){
+            super(null, null, false, false);
+        }
+    }
+
+    private final MainMemory shared;
+    private final QuantumEnd end = new QuantumEnd();
+
+    //When false every access goes straight to the shared memory
+    private boolean buffering;
+
+    //Buffered writes: the addresses written, numbered in the order they were first written so they
+    //can be committed in that order, and the value of each
+    private final AddressTable writes = new AddressTable();
+    private int[] values = new int[32];
+
+    QuantumMemory(MainMemory shared){
+        super(shared);
+        this.shared = shared;
+    }
+
+    //Starts or stops keeping writes apart from the shared memory
+    void setBuffering(boolean buffering){
+        this.buffering = buffering;
+    }
+
+    //Writes every buffered write to the shared memory and empties the buffer
+    void commit(){
+        for(int i = 0; i<writes.size(); i++){
+            shared.writeValue(writes.address(i), values[i]);
+        }
+        writes.clear();
+    }
+
+    private void put(int address, int value){
+        int write = writes.add(address);
+        if(write == values.length){
+            values = Arrays.copyOf(values, write * 2);
+        }
+        values[write] = value;
+    }
+
+    @Override
+    public int readValue(int address){
+        if(buffering && writes.size() > 0){
+            int write = writes.find(address);
+            if(write >= 0){
+                return values[write];
+            }
+        }
+        return shared.readValue(address);
+    }
+
+    @Override
+    public void writeValue(int address, int value){
+        if(!buffering){
+            shared.writeValue(address, value);
+            return;
+        }
+        check(address);
+        put(address, value);
+    }
+
+    //Instructions this core wrote itself are decoded from the buffer, so a program can still modify
+    //its own code within a quantum
+    @Override
+    public DecodedInstruction decode(int address){
+        if(buffering && writes.size() > 0){
+            int write = writes.find(address);
+            if(write >= 0){
+                return DecodedInstruction.decode(values[write]);
+            }
+        }
+        return shared.decode(address);
+    }
+
+    @Override
+    public int codeVersion(){
+        return shared.codeVersion();
+    }
+
+    //Instructions this core wrote itself are not fused with the ones around them
+    @Override
+    boolean fuses(){
+        return false;
+    }
+
+    @Override
+    public int compareAndExchange(int address, int expected, int value){
+        if(buffering){
+            throw end;
+        }
+        return shared.compareAndExchange(address, expected, value);
+    }
+
+    @Override
+    public int getAndAdd(int address, int delta){
+        if(buffering){
+            throw end;
+        }
+        return shared.getAndAdd(address, delta);
+    }
+
+    @Override
+    public int getAndSet(int address, int value){
+        if(buffering){
+            throw end;
+        }
+        return shared.getAndSet(address, value);
+    }
+
+    @Override
+    public void fence(){
+        if(buffering){
+            throw end;
+        }
+        shared.fence();
+    }
+}
@@ -0,0 +1,204 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//Runs several cores in one shared memory like MultiProcessor, but deterministically: the result
+//only depends on the program, the quantum and the seed, never on how the host threads happen to
+//be scheduled, so a run can be repeated exactly on 1 host thread or 64.
+//
+//Time is split into rounds. In each round every core that has not halted runs the same number of
+//instructions (the quantum) against its own QuantumMemory: it sees the memory as it was at the
+//start of the round plus its own writes. The cores of a round can run at the same time, and once
+//all of them are done (the barrier) their writes are committed to the shared memory one core after
+//another, in an order drawn from the seed each round, so when two cores write the same word the
+//later one in that order wins. An atomic instruction or fence ends a core's quantum early; after
+//the writes are committed, those instructions are run on the shared memory one at a time in the
+//same order, so atomics still behave as in the memory model of MultiProcessor - a compare and swap
+//lock is only ever taken by one core. Cores start as they do in MultiProcessor, with their number in
+//r31, the number of cores in r30 and their own stack.
+//
+//If a core throws, the run stops at the end of that round (after committing its writes) and the
+//failure of the first such core in the round's order is thrown, with any others suppressed in it.
+//The JIT engine only interprets here, since compiled blocks cannot stop in the middle of a quantum.
+public class QuantumScheduler {
+
+    private final MainMemory memory;
+    private final Processor[] cores;
+    private final QuantumMemory[] views;
+    private final int quantum;
+    private final Random random;
+
+    //Number of rounds run so far
+    private long rounds;
+
+    public QuantumScheduler(MainMemory memory, int cores, ExecutionMode mode, int quantum, long seed){
+        this(memory, cores, MultiProcessor.DEFAULT_STACK_SIZE, mode, quantum, seed);
+    }
+
+    public QuantumScheduler(MainMemory memory, int cores, int stackSize, ExecutionMode mode, int quantum,
+                            long seed){
+        if(cores < 1){
+            throw new IllegalArgumentException("There must be at least one core");
+        }
+        if(stackSize < 1 || (long)cores * stackSize > memory.size()){
+            throw new IllegalArgumentException("Memory of " + memory.size() + " words can not hold " + cores
+                    + " stacks of " + stackSize + " words");
+        }
+        if(quantum < 1){
+            throw new IllegalArgumentException("The quantum must be at least 1 instruction");
+        }
+        this.memory = memory;
+        this.quantum = quantum;
+        random = new Random(seed);
+        memory.share();
+        this.cores = new Processor[cores];
+        views = new QuantumMemory[cores];
+        for(int i = 0; i<cores; i++){
+            views[i] = new QuantumMemory(memory);
+            Processor core = new Processor(views[i], mode);
+            core.setStackPointer((int)(memory.size() - 1 - (long)i * stackSize));
+            core.r[MultiProcessor.CORE_REGISTER].set(i);
+            core.r[MultiProcessor.CORES_REGISTER].set(cores);
+            this.cores[i] = core;
+        }
+    }
+
+    //Runs rounds until every core has halted, running the cores of each round on up to the given
+    //number of host threads. The threads only exist for the duration of the call
+    public void run(int threads) throws Exception {
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "quantum");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        try {
+            while(round(pool)){
+                rounds++;
+            }
+        } finally {
+            if(pool != null){
+                pool.shutdown();
+            }
+        }
+    }
+
+    //Runs one round, returning false if every core had already halted
+    private boolean round(ExecutorService pool) throws Exception {
+        List<Integer> running = new ArrayList<>();
+        for(int i = 0; i<cores.length; i++){
+            if(!cores[i].isHalted()){
+                running.add(i);
+            }
+        }
+        if(running.isEmpty()){
+            return false;
+        }
+
+        //Whether each core stopped at an atomic or fence, and what each one threw
+        boolean[] stopped = new boolean[cores.length];
+        Throwable[] failures = new Throwable[cores.length];
+        List<Callable<Void>> slices = new ArrayList<>(running.size());
+        for(int core : running){
+            slices.add(() -> {
+                slice(core, stopped, failures);
+                return null;
+            });
+        }
+        if(pool == null){
+            for(Callable<Void> slice : slices){
+                slice.call();
+            }
+        }
+        else{
+            //invokeAll() is the barrier, and waiting on its futures makes the cores' writes visible here
+            for(Future<Void> future : pool.invokeAll(slices)){
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+
+        //Commits the writes, then runs the held back atomics and fences, in this round's order
+        shuffle(running);
+        for(int core : running){
+            views[core].commit();
+        }
+        Throwable failure = null;
+        for(int core : running){
+            if(stopped[core] && failures[core] == null){
+                try {
+                    cores[core].run(1);
+                } catch (Throwable e) {
+                    failures[core] = e;
+                }
+            }
+            if(failures[core] != null){
+                if(failure == null){
+                    failure = failures[core];
+                }
+                else{
+                    failure.addSuppressed(failures[core]);
+                }
+            }
+        }
+        if(failure instanceof Exception exception){
+            throw exception;
+        }
+        if(failure instanceof Error error){
+            throw error;
+        }
+        return true;
+    }
+
+    //Runs a quantum of one core against its buffered view of memory
+    private void slice(int core, boolean[] stopped, Throwable[] failures){
+        Processor processor = cores[core];
+        QuantumMemory view = views[core];
+        view.setBuffering(true);
+        try {
+            processor.run(quantum);
+        } catch (QuantumMemory.QuantumEnd e) {
+            //The atomic or fence was fetched but did nothing, so it is run again after the barrier
+            processor.setProgramCounter(processor.getProgramCounter() - 1);
+            stopped[core] = true;
+        } catch (Throwable e) {
+            failures[core] = e;
+        } finally {
+            view.setBuffering(false);
+        }
+    }
+
+    //Shuffles the cores with the seeded generator (Fisher-Yates, so the order only depends on the seed)
+    private void shuffle(List<Integer> running){
+        for(int i = running.size() - 1; i>0; i--){
+            int j = random.nextInt(i + 1);
+            running.set(j, running.set(i, running.get(j)));
+        }
+    }
+
+    //Returns the number of rounds run so far
+    public long rounds(){
+        return rounds;
+    }
+
+    //Returns the number of cores
+    public int cores(){
+        return cores.length;
+    }
+
+    //Returns the given core, such as to set its program counter before running
+    public Processor getCore(int core){
+        return cores[core];
+    }
+
+    public MainMemory getMemory(){
+        return memory;
+    }
+}
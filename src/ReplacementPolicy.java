@@ -0,0 +1,6 @@
+//Which line of a set a Cache replaces on a miss once every line of the set is in use: the least
+//recently used one, the one a tree of bits points away from (pseudo LRU, one bit per pair of
+//subtrees), or one picked at random from a seeded generator so runs can be repeated
+public enum ReplacementPolicy {
+        LRU, PLRU, RANDOM
+}
@@ -0,0 +1,44 @@
+//Predicts where a return goes: every call pushes the address after it and every return pops one.
+//When a call is made with the stack full, the oldest address is dropped, so only the innermost
+//calls of deep recursion are predicted
+public class ReturnAddressStack {
+
+    public static final int DEFAULT_DEPTH = 16;
+
+    private final int[] addresses;
+
+    //Index of the next free entry (wrapping around) and how many entries are in use
+    private int top;
+    private int size;
+
+    public ReturnAddressStack(){
+        this(DEFAULT_DEPTH);
+    }
+
+    public ReturnAddressStack(int depth){
+        if(depth < 1){
+            throw new IllegalArgumentException("The stack must hold at least one address");
+        }
+        addresses = new int[depth];
+    }
+
+    void push(int address){
+        addresses[top] = address;
+        top = (top + 1) % addresses.length;
+        size = Math.min(size + 1, addresses.length);
+    }
+
+    //Returns the most recently pushed address as an unsigned int, or -1 if the stack is empty
+    long pop(){
+        if(size == 0){
+            return -1;
+        }
+        size--;
+        top = (top + addresses.length - 1) % addresses.length;
+        return addresses[top] & 0xFFFFFFFFL;
+    }
+
+    public int getDepth(){
+        return addresses.length;
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+//This class "handles" the source code for the Lexer, allowing it to peek ahead and get the character
+//at an incremented index like StringHandler did for a String, but pulling the source through a small
+//buffer so the whole document never has to be in memory at once. The source is a Reader, a
+//CharBuffer (which can wrap part of a String without copying it), or a ByteBuffer, such as a memory
+//mapped file, whose bytes are read as ASCII (ISO-8859-1) characters
+public class SourceHandler {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final ByteBuffer bytes;
+    private final CharBuffer chars;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int index;
+    private int limit;
+    private boolean ended;
+
+    public SourceHandler(Reader reader) {
+        this.reader = reader;
+        this.bytes = null;
+        this.chars = null;
+    }
+
+    public SourceHandler(ByteBuffer bytes) {
+        this.reader = null;
+        this.bytes = bytes.duplicate();
+        this.chars = null;
+    }
+
+    public SourceHandler(CharBuffer chars) {
+        this.reader = null;
+        this.bytes = null;
+        this.chars = chars.duplicate();
+    }
+
+    //Peeks ahead of the index by a specified amount, returns a char, or '\0' past the end of the
+    //document
+    public char peek(int i){
+        if(index + i < limit || fill(i + 1)){
+            return buffer[index + i];
+        }
+        return '\0';
+    }
+
+    //Note: increments the index whenever it is called, as opposed to peek()
+    public char getChar(){
+        char c = peek(0);
+        index++;
+        return c;
+    }
+
+    //Will skip the number of indexes specified, which must already have been peeked at
+    public void swallow(int i){
+        index += i;
+    }
+
+    //Returns true if the document is empty or the index has reached the end
+    public boolean isDone(){
+        return index >= limit && !fill(1);
+    }
+
+    //Reads from the source until at least count characters are buffered past the index, returning
+    //false if the document ends first
+    private boolean fill(int count){
+        System.arraycopy(buffer, index, buffer, 0, limit - index);
+        limit -= index;
+        index = 0;
+        while(limit < count && !ended){
+            int read = read(limit);
+            if(read < 0){
+                ended = true;
+            }
+            else{
+                limit += read;
+            }
+        }
+        return limit >= count;
+    }
+
+    //Reads as many characters as fit into the buffer after offset, returning -1 at the end
+    private int read(int offset){
+        if(bytes != null){
+            int length = Math.min(buffer.length - offset, bytes.remaining());
+            if(length == 0){
+                return -1;
+            }
+            for(int i = 0; i<length; i++){
+                buffer[offset + i] = (char)(bytes.get() & 0xFF);
+            }
+            return length;
+        }
+        if(chars != null){
+            int length = Math.min(buffer.length - offset, chars.remaining());
+            if(length == 0){
+                return -1;
+            }
+            chars.get(buffer, offset, length);
+            return length;
+        }
+        try{
+            return reader.read(buffer, offset, buffer.length - offset);
+        }
+        catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+//Predicts every branch the same way, taken or not taken, and never learns. Not taken is what the
+//pipeline does without any predictor
+public class StaticPredictor implements BranchPredictor {
+
+    private final boolean taken;
+
+    public StaticPredictor(boolean taken){
+        this.taken = taken;
+    }
+
+    @Override
+    public boolean predict(int pc){
+        return taken;
+    }
+
+    @Override
+    public void update(int pc, boolean taken){
+    }
+
+    @Override
+    public String toString(){
+        return taken ? "static taken" : "static not taken";
+    }
+}
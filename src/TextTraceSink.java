@@ -0,0 +1,61 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+//Writes trace records as text, one line per record listing the registers in binary, in the same
+//form the processor used to print every cycle
+public class TextTraceSink implements TraceSink {
+
+    private final Writer writer;
+    private final boolean closeStream;
+
+    //One line is 32 registers of 32 bits plus the brackets, commas and spaces between them
+    private final char[] line = new char[32 * 32 + 31 * 2 + 2];
+
+    //Writes to the given stream, closing it when the sink is closed
+    public TextTraceSink(OutputStream out){
+        this(out, true);
+    }
+
+    private TextTraceSink(OutputStream out, boolean closeStream){
+        writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII), 1 << 16);
+        this.closeStream = closeStream;
+    }
+
+    //Returns a sink writing to standard output, which stays open when the sink is closed
+    public static TextTraceSink standardOutput(){
+        return new TextTraceSink(new FileOutputStream(FileDescriptor.out), false);
+    }
+
+    public void write(long cycle, int programCounter, int stackPointer, int[] registers) throws IOException {
+        int position = 0;
+        line[position++] = '[';
+        for(int i = 0; i<registers.length; i++){
+            if(i > 0){
+                line[position++] = ',';
+                line[position++] = ' ';
+            }
+            int value = registers[i];
+            for(int bit = 31; bit >= 0; bit--){
+                line[position++] = (value >>> bit & 1) == 0 ? '0' : '1';
+            }
+        }
+        line[position++] = ']';
+        writer.write(line, 0, position);
+        writer.write(System.lineSeparator());
+    }
+
+    public void close() throws IOException {
+        if(closeStream){
+            writer.close();
+        }
+        else{
+            writer.flush();
+        }
+    }
+}
@@ -1,35 +1,59 @@
 
 //This class is a representation of a "token", which contains information regarding
 //what kind of token it is, where it resides on a document, and  optionally 
-//its value (ex. "hello")
+//its value (ex. "hello"). Numbers and registers are kept as an int rather than a String, so the
+//lexer does not have to build a String for every one of them. Tokens never change once made, so
+//they can be handed between threads freely
 public class Token {
 
-    private TokenType type;
-    private String value;
-    private int lineNum;
-    private int charPos;
+    private final TokenType type;
+    private final String value;
+    private final int number;
+    private final int lineNum;
+    private final int charPos;
 
     public Token(TokenType type, int lineNum, int charPos) {
-        this.type = type;
-        this.lineNum = lineNum;
-        this.charPos = charPos;
+        this(type, lineNum, charPos, null, 0);
     }
 
     public Token(TokenType type, int lineNum, int charPos, String value) {
-        this(type, lineNum, charPos);
+        this(type, lineNum, charPos, value, 0);
+    }
+
+    public Token(TokenType type, int lineNum, int charPos, int number) {
+        this(type, lineNum, charPos, null, number);
+    }
+
+    private Token(TokenType type, int lineNum, int charPos, String value, int number) {
+        this.type = type;
+        this.lineNum = lineNum;
+        this.charPos = charPos;
         this.value = value;
+        this.number = number;
     }
 
     public String getValue() {
+        if (value == null && (type == TokenType.NUMBER || type == TokenType.REGISTER)) {
+            return Integer.toString(number);
+        }
         return value;
     }
 
+    //Returns the value of a number, or the index of a register
+    public int getNumber() {
+        return value == null ? number : Integer.parseInt(value);
+    }
+
     public TokenType getType() {
         return type;
     }
 
+    public int getLineNum() {
+        return lineNum;
+    }
+
     public String toString() {
-        return type + "(" + lineNum + "," + charPos + "): \"" + value + "\"";
+        return type + "(" + lineNum + "," + charPos + "): \"" + getValue() + "\"";
     }
 
 }
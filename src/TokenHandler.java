@@ -1,36 +1,72 @@
-import java.util.LinkedList;
-import java.util.Optional;
+import java.util.Iterator;
 
-//Helper to allow for easier handling of the token list passed by the lexer
+//Helper to allow for easier handling of the tokens passed by the lexer. Tokens are pulled from the
+//source only as far as the parser looks ahead, into a small ring of tokens, so a Lexer can be handed
+//over directly and the tokens behind the parser are never kept
 public class TokenHandler {
 
-    private LinkedList<Token> tokens;
+    private final Iterator<Token> source;
 
-    public TokenHandler(LinkedList<Token> tokens) {
-        this.tokens = tokens;
+    //Tokens pulled from the source but not removed yet, count of them starting at first. The length
+    //is always a power of two
+    private Token[] tokens;
+    private int first;
+    private int count;
+
+    public TokenHandler(Iterator<Token> source) {
+        this.source = source;
+        this.tokens = new Token[4];
+    }
+
+    // Pulls tokens from the source until count of them are waiting, or the source runs out
+    private void fill(int wanted) {
+        while (count < wanted && source.hasNext()) {
+            if (count == tokens.length) {
+                Token[] grown = new Token[tokens.length * 2];
+                for (int i = 0; i < count; i++) {
+                    grown[i] = tokens[(first + i) & (tokens.length - 1)];
+                }
+                tokens = grown;
+                first = 0;
+            }
+            tokens[(first + count) & (tokens.length - 1)] = source.next();
+            count++;
+        }
     }
 
-    // Peeks at the next token if it is within the bounds of the list
-    public Optional<Token> peek(int j) {
-        if (j < tokens.size())
-            return Optional.ofNullable(tokens.get(j));
-        return Optional.empty();
+    // Peeks at the token j ahead, or returns null if there are not that many left
+    public Token peek(int j) {
+        fill(j + 1);
+        if (j < count)
+            return tokens[(first + j) & (tokens.length - 1)];
+        return null;
     }
 
     // Returns true if there are more tokens in the list
     public boolean moreTokens() {
-        return !tokens.isEmpty();
+        fill(1);
+        return count > 0;
+    }
+
+    // Removes and returns the next token, or returns null if there are none left
+    public Token remove() {
+        Token token = peek(0);
+        if (token != null) {
+            tokens[first] = null;
+            first = (first + 1) & (tokens.length - 1);
+            count--;
+        }
+        return token;
     }
 
     // Removes the token if the type matches with the first one in the list,
-    // else returns an empty optional
-    public Optional<Token> matchAndRemove(TokenType t) {
-        if (tokens.size() <= 0)
-            return Optional.empty();
-        if (tokens.getFirst().getType().equals(t)) {
-            return Optional.of(tokens.removeFirst());
+    // else returns null
+    public Token matchAndRemove(TokenType t) {
+        Token token = peek(0);
+        if (token != null && token.getType() == t) {
+            return remove();
         }
-        return Optional.empty();
+        return null;
     }
 
-}
\ No newline at end of file
+}
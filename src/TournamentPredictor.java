@@ -0,0 +1,51 @@
+//Runs two predictors side by side and picks one of them for each branch with a two bit saturating
+//counter per address (see BimodalPredictor): whenever the two disagree, the counter moves towards
+//the one that was right. By default a bimodal predictor, which learns quickly, is paired with a
+//gshare predictor, which does better on branches that depend on the path to them
+public class TournamentPredictor implements BranchPredictor {
+
+    public static final int DEFAULT_ENTRIES = 4096;
+
+    private final BranchPredictor first;
+    private final BranchPredictor second;
+    private final byte[] choosers;
+    private final int mask;
+
+    //What each predictor said for the branch being predicted
+    private boolean firstTaken;
+    private boolean secondTaken;
+
+    public TournamentPredictor(){
+        this(new BimodalPredictor(), new GsharePredictor(), DEFAULT_ENTRIES);
+    }
+
+    //Chooses between the given predictors with the given number of counters, a power of two. Low
+    //counters pick the first predictor, high ones the second
+    public TournamentPredictor(BranchPredictor first, BranchPredictor second, int entries){
+        this.first = first;
+        this.second = second;
+        choosers = BimodalPredictor.counters(entries);
+        mask = entries - 1;
+    }
+
+    @Override
+    public boolean predict(int pc){
+        firstTaken = first.predict(pc);
+        secondTaken = second.predict(pc);
+        return choosers[pc & mask] >= 2 ? secondTaken : firstTaken;
+    }
+
+    @Override
+    public void update(int pc, boolean taken){
+        if(firstTaken != secondTaken){
+            BimodalPredictor.train(choosers, pc & mask, secondTaken == taken);
+        }
+        first.update(pc, taken);
+        second.update(pc, taken);
+    }
+
+    @Override
+    public String toString(){
+        return "tournament of " + first + " and " + second + " (" + choosers.length + " entries)";
+    }
+}
@@ -0,0 +1,65 @@
+import java.io.IOException;
+
+//Ring buffer of trace records passed from the processor thread (the only producer) to the tracer's
+//writer thread (the only consumer) without taking a lock. Each side only ever writes its own
+//position, and the volatile write of that position publishes the records behind it.
+//A record is RECORD_SIZE ints: the cycle (high and low half), program counter, stack pointer and
+//the 32 registers
+class TraceBuffer {
+
+    static final int RECORD_SIZE = 36;
+
+    private final int[] slots;
+    private final int mask;
+
+    //Number of records written by the producer and read by the consumer so far
+    private volatile long written;
+    private volatile long read;
+
+    //The producer's last look at read, only refreshed when the buffer seems full
+    private long readSeen;
+
+    //The consumer's scratch copy of a record's registers, handed to the sink
+    private final int[] registers = new int[32];
+
+    //Creates a buffer holding at least the given number of records (rounded up to a power of two)
+    TraceBuffer(int capacity){
+        int records = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        slots = new int[records * RECORD_SIZE];
+        mask = records - 1;
+    }
+
+    //Adds a record, returning false without adding it if the buffer is full
+    boolean offer(long cycle, int programCounter, int stackPointer, int[] registers){
+        long position = written;
+        if(position - readSeen > mask){
+            readSeen = read;
+            if(position - readSeen > mask){
+                return false;
+            }
+        }
+        int start = (int)(position & mask) * RECORD_SIZE;
+        slots[start] = (int)(cycle >>> 32);
+        slots[start + 1] = (int)cycle;
+        slots[start + 2] = programCounter;
+        slots[start + 3] = stackPointer;
+        System.arraycopy(registers, 0, slots, start + 4, 32);
+        written = position + 1;
+        return true;
+    }
+
+    //Passes every record added so far to the sink, returning how many there were
+    int drain(TraceSink sink) throws IOException {
+        long first = read;
+        long end = written;
+        for(long position = first; position < end; position++){
+            int start = (int)(position & mask) * RECORD_SIZE;
+            long cycle = ((long)slots[start] << 32) | (slots[start + 1] & 0xFFFFFFFFL);
+            System.arraycopy(slots, start + 4, registers, 0, 32);
+            sink.write(cycle, slots[start + 2], slots[start + 3], registers);
+            //Frees the slot straight away so a waiting producer can continue
+            read = position + 1;
+        }
+        return (int)(end - first);
+    }
+}
@@ -0,0 +1,4 @@
+//Which cycles a Tracer records: none, every Nth cycle, only cycles that changed a register, or all
+public enum TraceMode {
+        OFF, EVERY_N, ON_CHANGE, FULL
+}
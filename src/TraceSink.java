@@ -0,0 +1,10 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+//Destination for the records of a Tracer. Only ever called from the tracer's writer thread, so
+//implementations do not need to be thread safe
+public interface TraceSink extends Closeable {
+
+    //Writes the state after the given cycle (counted from 1)
+    void write(long cycle, int programCounter, int stackPointer, int[] registers) throws IOException;
+}
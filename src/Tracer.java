@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+//Records the state of a processor as it runs, replacing the register dump that used to be printed
+//every cycle. The processor thread only copies the registers into a TraceBuffer, and a background
+//writer thread drains the buffer to a TraceSink, so formatting and I/O never hold up the program.
+//If the writer falls behind the processor waits for room rather than dropping records.
+//A processor with no tracer (or a tracer in TraceMode.OFF) pays a single null check per cycle.
+public class Tracer implements AutoCloseable {
+
+    //Records the buffer holds when no capacity is given
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    //How long each side sleeps while waiting for the other
+    private static final long WAIT_NANOS = 50_000;
+
+    private final TraceMode mode;
+    private final int interval;
+    private final TraceBuffer buffer;
+    private final TraceSink sink;
+    private final Thread writer;
+
+    //Scratch copy of the registers, and the registers of the last record for TraceMode.ON_CHANGE
+    private final int[] registers = new int[32];
+    private final int[] last = new int[32];
+    private boolean recorded;
+
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    //Records every cycle, or no cycles for TraceMode.OFF
+    public Tracer(TraceMode mode, TraceSink sink){
+        this(mode, 1, sink, DEFAULT_CAPACITY);
+    }
+
+    //Records in the given mode, where interval is the N of TraceMode.EVERY_N
+    public Tracer(TraceMode mode, int interval, TraceSink sink){
+        this(mode, interval, sink, DEFAULT_CAPACITY);
+    }
+
+    public Tracer(TraceMode mode, int interval, TraceSink sink, int capacity){
+        if(interval < 1){
+            throw new IllegalArgumentException("Trace interval must be at least 1");
+        }
+        this.mode = mode;
+        this.interval = interval;
+        this.sink = sink;
+        buffer = new TraceBuffer(capacity);
+        writer = new Thread(this::write, "trace-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public TraceMode getMode(){
+        return mode;
+    }
+
+    //Number of instructions an engine that runs in steps should run between calls to record()
+    int step(){
+        return mode == TraceMode.EVERY_N ? interval : 1;
+    }
+
+    //Called after the given cycle with the processor's state, recording it if the mode asks for it.
+    //The registers are only copied out of the words for a cycle that is recorded
+    public void record(long cycle, int programCounter, int stackPointer, Word[] r){
+        if(skips(cycle)){
+            return;
+        }
+        for(int i = 0; i<32; i++){
+            registers[i] = r[i].getSigned();
+        }
+        record(cycle, programCounter, stackPointer, registers);
+    }
+
+    //Same as above, for engines that keep their registers in ints
+    public void record(long cycle, int programCounter, int stackPointer, int[] r){
+        if(skips(cycle)){
+            return;
+        }
+        if(mode == TraceMode.ON_CHANGE){
+            if(recorded && Arrays.equals(r, last)){
+                return;
+            }
+            System.arraycopy(r, 0, last, 0, 32);
+            recorded = true;
+        }
+        offer(cycle, programCounter, stackPointer, r);
+    }
+
+    //Called once the processor has halted on the given cycle. Every other mode has recorded that
+    //cycle already, TraceMode.EVERY_N records it here when it is not one of every N, so the trace
+    //always ends in the state the program halted in
+    public void halted(long cycle, int programCounter, int stackPointer, Word[] r){
+        if(mode == TraceMode.EVERY_N && cycle % interval != 0){
+            for(int i = 0; i<32; i++){
+                registers[i] = r[i].getSigned();
+            }
+            offer(cycle, programCounter, stackPointer, registers);
+        }
+    }
+
+    //Same as above, for engines that keep their registers in ints
+    public void halted(long cycle, int programCounter, int stackPointer, int[] r){
+        if(mode == TraceMode.EVERY_N && cycle % interval != 0){
+            offer(cycle, programCounter, stackPointer, r);
+        }
+    }
+
+    //Whether the mode leaves out the given cycle
+    private boolean skips(long cycle){
+        return mode == TraceMode.OFF || (mode == TraceMode.EVERY_N && cycle % interval != 0);
+    }
+
+    //Hands a record to the writer, waiting for room in the buffer
+    private void offer(long cycle, int programCounter, int stackPointer, int[] r){
+        while(!buffer.offer(cycle, programCounter, stackPointer, r)){
+            //Nothing will ever make room once the writer has failed, the error is reported by close()
+            if(failure != null){
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(WAIT_NANOS);
+        }
+    }
+
+    //Body of the writer thread, draining the buffer until the tracer is closed
+    private void write(){
+        try {
+            while(true){
+                boolean finished = closed;
+                if(buffer.drain(sink) == 0){
+                    if(finished){
+                        break;
+                    }
+                    LockSupport.parkNanos(WAIT_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    //Waits for every record to be written and closes the sink, throwing any error the writer hit
+    public void close() throws IOException {
+        if(closed){
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            sink.close();
+        } catch (IOException e) {
+            if(failure == null){
+                failure = e;
+            }
+        }
+        if(failure != null){
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+//A complete guest machine: its own memory and a processor holding the registers, program counter
+//and stack pointer, run on the chosen execution engine. Virtual machines share no state, so any
+//number of them can exist in one JVM and run on different threads, though each one should only be
+//used by one thread at a time. Nothing is traced unless a Tracer is given with setTracer().
+public class VirtualMachine {
+
+    private final MainMemory memory;
+    private final Processor processor;
+
+    //Runs the given memory, which should already hold the program at address 0
+    public VirtualMachine(MainMemory memory, ExecutionMode mode){
+        this(memory, memory, mode);
+    }
+
+    //Same, but the processor sees the memory through the given caches (see CachedMemory), or
+    //directly if they are null
+    public VirtualMachine(MainMemory memory, CacheHierarchy caches, ExecutionMode mode){
+        this(memory, caches == null ? memory : new CachedMemory(memory, caches), mode);
+    }
+
+    //Same, but the processor sees the memory through the given view of it, such as a CachedMemory
+    VirtualMachine(MainMemory memory, MainMemory view, ExecutionMode mode){
+        this.memory = memory;
+        processor = new Processor(view, mode);
+    }
+
+    //Loads a program image, such as the one returned by Parser.parse(), into a memory of the
+    //default size
+    public VirtualMachine(int[] program, ExecutionMode mode){
+        this(load(program), mode);
+    }
+
+    //Starts from a snapshot of memory, such as a loaded program, which is shared with every other
+    //machine started from it until written
+    public VirtualMachine(MemoryStore image, ExecutionMode mode){
+        this(new MainMemory(image), mode);
+    }
+
+    //Loads a binary program image into a memory of the given size (at least big enough to hold the
+    //image), starting at the image's entry point and stack pointer
+    public VirtualMachine(ProgramImage image, long size, MemoryBacking backing, ExecutionMode mode){
+        this(image, size, backing, null, mode);
+    }
+
+    //Same, but the processor sees the memory through the given caches, or directly if they are null
+    public VirtualMachine(ProgramImage image, long size, MemoryBacking backing, CacheHierarchy caches,
+                          ExecutionMode mode){
+        this(new MainMemory(Math.max(size, image.extent()), backing), caches, mode);
+        memory.load(image);
+        processor.setProgramCounter(image.getEntryPoint());
+        if(image.getStackPointer() != ProgramImage.TOP_OF_MEMORY){
+            processor.setStackPointer(image.getStackPointer());
+        }
+    }
+
+    private static MainMemory load(int[] program){
+        MainMemory memory = new MainMemory();
+        memory.load(program);
+        return memory;
+    }
+
+    //Runs the program until it halts
+    public void run() throws Exception {
+        processor.run();
+    }
+
+    //Runs at most the given number of instructions, stopping early on a halt, and returns how many
+    //were run (see Processor.run(long)), such as to take a Checkpoint every so often
+    public long run(long limit) throws Exception {
+        return processor.run(limit);
+    }
+
+    //Sets the tracer that records the state while running, null (the default) for no tracing
+    public void setTracer(Tracer tracer){
+        processor.setTracer(tracer);
+    }
+
+    //Returns the values of all 32 registers
+    public int[] getRegisters(){
+        int[] registers = new int[processor.r.length];
+        for(int i = 0; i<registers.length; i++){
+            registers[i] = processor.r[i].getSigned();
+        }
+        return registers;
+    }
+
+    public int getProgramCounter(){
+        return processor.getProgramCounter();
+    }
+
+    public int getStackPointer(){
+        return processor.getStackPointer();
+    }
+
+    public boolean isHalted(){
+        return processor.isHalted();
+    }
+
+    public MainMemory getMemory(){
+        return memory;
+    }
+
+    public Processor getProcessor(){
+        return processor;
+    }
+}
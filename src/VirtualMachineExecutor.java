@@ -0,0 +1,61 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Runs virtual machines concurrently on a fixed pool of threads, so a whole batch of guest programs
+//can share one warm JVM instead of starting a JVM per program. Guest programs never block, so one
+//thread per core keeps every core busy without any more threads than that.
+public class VirtualMachineExecutor implements AutoCloseable {
+
+    private final ExecutorService pool;
+
+    //Uses one thread per available processor
+    public VirtualMachineExecutor(){
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public VirtualMachineExecutor(int threads){
+        AtomicInteger count = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "vm-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    //Starts running the given machine, the future completes with the machine once it halts, or with
+    //whatever the program threw
+    public Future<VirtualMachine> submit(VirtualMachine machine){
+        return pool.submit(() -> {
+            machine.run();
+            return machine;
+        });
+    }
+
+    //Runs every given machine and waits for all of them to finish, returning their futures in the
+    //same order so each result (or failure) can be checked
+    public List<Future<VirtualMachine>> runAll(Collection<VirtualMachine> machines) throws InterruptedException {
+        List<Future<VirtualMachine>> futures = new ArrayList<>(machines.size());
+        for(VirtualMachine machine : machines){
+            futures.add(submit(machine));
+        }
+        for(Future<VirtualMachine> future : futures){
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                //Left in the future for the caller
+            }
+        }
+        return futures;
+    }
+
+    //Stops accepting machines, letting the ones already submitted finish
+    public void close(){
+        pool.shutdown();
+    }
+}